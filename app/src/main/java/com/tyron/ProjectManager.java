@@ -1,5 +1,7 @@
 package com.tyron;
 
+import android.util.Log;
+
 import androidx.annotation.NonNull;
 
 import com.google.common.base.Charsets;
@@ -81,7 +83,16 @@ public class ProjectManager {
             return;
         }
 
+        if (mCurrentProject != null && mCurrentProject != project) {
+            mCurrentProject.getFileChangeJournal().close();
+        }
         mCurrentProject = project;
+        try {
+            project.getFileChangeJournal().start();
+        } catch (IOException e) {
+            // Caches fall back to checking modification times
+            Log.w("ProjectManager", "Unable to watch project files", e);
+        }
 
         if (module instanceof JavaModule) {
             JavaModule javaModule = (JavaModule) module;
@@ -116,6 +127,7 @@ public class ProjectManager {
 
     public void closeProject(@NonNull Project module) {
         if (module.equals(mCurrentProject)) {
+            mCurrentProject.getFileChangeJournal().close();
             mCurrentProject = null;
         }
     }
@@ -25,6 +25,7 @@ import com.tyron.builder.project.Project;
 import com.tyron.builder.project.api.AndroidModule;
 import com.tyron.builder.project.api.Module;
 import com.tyron.code.R;
+import com.tyron.code.ui.editor.SaveQueue;
 import com.tyron.code.util.ApkInstaller;
 
 import java.io.File;
@@ -165,6 +166,9 @@ public class CompilerService extends Service {
         }
 
         Executors.newSingleThreadExecutor().execute(() -> {
+            // Files saved right before the build may not be written yet
+            SaveQueue.getInstance().flush();
+
             Module module = project.getMainModule();
             Builder<? extends Module> projectBuilder = getBuilderForProject(module, type);
 
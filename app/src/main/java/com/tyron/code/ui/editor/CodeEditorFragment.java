@@ -45,11 +45,9 @@ import com.tyron.completion.provider.CompletionEngine;
 import com.tyron.completion.provider.CompletionProvider;
 import com.tyron.completion.rewrite.AddImport;
 
-import org.apache.commons.io.FileUtils;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.Collections;
 import java.util.List;
@@ -59,6 +57,7 @@ import java.util.concurrent.Executors;
 import io.github.rosemoe.sora.interfaces.EditorEventListener;
 import io.github.rosemoe.sora.interfaces.EditorLanguage;
 import io.github.rosemoe.sora.text.CharPosition;
+import io.github.rosemoe.sora.text.Content;
 import io.github.rosemoe.sora.text.Cursor;
 import io.github.rosemoe.sora.widget.CodeEditor;
 import io.github.rosemoe.sora.widget.schemes.SchemeDarcula;
@@ -74,6 +73,11 @@ public class CodeEditorFragment extends Fragment
     private EditorLanguage mLanguage;
     private File mCurrentFile = new File("");
     private MainViewModel mMainViewModel;
+    /**
+     * Content last given to the file manager, so closing this editor does not drop the
+     * snapshot of another editor of the same file
+     */
+    private CharSequence mSnapshot;
     private SharedPreferences mPreferences;
 
     public static CodeEditorFragment newInstance(File file) {
@@ -99,7 +103,7 @@ public class CodeEditorFragment extends Fragment
         if (ProjectManager.getInstance().getCurrentProject() != null) {
             ProjectManager.getInstance().getCurrentProject().getModule(mCurrentFile)
                     .getFileManager()
-                    .setSnapshotContent(mCurrentFile, mEditor.getText().toString());
+                    .setSnapshotContent(mCurrentFile, mEditor.getText().createSnapshot());
         }
     }
 
@@ -112,7 +116,7 @@ public class CodeEditorFragment extends Fragment
         if (ProjectManager.getInstance().getCurrentProject() != null) {
             ProjectManager.getInstance().getCurrentProject().getModule(mCurrentFile)
                     .getFileManager()
-                    .setSnapshotContent(mCurrentFile, mEditor.getText().toString());
+                    .setSnapshotContent(mCurrentFile, mEditor.getText().createSnapshot());
         }
     }
 
@@ -218,13 +222,15 @@ public class CodeEditorFragment extends Fragment
         if (mCurrentFile.exists()) {
             String text;
             try {
-                text = FileUtils.readFileToString(mCurrentFile, StandardCharsets.UTF_8);
+                text = SaveQueue.getInstance().read(mCurrentFile);
             } catch (IOException e) {
                 text = "File does not exist: " + e.getMessage();
             }
             if (module != null) {
                 module.getFileManager().openFileForSnapshot(mCurrentFile, text);
+                mSnapshot = text;
             }
+            SaveQueue.getInstance().setSavedContent(mCurrentFile, text);
             mEditor.setText(text);
         }
 
@@ -288,9 +294,8 @@ public class CodeEditorFragment extends Fragment
             dialog.setMessage("Analyzing");
             dialog.show();
 
+            save();
             Executors.newSingleThreadExecutor().execute(() -> {
-                save();
-
                 List<CodeActionList> actions = getCodeActions();
                 if (getActivity() != null && mEditor != null) {
                     mEditor.postDelayed(() -> {
@@ -363,7 +368,7 @@ public class CodeEditorFragment extends Fragment
 
             @Override
             public void onNewTextSet(@NonNull CodeEditor editor) {
-                updateFile(editor.getText().toString());
+                updateFile(editor.getText());
             }
 
             @Override
@@ -396,7 +401,12 @@ public class CodeEditorFragment extends Fragment
 
             private void updateFile(CharSequence contents) {
                 if (module != null) {
-                    module.getFileManager().setSnapshotContent(mCurrentFile, contents.toString());
+                    // snapshots share the unchanged lines with the editor instead of copying the text
+                    CharSequence snapshot = contents instanceof Content
+                            ? ((Content) contents).createSnapshot()
+                            : contents.toString();
+                    module.getFileManager().setSnapshotContent(mCurrentFile, snapshot);
+                    mSnapshot = snapshot;
                 }
             }
         });
@@ -413,9 +423,9 @@ public class CodeEditorFragment extends Fragment
     public void onDestroy() {
         super.onDestroy();
         if (ProjectManager.getInstance().getCurrentProject() != null) {
-            ProjectManager.getInstance().getCurrentProject().getModule(mCurrentFile)
-                    .getFileManager()
-                    .closeFileForSnapshot(mCurrentFile);
+            save();
+            // Closed after the save is written, so the file is not written twice at once
+            SaveQueue.getInstance().close(mCurrentFile, mSnapshot);
         }
         mPreferences.unregisterOnSharedPreferenceChangeListener(this);
     }
@@ -423,21 +433,7 @@ public class CodeEditorFragment extends Fragment
     @Override
     public void save() {
         if (mCurrentFile.exists()) {
-            String oldContents = "";
-            try {
-                oldContents = FileUtils.readFileToString(mCurrentFile, StandardCharsets.UTF_8);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            if (oldContents.equals(mEditor.getText().toString())) {
-                return;
-            }
-
-            try {
-                FileUtils.writeStringToFile(mCurrentFile, mEditor.getText().toString());
-            } catch (IOException e) {
-                // ignored
-            }
+            SaveQueue.getInstance().save(mCurrentFile, mEditor.getText().createSnapshot());
         }
     }
 
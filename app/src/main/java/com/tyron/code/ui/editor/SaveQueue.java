@@ -0,0 +1,215 @@
+package com.tyron.code.ui.editor;
+
+import android.util.Log;
+
+import com.tyron.ProjectManager;
+import com.tyron.builder.project.Project;
+import com.tyron.builder.project.api.JavaModule;
+import com.tyron.builder.project.api.Module;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Writes the files saved by the editors on a background thread.
+ *
+ * The content is compared with a digest of what is last read or written instead of reading
+ * the file again, and written to a temporary file that is renamed over the old one so a
+ * crash while saving does not leave it half written. Saves of a file that come before the
+ * previous one is written are merged, only the latest content is written.
+ */
+public class SaveQueue {
+
+    private static final String TAG = "SaveQueue";
+
+    private static SaveQueue sInstance;
+
+    public static synchronized SaveQueue getInstance() {
+        if (sInstance == null) {
+            sInstance = new SaveQueue();
+        }
+        return sInstance;
+    }
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    /**
+     * Latest content of the files waiting to be written, guarded by this
+     */
+    private final Map<File, CharSequence> mPending = new HashMap<>();
+    /**
+     * Latest content of the files that is saved but not written yet, guarded by this
+     */
+    private final Map<File, CharSequence> mUnwritten = new HashMap<>();
+    /**
+     * Digests of the content on disk, accessed only on the executor thread
+     */
+    private final Map<File, byte[]> mDigests = new HashMap<>();
+
+    private SaveQueue() {
+
+    }
+
+    /**
+     * Remember the content of a file that is just read, so saving it unchanged does not
+     * write anything
+     */
+    public void setSavedContent(File file, CharSequence content) {
+        mExecutor.execute(() -> mDigests.put(file, digest(encode(content))));
+    }
+
+    /**
+     * Read a file that is opened, with the content of saves that are not written yet, so an
+     * editor opened again right after closing it does not show the old text
+     */
+    public String read(File file) throws IOException {
+        CharSequence content;
+        synchronized (this) {
+            content = mUnwritten.get(file);
+        }
+        if (content != null) {
+            return content.toString();
+        }
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Save the content to the given file later. The content is read on another thread so it
+     * must not be modified afterwards, e.g. a snapshot of the editor text.
+     */
+    public void save(File file, CharSequence content) {
+        synchronized (this) {
+            mUnwritten.put(file, content);
+            if (mPending.put(file, content) != null) {
+                // The write that is already queued takes the new content
+                return;
+            }
+        }
+        mExecutor.execute(() -> write(file));
+    }
+
+    /**
+     * Close a file that is opened for snapshots after its pending saves are written.
+     * The snapshot is dropped without writing it again, the last save is what is on disk.
+     *
+     * @param snapshot The snapshot last set by the closing editor, the snapshot of an editor
+     *                 that opened the file again is kept
+     */
+    public void close(File file, CharSequence snapshot) {
+        mExecutor.execute(() -> {
+            mDigests.remove(file);
+            Project project = ProjectManager.getInstance().getCurrentProject();
+            if (project != null) {
+                project.getModule(file).getFileManager().discardSnapshot(file, snapshot);
+            }
+        });
+    }
+
+    /**
+     * Wait until the saves queued before this call are written. Must not be called on the
+     * main thread.
+     */
+    public void flush() {
+        try {
+            mExecutor.submit(() -> {}).get();
+        } catch (ExecutionException e) {
+            Log.w(TAG, "Unable to wait for saves", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write(File file) {
+        CharSequence content;
+        synchronized (this) {
+            content = mPending.remove(file);
+        }
+        if (content == null) {
+            return;
+        }
+        try {
+            writeIfChanged(file, content);
+        } finally {
+            synchronized (this) {
+                // Newer saves stay until they are written
+                mUnwritten.remove(file, content);
+            }
+        }
+    }
+
+    private void writeIfChanged(File file, CharSequence content) {
+        if (!file.exists()) {
+            return;
+        }
+
+        byte[] bytes = encode(content);
+        byte[] digest = digest(bytes);
+        byte[] savedDigest = mDigests.get(file);
+        if (digest != null && savedDigest != null && MessageDigest.isEqual(digest, savedDigest)) {
+            return;
+        }
+
+        try {
+            writeAtomically(file, bytes);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to save " + file, e);
+            // What is on disk is not known now
+            mDigests.remove(file);
+            return;
+        }
+        mDigests.put(file, digest);
+
+        Project project = ProjectManager.getInstance().getCurrentProject();
+        if (project != null) {
+            // The snapshot is not set here, the editor keeps it up to date and it may
+            // already hold newer text than what is saved
+            Module module = project.getModule(file);
+            if (module instanceof JavaModule && file.getName().endsWith(".java")) {
+                // The package may be changed
+                ((JavaModule) module).addJavaFile(file);
+            }
+            // Do not wait for the watcher, so a build started right away sees the change
+            project.getFileChangeJournal().record(file);
+        }
+    }
+
+    private static void writeAtomically(File file, byte[] bytes) throws IOException {
+        Path target = file.toPath();
+        Path temp = target.resolveSibling("." + file.getName() + ".tmp");
+        try {
+            Files.write(temp, bytes);
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static byte[] encode(CharSequence content) {
+        return content.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] digest(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            // Every file is written then
+            return null;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.tyron.code.ui.editor.language.java;
 
 import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import androidx.preference.PreferenceManager;
@@ -23,18 +25,17 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Stack;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
-import io.github.rosemoe.sora.data.BlockLine;
-import io.github.rosemoe.sora.data.NavigationItem;
 import io.github.rosemoe.sora.data.Span;
 import io.github.rosemoe.sora.langs.java.JavaCodeAnalyzer;
 import io.github.rosemoe.sora.langs.java.JavaTextTokenizer;
 import io.github.rosemoe.sora.langs.java.Tokens;
-import io.github.rosemoe.sora.text.CharPosition;
-import io.github.rosemoe.sora.text.Indexer;
-import io.github.rosemoe.sora.text.LineNumberCalculator;
+import io.github.rosemoe.sora.text.ContentSnapshot;
+import io.github.rosemoe.sora.text.LineAnalyzeResult;
 import io.github.rosemoe.sora.text.TextAnalyzeResult;
 import io.github.rosemoe.sora.text.TextAnalyzer;
 import io.github.rosemoe.sora.widget.CodeEditor;
@@ -51,34 +52,48 @@ public class JavaAnalyzer extends JavaCodeAnalyzer {
             Tokens.ANDEQ, Tokens.RPAREN, Tokens.LPAREN, Tokens.LBRACE, Tokens.NEW, Tokens.DOT,
             Tokens.SEMICOLON, Tokens.EQ, Tokens.NOTEQ, Tokens.NOT, Tokens.RBRACE, Tokens.COMMA};
 
+    /**
+     * Time to wait after the last edit before compiling, in milliseconds
+     */
+    private static final long DIAGNOSTICS_DELAY = 500L;
+
+    /**
+     * Compilations are run one at a time for all the editors
+     */
+    private static final ExecutorService sDiagnosticsService = Executors.newSingleThreadExecutor();
+
     private final CodeEditor mEditor;
     private DefaultLintClient mClient;
 
     private final SharedPreferences mPreferences;
 
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private volatile ContentSnapshot mPendingSnapshot;
+    private volatile Future<?> mDiagnosticsFuture;
+    private volatile Diagnostics mDiagnostics;
+
     public JavaAnalyzer(CodeEditor editor) {
         mEditor = editor;
         mPreferences = PreferenceManager.getDefaultSharedPreferences(editor.getContext());
     }
 
-    public void analyze(CharSequence content, TextAnalyzeResult colors, TextAnalyzer.AnalyzeThread.Delegate delegate) {
-
-        Instant startTime = Instant.now();
-
-        StringBuilder text = content instanceof StringBuilder ? (StringBuilder) content : new StringBuilder(content);
+    @Override
+    public LineState analyzeLine(CharSequence text, int start, int end, LineState state, LineAnalyzeResult result) {
+        int offset = start;
+        if (state.isInLongComment()) {
+            result.addIfNeeded(0, EditorColorScheme.COMMENT);
+            offset = findLongCommentEnd(text, start, end);
+            if (offset == -1) {
+                return state;
+            }
+        }
         JavaTextTokenizer tokenizer = new JavaTextTokenizer(text);
+        tokenizer.reset(text, offset, end);
         tokenizer.setCalculateLineColumn(false);
-        Tokens token, previous = Tokens.UNKNOWN;
-        int line = 0, column = 0;
-        LineNumberCalculator helper = new LineNumberCalculator(text);
-
-        Stack<BlockLine> stack = new Stack<>();
-        List<NavigationItem> labels = new ArrayList<>();
-        int maxSwitch = 1, currSwitch = 0;
-
-        boolean first = true;
+        Tokens token, previous = state.getPreviousToken();
+        boolean longComment = false;
 
-        while (delegate.shouldAnalyze()) {
+        while (true) {
             try {
                 // directNextToken() does not skip any token
                 token = tokenizer.directNextToken();
@@ -89,29 +104,30 @@ public class JavaAnalyzer extends JavaCodeAnalyzer {
             if (token == Tokens.EOF) {
                 break;
             }
-            // Backup values because looking ahead in function name match will change them
-            int thisIndex = tokenizer.getIndex();
+            int thisIndex = offset + tokenizer.getIndex();
             int thisLength = tokenizer.getTokenLength();
+            int column = thisIndex - start;
 
             switch (token) {
                 case WHITESPACE:
                 case NEWLINE:
-                    if (first) {
-                        colors.addNormalIfNull();
-                    }
                     break;
                 case IDENTIFIER:
-                    //Add a identifier to auto complete
-
                     //The previous so this will be the annotation's type name
                     if (previous == Tokens.AT) {
-                        colors.addIfNeeded(line, column, EditorColorScheme.ANNOTATION);
+                        result.addIfNeeded(column, EditorColorScheme.ANNOTATION);
                         break;
                     }
                     //Here we have to get next token to see if it is function
-                    //We can only get the next token in stream.
-                    //If more tokens required, we have to use a stack in tokenizer
-                    Tokens next = tokenizer.directNextToken();
+                    Tokens next;
+                    try {
+                        next = tokenizer.directNextToken();
+                    } catch (RuntimeException e) {
+                        // Unclosed literal at the end of line
+                        next = Tokens.UNKNOWN;
+                    }
+                    //Push back the next token
+                    tokenizer.pushBack(tokenizer.getTokenLength());
                     //The next is LPAREN,so this is function name or type name
                     if (next == Tokens.LPAREN) {
                         boolean found = false;
@@ -122,22 +138,17 @@ public class JavaAnalyzer extends JavaCodeAnalyzer {
                             }
                         }
                         if (!found) {
-                            colors.addIfNeeded(line, column, EditorColorScheme.FUNCTION_NAME);
-                            tokenizer.pushBack(tokenizer.getTokenLength());
+                            result.addIfNeeded(column, EditorColorScheme.FUNCTION_NAME);
                             break;
                         }
                     }
-                    //Push back the next token
-                    tokenizer.pushBack(tokenizer.getTokenLength());
-                    //This is a class definition
-
-                    colors.addIfNeeded(line, column, EditorColorScheme.TEXT_NORMAL);
+                    result.addIfNeeded(column, EditorColorScheme.TEXT_NORMAL);
                     break;
                 case CHARACTER_LITERAL:
                 case STRING:
                 case FLOATING_POINT_LITERAL:
                 case INTEGER_LITERAL:
-                    colors.addIfNeeded(line, column, EditorColorScheme.LITERAL);
+                    result.addIfNeeded(column, EditorColorScheme.LITERAL);
                     break;
                 case INT:
                 case LONG:
@@ -193,99 +204,123 @@ public class JavaAnalyzer extends JavaCodeAnalyzer {
                 case FALSE:
                 case NULL:
                 case SEMICOLON:
-                    colors.addIfNeeded(line, column, EditorColorScheme.KEYWORD);
+                    result.addIfNeeded(column, EditorColorScheme.KEYWORD);
                     break;
-                case LBRACE: {
-                    colors.addIfNeeded(line, column, EditorColorScheme.OPERATOR);
-                    if (stack.isEmpty()) {
-                        if (currSwitch > maxSwitch) {
-                            maxSwitch = currSwitch;
-                        }
-                        currSwitch = 0;
-                    }
-                    currSwitch++;
-                    BlockLine block = colors.obtainNewBlock();
-                    block.startLine = line;
-                    block.startColumn = column;
-                    stack.push(block);
+                case LBRACE:
+                    result.addIfNeeded(column, EditorColorScheme.OPERATOR);
+                    result.addBlockStart(column);
                     break;
-                }
-                case RBRACE: {
-                    colors.addIfNeeded(line, column, EditorColorScheme.OPERATOR);
-                    if (!stack.isEmpty()) {
-                        BlockLine block = stack.pop();
-                        block.endLine = line;
-                        block.endColumn = column;
-                        if (block.startLine != block.endLine) {
-                            colors.addBlockLine(block);
-                        }
-                    }
+                case RBRACE:
+                    result.addIfNeeded(column, EditorColorScheme.OPERATOR);
+                    result.addBlockEnd(column);
                     break;
-                }
-                case LINE_COMMENT:
                 case LONG_COMMENT:
-                    colors.addIfNeeded(line, column, EditorColorScheme.COMMENT);
+                    longComment = !isLongCommentClosed(text, thisIndex, thisLength);
+                    // fall through
+                case LINE_COMMENT:
+                    result.addIfNeeded(column, EditorColorScheme.COMMENT);
                     break;
                 default:
-                    if (token == Tokens.LBRACK || (token == Tokens.RBRACK && previous == Tokens.LBRACK)) {
-                        colors.addIfNeeded(line, column, EditorColorScheme.OPERATOR);
-                        break;
-                    }
-                    colors.addIfNeeded(line, column, EditorColorScheme.OPERATOR);
+                    result.addIfNeeded(column, EditorColorScheme.OPERATOR);
             }
 
-
-            first = false;
-            helper.update(thisLength);
-            line = helper.getLine();
-            column = helper.getColumn();
             if (token != Tokens.WHITESPACE && token != Tokens.NEWLINE) {
                 previous = token;
             }
         }
-        if (stack.isEmpty()) {
-            if (currSwitch > maxSwitch) {
-                maxSwitch = currSwitch;
-            }
+        return new LineState(longComment, previous, false, state.getClassNames(), state.getClassNames().size());
+    }
+
+    @Override
+    public void onLinesAnalyzed(CharSequence content, TextAnalyzeResult colors, TextAnalyzer.AnalyzeThread.Delegate delegate) {
+        // the text has been edited since this snapshot was taken, a new analysis will follow
+        if (!(content instanceof ContentSnapshot) || ((ContentSnapshot) content).isStale()) {
+            return;
         }
-        colors.determine(line);
-        colors.setSuppressSwitch(maxSwitch + 10);
-        colors.setNavigation(labels);
+        ContentSnapshot snapshot = (ContentSnapshot) content;
 
-        List<DiagnosticWrapper> innerDiagnostics = new ArrayList<>();
+        if (!mPreferences.getBoolean("code_editor_error_highlight", true)) {
+            mDiagnostics = null;
+            return;
+        }
 
-        // do not compile the file if it not yet closed as it will cause issues when
-        // compiling multiple files at the same time
-        if (mPreferences.getBoolean("code_editor_error_highlight", true) && !CompletionEngine.isIndexing()) {
-            Project project = ProjectManager.getInstance().getCurrentProject();
-            if (project != null) {
-                Module module = project.getModule(mEditor.getCurrentFile());
-                if (module != null) {
-                    JavaCompilerService service = CompletionEngine.getInstance().
-                            getCompiler(project, (JavaModule) module);
-                    if (service.isReady()) {
-                        try {
-                            try (CompileTask task = service.compile(
-                                    Collections.singletonList(new SourceFileObject(mEditor.getCurrentFile().toPath(), content.toString(), Instant.now())))) {
-                                innerDiagnostics.addAll(task.diagnostics.stream().map(DiagnosticWrapper::new).collect(Collectors.toList()));
-                            }
-                        } catch (RuntimeException e) {
-                            Log.e("JavaAnalyzer", "Failed compiling the file", e);
-                            service.close();
-                        }
-                    }
-                }
-            }
+        Diagnostics diagnostics = mDiagnostics;
+        if (diagnostics != null && diagnostics.version == snapshot.getVersion()) {
+            markDiagnostics(diagnostics.list, colors, snapshot);
+        } else {
+            scheduleDiagnostics(snapshot);
         }
-        markDiagnostics(innerDiagnostics, colors);
+    }
 
-        Log.d(TAG, "Analysis took " + Duration.between(startTime, Instant.now()).toMillis() + " ms");
+    /**
+     * Compile the snapshot after the text stops changing for a while. Compiling for an older
+     * snapshot is cancelled if it is not started yet. A running compile is not interrupted,
+     * since an interrupt during file I/O fails the shared compiler, its result is dropped
+     * because the snapshot is stale.
+     */
+    private void scheduleDiagnostics(ContentSnapshot snapshot) {
+        mPendingSnapshot = snapshot;
+        mHandler.removeCallbacks(mDiagnosticsRunnable);
+        Future<?> future = mDiagnosticsFuture;
+        if (future != null) {
+            future.cancel(false);
+        }
+        mHandler.postDelayed(mDiagnosticsRunnable, DIAGNOSTICS_DELAY);
     }
 
-    private void markDiagnostics(List<DiagnosticWrapper> diagnostics, TextAnalyzeResult colors) {
-        mEditor.getText().beginStreamCharGetting(0);
-        Indexer indexer = mEditor.getText().getIndexer();
+    private final Runnable mDiagnosticsRunnable = () -> {
+        ContentSnapshot snapshot = mPendingSnapshot;
+        if (snapshot == null || snapshot.isStale()) {
+            return;
+        }
+        mDiagnosticsFuture = sDiagnosticsService.submit(() -> runDiagnostics(snapshot));
+    };
+
+    private void runDiagnostics(ContentSnapshot snapshot) {
+        if (snapshot.isStale() || CompletionEngine.isIndexing()) {
+            return;
+        }
+        Project project = ProjectManager.getInstance().getCurrentProject();
+        if (project == null) {
+            return;
+        }
+        Module module = project.getModule(mEditor.getCurrentFile());
+        if (module == null) {
+            return;
+        }
+        JavaCompilerService service = CompletionEngine.getInstance().
+                getCompiler(project, (JavaModule) module);
+        if (!service.isReady()) {
+            return;
+        }
 
+        Instant startTime = Instant.now();
+        List<DiagnosticWrapper> innerDiagnostics = new ArrayList<>();
+        try {
+            try (CompileTask task = service.compile(
+                    Collections.singletonList(new SourceFileObject(mEditor.getCurrentFile().toPath(), snapshot.toString(), Instant.now())))) {
+                innerDiagnostics.addAll(task.diagnostics.stream().map(DiagnosticWrapper::new).collect(Collectors.toList()));
+            }
+        } catch (RuntimeException e) {
+            Log.e("JavaAnalyzer", "Failed compiling the file", e);
+            service.close();
+            return;
+        }
+        Log.d(TAG, "Diagnostics took " + Duration.between(startTime, Instant.now()).toMillis() + " ms");
+
+        if (snapshot.isStale()) {
+            return;
+        }
+        mDiagnostics = new Diagnostics(snapshot.getVersion(), innerDiagnostics);
+        // analyze again so that the diagnostics are marked on new spans
+        mEditor.post(() -> {
+            if (mEditor.getText().getVersion() == snapshot.getVersion()) {
+                mEditor.analyze();
+            }
+        });
+    }
+
+    private void markDiagnostics(List<DiagnosticWrapper> diagnostics, TextAnalyzeResult colors, ContentSnapshot snapshot) {
         diagnostics.forEach(it -> {
             try {
                 if (it.getStartPosition() == -1) {
@@ -295,22 +330,39 @@ public class JavaAnalyzer extends JavaCodeAnalyzer {
                     it.setEndPosition(it.getPosition());
                 }
 
-                CharPosition start = indexer.getCharPosition((int) it.getStartPosition());
-                CharPosition end = indexer.getCharPosition((int) it.getEndPosition());
+                int startIndex = (int) it.getStartPosition();
+                int endIndex = (int) it.getEndPosition();
+                int startLine = snapshot.getCharLine(startIndex);
+                int startColumn = startIndex - snapshot.getCharIndex(startLine, 0);
+                int endLine = snapshot.getCharLine(endIndex);
+                int endColumn = endIndex - snapshot.getCharIndex(endLine, 0);
 
                 // the editor does not support marking underline spans for the same start and end index
                 // to work around this, we just subtract one to the start index
-                if (start.line == end.line && end.column == start.column) {
-                    start.column--;
+                if (startLine == endLine && endColumn == startColumn) {
+                    startColumn--;
                 }
 
                 int flag = it.getKind() == Diagnostic.Kind.ERROR ? Span.FLAG_ERROR : Span.FLAG_WARNING;
-                colors.markProblemRegion(flag, start.line, start.column, end.line, end.column);
+                colors.markProblemRegion(flag, startLine, startColumn, endLine, endColumn);
             } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
                 // Work around for the indexer requiring a sorted positions
                 Log.w(TAG, "Unable to mark problem region: diagnostics " + diagnostics, e);
             }
         });
-        mEditor.getText().endStreamCharGetting();
     }
-}
\ No newline at end of file
+
+    /**
+     * Diagnostics of a version of the text
+     */
+    private static class Diagnostics {
+
+        private final long version;
+        private final List<DiagnosticWrapper> list;
+
+        private Diagnostics(long version, List<DiagnosticWrapper> list) {
+            this.version = version;
+            this.list = list;
+        }
+    }
+}
@@ -17,6 +17,7 @@ import java.util.Optional;
 
 import io.github.rosemoe.sora.data.CompletionItem;
 import io.github.rosemoe.sora.interfaces.AutoCompleteProvider;
+import io.github.rosemoe.sora.interfaces.CancellationToken;
 import io.github.rosemoe.sora.text.TextAnalyzeResult;
 import io.github.rosemoe.sora.widget.CodeEditor;
 
@@ -33,6 +34,15 @@ public class JavaAutoCompleteProvider implements AutoCompleteProvider {
 
     @Override
     public List<CompletionItem> getAutoCompleteItems(String prefix, TextAnalyzeResult analyzeResult, int line, int column) throws InterruptedException {
+        return getAutoCompleteItems(prefix, analyzeResult, line, column, () -> false);
+    }
+
+    /**
+     * Cancellation is only checked before and after calling the compiler, javac is never
+     * interrupted as that can leave its shared state inconsistent
+     */
+    @Override
+    public List<CompletionItem> getAutoCompleteItems(String prefix, TextAnalyzeResult analyzeResult, int line, int column, CancellationToken token) throws InterruptedException {
         if (!mPreferences.getBoolean("code_editor_completion", true)) {
             return null;
         }
@@ -55,6 +65,7 @@ public class JavaAutoCompleteProvider implements AutoCompleteProvider {
             Optional<CharSequence> content = currentModule.getFileManager()
                     .getFileContent(mEditor.getCurrentFile());
             if (content.isPresent()) {
+                token.checkCancelled();
                 CompletionList completionList = CompletionEngine.getInstance()
                         .complete(project,
                                 (JavaModule) currentModule,
@@ -64,6 +75,7 @@ public class JavaAutoCompleteProvider implements AutoCompleteProvider {
                                 line,
                                 column,
                                 mEditor.getCursor().getLeft());
+                token.checkCancelled();
 
                 for (com.tyron.completion.model.CompletionItem item : completionList.items) {
                     result.add(new CompletionItem(item));
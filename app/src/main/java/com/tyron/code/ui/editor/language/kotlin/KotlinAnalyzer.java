@@ -1,24 +1,29 @@
 package com.tyron.code.ui.editor.language.kotlin;
 
-import android.graphics.Color;
-
-import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.CodePointCharStream;
 import org.antlr.v4.runtime.Token;
-import org.antlr.v4.runtime.TokenSource;
 
+import java.util.Arrays;
 import java.util.Stack;
 
 import io.github.rosemoe.sora.data.BlockLine;
-import io.github.rosemoe.sora.data.Span;
-import io.github.rosemoe.sora.interfaces.CodeAnalyzer;
+import io.github.rosemoe.sora.interfaces.IncrementalCodeAnalyzer;
+import io.github.rosemoe.sora.text.LineAnalyzeResult;
 import io.github.rosemoe.sora.text.TextAnalyzeResult;
 import io.github.rosemoe.sora.text.TextAnalyzer;
 import io.github.rosemoe.sora.widget.CodeEditor;
 import io.github.rosemoe.sora.widget.EditorColorScheme;
 
-public class KotlinAnalyzer implements CodeAnalyzer {
+/**
+ * Analyzes Kotlin code line by line with {@link KotlinLexer}.
+ *
+ * The lexer is restarted at every line with the mode stack saved at the end of the previous
+ * line, so string templates and multi-line strings go on across lines. Block comments are
+ * tracked outside of the lexer by their nesting depth, since the lexer only matches them
+ * as a whole token.
+ */
+public class KotlinAnalyzer implements IncrementalCodeAnalyzer<KotlinAnalyzer.LineState> {
 
     private final CodeEditor mEditor;
 
@@ -26,6 +31,172 @@ public class KotlinAnalyzer implements CodeAnalyzer {
         mEditor = editor;
     }
 
+    @Override
+    public LineState getInitialState() {
+        return LineState.INITIAL;
+    }
+
+    @Override
+    public LineState analyzeLine(CharSequence text, int start, int end, LineState state, LineAnalyzeResult result) {
+        int offset = start;
+        int commentDepth = state.commentDepth;
+        if (commentDepth > 0) {
+            result.addIfNeeded(0, EditorColorScheme.COMMENT);
+            offset = skipComment(text, start, end, commentDepth);
+            if (offset < 0) {
+                return state.withCommentDepth(-offset);
+            }
+        }
+        if (offset == end) {
+            return state.withCommentDepth(0);
+        }
+
+        String line = text.subSequence(offset, end).toString();
+        boolean codePoints = line.length() != line.codePointCount(0, line.length());
+        KotlinLexer lexer = new KotlinLexer(CharStreams.fromString(line));
+        lexer.removeErrorListeners();
+        state.restore(lexer);
+
+        while (true) {
+            Token token = lexer.nextToken();
+            int type = token.getType();
+            if (type == Token.EOF) {
+                break;
+            }
+            int index = codePoints ? line.offsetByCodePoints(0, token.getStartIndex()) : token.getStartIndex();
+            int column = offset - start + index;
+
+            // An unclosed block comment is matched as DIV then MULT by the lexer
+            if (type == KotlinLexer.DIV && index + 1 < line.length() && line.charAt(index + 1) == '*') {
+                result.addIfNeeded(column, EditorColorScheme.COMMENT);
+                int depth = -skipComment(line, index + 2, line.length(), 1);
+                return LineState.save(lexer, Math.max(depth, 1));
+            }
+
+            switch (type) {
+                case KotlinLexer.LCURL:
+                case KotlinLexer.LineStrExprStart:
+                case KotlinLexer.MultiLineStrExprStart:
+                    result.addBlockStart(column);
+                    break;
+                case KotlinLexer.RCURL:
+                    result.addBlockEnd(column);
+                    break;
+            }
+            result.addIfNeeded(column, getColor(type));
+        }
+        return LineState.save(lexer, 0);
+    }
+
+    /**
+     * Find the end of a block comment
+     *
+     * @param depth Nesting depth of comments at start
+     * @return Index after the comment, or the negated depth at end if it is not closed
+     */
+    private static int skipComment(CharSequence text, int start, int end, int depth) {
+        int i = start;
+        while (i < end) {
+            char ch = text.charAt(i);
+            if (ch == '/' && i + 1 < end && text.charAt(i + 1) == '*') {
+                depth++;
+                i += 2;
+            } else if (ch == '*' && i + 1 < end && text.charAt(i + 1) == '/') {
+                depth--;
+                i += 2;
+                if (depth == 0) {
+                    return i;
+                }
+            } else {
+                i++;
+            }
+        }
+        return -depth;
+    }
+
+    private static int getColor(int type) {
+        switch (type) {
+            case KotlinLexer.ADD:
+            case KotlinLexer.SUB:
+            case KotlinLexer.MULT:
+            case KotlinLexer.DIV:
+            case KotlinLexer.ELVIS:
+                return EditorColorScheme.OPERATOR;
+            case KotlinLexer.INTERNAL:
+            case KotlinLexer.IF:
+            case KotlinLexer.ELSE:
+            case KotlinLexer.IS:
+            case KotlinLexer.FUN:
+            case KotlinLexer.SUSPEND:
+            case KotlinLexer.OVERRIDE:
+            case KotlinLexer.CLASS:
+            case KotlinLexer.OPEN:
+            case KotlinLexer.PRIVATE:
+            case KotlinLexer.PUBLIC:
+            case KotlinLexer.PROTECTED:
+            case KotlinLexer.DATA:
+            case KotlinLexer.CONSTRUCTOR:
+            case KotlinLexer.VAL:
+            case KotlinLexer.VAR:
+            case KotlinLexer.VARARG:
+            case KotlinLexer.SEALED:
+            case KotlinLexer.PACKAGE:
+            case KotlinLexer.IMPORT:
+            case KotlinLexer.RETURN:
+            case KotlinLexer.INNER:
+            case KotlinLexer.REIFIED:
+            case KotlinLexer.BY:
+            case KotlinLexer.ABSTRACT:
+            case KotlinLexer.CATCH:
+            case KotlinLexer.THROW:
+            case KotlinLexer.CONTINUE:
+            case KotlinLexer.FOR:
+            case KotlinLexer.WHEN:
+            case KotlinLexer.WHILE:
+            case KotlinLexer.FINAL:
+            case KotlinLexer.LATEINIT:
+            case KotlinLexer.IN:
+            case KotlinLexer.INFIX:
+            case KotlinLexer.AS:
+            case KotlinLexer.INLINE:
+            case KotlinLexer.SUPER:
+            case KotlinLexer.GET:
+            case KotlinLexer.THIS:
+            case KotlinLexer.INIT:
+            case KotlinLexer.OBJECT:
+            case KotlinLexer.INTERFACE:
+                return EditorColorScheme.KEYWORD;
+            case KotlinLexer.Identifier:
+                return EditorColorScheme.IDENTIFIER_NAME;
+            case KotlinLexer.QUOTE_CLOSE:
+            case KotlinLexer.QUOTE_OPEN:
+            case KotlinLexer.LineStrText:
+            case KotlinLexer.LineStrExprStart:
+            case KotlinLexer.MultiLineStrText:
+            case KotlinLexer.IntegerLiteral:
+            case KotlinLexer.CharacterLiteral:
+            case KotlinLexer.BinLiteral:
+            case KotlinLexer.RealLiteral:
+            case KotlinLexer.BooleanLiteral:
+            case KotlinLexer.DoubleLiteral:
+            case KotlinLexer.FloatLiteral:
+            case KotlinLexer.LongLiteral:
+            case KotlinLexer.HexLiteral:
+                return EditorColorScheme.LITERAL;
+            case KotlinLexer.AT:
+            case KotlinLexer.LabelReference:
+                return EditorColorScheme.ANNOTATION;
+            case KotlinLexer.ShebangLine:
+            case KotlinLexer.DelimitedComment:
+            case KotlinLexer.LineComment:
+            case KotlinLexer.Inside_Comment:
+            case KotlinLexer.StrExpr_Comment:
+                return EditorColorScheme.COMMENT;
+            default:
+                return EditorColorScheme.TEXT_NORMAL;
+        }
+    }
+
     @Override
     public void analyze(CharSequence content, TextAnalyzeResult colors, TextAnalyzer.AnalyzeThread.Delegate delegate) {
 //        Project currentProject = ProjectManager.getInstance().getCurrentProject();
@@ -44,7 +215,6 @@ public class KotlinAnalyzer implements CodeAnalyzer {
             int maxSwitch = 1, currSwitch = 0;
             int lastLine = 0;
             int line, column;
-            Token previous = UnknownToken.INSTANCE;
             Token token = null;
 
             while (delegate.shouldAnalyze()) {
@@ -62,92 +232,6 @@ public class KotlinAnalyzer implements CodeAnalyzer {
                 lastLine = line;
 
                 switch (token.getType()) {
-                    case KotlinLexer.ADD:
-                    case KotlinLexer.SUB:
-                    case KotlinLexer.MULT:
-                    case KotlinLexer.DIV:
-                    case KotlinLexer.ELVIS:
-                        colors.addIfNeeded(line, column, EditorColorScheme.OPERATOR);
-                        break;
-                    case KotlinLexer.INTERNAL:
-                    case KotlinLexer.IF:
-                    case KotlinLexer.ELSE:
-                    case KotlinLexer.IS:
-                    case KotlinLexer.FUN:
-                    case KotlinLexer.SUSPEND:
-                    case KotlinLexer.OVERRIDE:
-                    case KotlinLexer.CLASS:
-                    case KotlinLexer.OPEN:
-                    case KotlinLexer.PRIVATE:
-                    case KotlinLexer.PUBLIC:
-                    case KotlinLexer.PROTECTED:
-                    case KotlinLexer.DATA:
-                    case KotlinLexer.CONSTRUCTOR:
-                    case KotlinLexer.VAL:
-                    case KotlinLexer.VAR:
-                    case KotlinLexer.VARARG:
-                    case KotlinLexer.SEALED:
-                    case KotlinLexer.PACKAGE:
-                    case KotlinLexer.IMPORT:
-                    case KotlinLexer.RETURN:
-                    case KotlinLexer.INNER:
-                    case KotlinLexer.REIFIED:
-                    case KotlinLexer.BY:
-                    case KotlinLexer.ABSTRACT:
-                    case KotlinLexer.CATCH:
-                    case KotlinLexer.THROW:
-                    case KotlinLexer.CONTINUE:
-                    case KotlinLexer.FOR:
-                    case KotlinLexer.WHEN:
-                    case KotlinLexer.WHILE:
-                    case KotlinLexer.FINAL:
-                    case KotlinLexer.LATEINIT:
-                    case KotlinLexer.IN:
-                    case KotlinLexer.INFIX:
-                    case KotlinLexer.AS:
-                    case KotlinLexer.INLINE:
-                    case KotlinLexer.SUPER:
-                    case KotlinLexer.GET:
-                    case KotlinLexer.THIS:
-                    case KotlinLexer.INIT:
-                    case KotlinLexer.OBJECT:
-                    case KotlinLexer.INTERFACE:
-                        colors.addIfNeeded(line, column, EditorColorScheme.KEYWORD);
-                        break;
-                    case KotlinLexer.Identifier:
-                        colors.addIfNeeded(line, column, EditorColorScheme.IDENTIFIER_NAME);
-                        break;
-                    case KotlinLexer.QUOTE_CLOSE:
-                    case KotlinLexer.QUOTE_OPEN:
-                    case KotlinLexer.LineStrText:
-                    case KotlinLexer.LineStrExprStart:
-                    case KotlinLexer.MultiLineStrText:
-                    case KotlinLexer.MultiLineString:
-                    case KotlinLexer.LineString:
-                    case KotlinLexer.StringExpression:
-                    case KotlinLexer.IntegerLiteral:
-                    case KotlinLexer.CharacterLiteral:
-                    case KotlinLexer.BinLiteral:
-                    case KotlinLexer.RealLiteral:
-                    case KotlinLexer.BooleanLiteral:
-                    case KotlinLexer.DoubleLiteral:
-                    case KotlinLexer.FloatLiteral:
-                    case KotlinLexer.LongLiteral:
-                    case KotlinLexer.HexLiteral:
-                        Span span = Span.obtain(column, EditorColorScheme.LITERAL);
-                        if (token.getType() == KotlinLexer.HexLiteral) {
-                            try {
-                                span.setUnderlineColor(Integer.parseInt(token.getText(), 16));
-                            } catch (Exception e) {
-                                span.setUnderlineColor(Color.TRANSPARENT);
-                            }
-                        }
-                        colors.addIfNeeded(line, span);
-                        break;
-                    case KotlinLexer.AT:
-                    case KotlinLexer.LabelReference:
-                        colors.addIfNeeded(line, column, EditorColorScheme.ANNOTATION);
-                        break;
                     case KotlinLexer.LCURL:
                         if (stack.isEmpty()) {
                             if (currSwitch > maxSwitch) {
@@ -171,14 +255,8 @@ public class KotlinAnalyzer implements CodeAnalyzer {
                             }
                         }
                         break;
-                    default:
-                        colors.addIfNeeded(line, column, EditorColorScheme.TEXT_NORMAL);
-                        break;
-                }
-
-                if (token.getType() != KotlinLexer.WS && token.getType() != KotlinLexer.NL) {
-                    previous = token;
                 }
+                colors.addIfNeeded(line, column, getColor(token.getType()));
             }
             colors.determine(lastLine);
 
@@ -191,58 +269,54 @@ public class KotlinAnalyzer implements CodeAnalyzer {
         } catch (Exception ignore) {}
     }
 
-    private static class UnknownToken implements Token {
+    /**
+     * State of the lexer at the end of a line
+     */
+    public static class LineState {
 
-        public static UnknownToken INSTANCE = new UnknownToken();
+        static final LineState INITIAL = new LineState(KotlinLexer.DEFAULT_MODE, new int[0], 0);
 
-        @Override
-        public String getText() {
-            return "";
-        }
+        final int mode;
+        final int[] modeStack;
+        final int commentDepth;
 
-        @Override
-        public int getType() {
-            return -1;
+        LineState(int mode, int[] modeStack, int commentDepth) {
+            this.mode = mode;
+            this.modeStack = modeStack;
+            this.commentDepth = commentDepth;
         }
 
-        @Override
-        public int getLine() {
-            return 0;
-        }
-
-        @Override
-        public int getCharPositionInLine() {
-            return 0;
-        }
-
-        @Override
-        public int getChannel() {
-            return 0;
-        }
-
-        @Override
-        public int getTokenIndex() {
-            return 0;
+        static LineState save(KotlinLexer lexer, int commentDepth) {
+            int[] modeStack = lexer._modeStack.size() == 0 ? INITIAL.modeStack : lexer._modeStack.toArray();
+            if (lexer._mode == KotlinLexer.DEFAULT_MODE && modeStack.length == 0 && commentDepth == 0) {
+                return INITIAL;
+            }
+            return new LineState(lexer._mode, modeStack, commentDepth);
         }
 
-        @Override
-        public int getStartIndex() {
-            return 0;
+        void restore(KotlinLexer lexer) {
+            for (int mode : modeStack) {
+                lexer._modeStack.push(mode);
+            }
+            lexer._mode = mode;
         }
 
-        @Override
-        public int getStopIndex() {
-            return 0;
+        LineState withCommentDepth(int depth) {
+            return depth == commentDepth ? this : new LineState(mode, modeStack, depth);
         }
 
         @Override
-        public TokenSource getTokenSource() {
-            return null;
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            LineState state = (LineState) o;
+            return mode == state.mode && commentDepth == state.commentDepth
+                    && Arrays.equals(modeStack, state.modeStack);
         }
 
         @Override
-        public CharStream getInputStream() {
-            return null;
+        public int hashCode() {
+            return 31 * (31 * mode + commentDepth) + Arrays.hashCode(modeStack);
         }
     }
 }
@@ -28,7 +28,7 @@ public class LanguageXML implements EditorLanguage {
 	}
 	@Override
 	public boolean isAutoCompleteChar(char ch) {
-		return false;
+		return XMLAnalyzer.isNameChar(ch);
 	}
 
 	@Override
@@ -1,180 +1,528 @@
 package com.tyron.code.ui.editor.language.xml;
 
 import android.graphics.Color;
-import android.os.Handler;
-
-import com.tyron.ProjectManager;
-import com.tyron.builder.compiler.BuildType;
-import com.tyron.builder.compiler.Task;
-import com.tyron.builder.compiler.incremental.resource.IncrementalAapt2Task;
-import com.tyron.builder.model.Project;
-import com.tyron.code.util.ProjectUtils;
-import com.tyron.builder.exception.CompilationFailedException;
-import com.tyron.completion.provider.CompletionEngine;
-
-import org.antlr.v4.runtime.CharStreams;
-import org.antlr.v4.runtime.CodePointCharStream;
-import org.antlr.v4.runtime.Token;
-
-import java.io.IOException;
-import java.io.StringReader;
-import java.util.concurrent.Executors;
-
-import io.github.rosemoe.sora.interfaces.CodeAnalyzer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.github.rosemoe.sora.data.BlockLine;
 import io.github.rosemoe.sora.data.Span;
+import io.github.rosemoe.sora.interfaces.IncrementalCodeAnalyzer;
+import io.github.rosemoe.sora.text.ContentLine;
+import io.github.rosemoe.sora.text.ContentSnapshot;
+import io.github.rosemoe.sora.text.LineAnalyzeResult;
 import io.github.rosemoe.sora.text.TextAnalyzeResult;
 import io.github.rosemoe.sora.text.TextAnalyzer;
 import io.github.rosemoe.sora.widget.CodeEditor;
 import io.github.rosemoe.sora.widget.EditorColorScheme;
 
-public class XMLAnalyzer implements CodeAnalyzer {
+/**
+ * Analyzes XML line by line.
+ *
+ * The state at the end of every line holds the scanner mode and the chain of open elements,
+ * so after an edit only the changed lines are scanned again, and the enclosing tag and
+ * attribute at any position can be found from the state of its line with
+ * {@link #getContext(TextAnalyzeResult, int, int)}.
+ */
+public class XMLAnalyzer implements IncrementalCodeAnalyzer<XMLAnalyzer.LineState> {
+
+	static final int MODE_TEXT = 0;
+	static final int MODE_TAG_NAME = 1;
+	static final int MODE_TAG = 2;
+	static final int MODE_VALUE = 3;
+	static final int MODE_STRING = 4;
+	static final int MODE_COMMENT = 5;
+	static final int MODE_CDATA = 6;
+	static final int MODE_DTD = 7;
 
 	private final CodeEditor mEditor;
 
 	public XMLAnalyzer(CodeEditor codeEditor) {
 		mEditor = codeEditor;
 	}
-	
+
+	@Override
+	public LineState getInitialState() {
+		return LineState.INITIAL;
+	}
+
+	@Override
+	public LineState analyzeLine(CharSequence text, int start, int end, LineState state, LineAnalyzeResult result) {
+		return scan(text, start, end, state, result);
+	}
+
+	/**
+	 * Analyze the whole text at once, when it is not analyzed line by line
+	 */
 	@Override
 	public void analyze(CharSequence content, TextAnalyzeResult colors, TextAnalyzer.AnalyzeThread.Delegate delegate) {
-		try {
-			CodePointCharStream stream = CharStreams.fromReader(new StringReader(content.toString()));
-			XMLLexer lexer = new XMLLexer(stream);
-			Token token, previous = null;
-			boolean first = true;
-
-			int lastLine = 1;
-			int line, column;
-
-			while (delegate.shouldAnalyze()) {
-				token = lexer.nextToken();
-				if (token == null) break;
-				if (token.getType() == XMLLexer.EOF) {
-					lastLine = token.getLine() - 1;
+		WholeTextResult result = new WholeTextResult(colors);
+		LineState state = LineState.INITIAL;
+		int start = 0;
+		int length = content.length();
+		while (delegate.shouldAnalyze()) {
+			int end = start;
+			while (end < length && content.charAt(end) != '\n') {
+				end++;
+			}
+			state = scan(content, start, end, state, result);
+			if (end == length) {
+				break;
+			}
+			start = end + 1;
+			result.line++;
+		}
+		colors.determine(result.line);
+	}
+
+	@Override
+	public void onLinesAnalyzed(CharSequence content, TextAnalyzeResult result, TextAnalyzer.AnalyzeThread.Delegate delegate) {
+		if (!(content instanceof ContentSnapshot)) {
+			return;
+		}
+		ContentSnapshot snapshot = (ContentSnapshot) content;
+		// Keep the text the states belong to, for getContext()
+		result.setExtra(snapshot);
+	}
+
+	/**
+	 * Find the syntax context at the given position, with the result of last analysis
+	 *
+	 * @return The context, or null if the result is not produced by this analyzer
+	 */
+	public static XMLContext getContext(TextAnalyzeResult result, int line, int column) {
+		Object extra = result.getExtra();
+		Object state = result.getLineState(line);
+		if (!(extra instanceof ContentSnapshot) || !(state instanceof LineState)) {
+			return null;
+		}
+		ContentSnapshot snapshot = (ContentSnapshot) extra;
+		if (line >= snapshot.getLineCount()) {
+			return null;
+		}
+		ContentLine text = snapshot.getLine(line);
+		column = Math.min(column, text.length());
+		// The name being typed is the prefix, the context is the one before it
+		int start = column;
+		while (start > 0 && isNameChar(text.charAt(start - 1))) {
+			start--;
+		}
+		LineState end = scan(text, 0, start, (LineState) state, null);
+		return new XMLContext(end, text.subSequence(start, column).toString());
+	}
+
+	/**
+	 * Scan the given region, starting with the given state
+	 *
+	 * @param result Result dest, can be null
+	 * @return State at end of region
+	 */
+	static LineState scan(CharSequence text, int start, int end, LineState state, LineAnalyzeResult result) {
+		int mode = state.mode;
+		char quote = state.quote;
+		boolean closing = state.closing;
+		boolean processing = state.processing;
+		String tag = state.tag;
+		String attribute = state.attribute;
+		Element element = state.element;
+		// Column of the '<' of current tag, if it is in this line
+		int tagColumn = -1;
+
+		int i = start;
+		while (i < end) {
+			char ch = text.charAt(i);
+			int column = i - start;
+			switch (mode) {
+				case MODE_COMMENT:
+				case MODE_CDATA:
+				case MODE_DTD: {
+					String close = mode == MODE_COMMENT ? "-->" : mode == MODE_CDATA ? "]]>" : ">";
+					addSpan(result, column, mode == MODE_COMMENT ? EditorColorScheme.COMMENT : EditorColorScheme.TEXT_NORMAL);
+					int index = indexOf(text, close, i, end);
+					if (index == -1) {
+						i = end;
+					} else {
+						i = index + close.length();
+						mode = MODE_TEXT;
+					}
+					break;
+				}
+				case MODE_STRING: {
+					addSpan(result, column, EditorColorScheme.LITERAL);
+					int index = i;
+					while (index < end && text.charAt(index) != quote) {
+						index++;
+					}
+					if (index == end) {
+						i = end;
+					} else {
+						if (result != null && i > start && text.charAt(i - 1) == quote) {
+							markColor(text, i, index, column, result);
+						}
+						i = index + 1;
+						mode = MODE_TAG;
+						attribute = null;
+					}
 					break;
 				}
-				line = token.getLine() - 1;
-				column = token.getCharPositionInLine();
-				lastLine = line;
-
-				switch (token.getType()) {
-					case XMLLexer.COMMENT:
-						colors.addIfNeeded(line, column, EditorColorScheme.COMMENT);
-						break;
-					case XMLLexer.Name:
-						if (previous != null && (previous.getType() == XMLLexer.OPEN || previous.getType() == XMLLexer.SLASH)) {
-							colors.addIfNeeded(line, column, EditorColorScheme.HTML_TAG);
-							break;
+				case MODE_TEXT:
+					if (ch != '<') {
+						addSpan(result, column, EditorColorScheme.TEXT_NORMAL);
+						i++;
+						while (i < end && text.charAt(i) != '<') {
+							i++;
 						}
-						String attribute = token.getText();
-						if (attribute.contains(":")) {
-							colors.addIfNeeded(line, column, EditorColorScheme.ATTRIBUTE_NAME);
-							colors.addIfNeeded(line, column + attribute.indexOf(":"), EditorColorScheme.TEXT_NORMAL);
-							break;
+					} else if (startsWith(text, "<!--", i, end)) {
+						addSpan(result, column, EditorColorScheme.COMMENT);
+						mode = MODE_COMMENT;
+						i += 4;
+					} else if (startsWith(text, "<![CDATA[", i, end)) {
+						addSpan(result, column, EditorColorScheme.TEXT_NORMAL);
+						mode = MODE_CDATA;
+						i += 9;
+					} else if (startsWith(text, "<!", i, end)) {
+						addSpan(result, column, EditorColorScheme.TEXT_NORMAL);
+						mode = MODE_DTD;
+						i += 2;
+					} else {
+						addSpan(result, column, EditorColorScheme.HTML_TAG);
+						tagColumn = column;
+						i++;
+						closing = i < end && text.charAt(i) == '/';
+						processing = i < end && text.charAt(i) == '?';
+						if (closing || processing) {
+							i++;
 						}
-						colors.addIfNeeded(line, column, EditorColorScheme.IDENTIFIER_NAME);
-						break;
-					case XMLLexer.EQUALS:
-						Span span1 = colors.addIfNeeded(line,column, EditorColorScheme.OPERATOR);
-						span1.setUnderlineColor(Color.TRANSPARENT);
-						break;
-					case XMLLexer.STRING:
-						String text = token.getText();
-						if (text.startsWith("\"#")) {
-							try {
-								int color = Color.parseColor(text.substring(1, text.length() - 1));
-								colors.addIfNeeded(line, Span.obtain(column, EditorColorScheme.LITERAL));
-								colors.add(line, Span.obtain(column + 1, EditorColorScheme.LITERAL))
-										.setUnderlineColor(color);
-								colors.add(line, Span.obtain( column + text.length() - 1, EditorColorScheme.LITERAL))
-										.setUnderlineColor(Color.TRANSPARENT);
-								colors.addIfNeeded(line, column + text.length(), EditorColorScheme.TEXT_NORMAL)
-										.setUnderlineColor(Color.TRANSPARENT);
-								break;
-							} catch (Exception ignore) {}
+						mode = MODE_TAG_NAME;
+						tag = null;
+						attribute = null;
+					}
+					break;
+				case MODE_TAG_NAME:
+					if (Character.isWhitespace(ch)) {
+						i++;
+					} else {
+						if (isNameChar(ch)) {
+							int nameEnd = findNameEnd(text, i, end);
+							addSpan(result, column, EditorColorScheme.HTML_TAG);
+							tag = text.subSequence(i, nameEnd).toString();
+							i = nameEnd;
 						}
-						colors.addIfNeeded(line,column, EditorColorScheme.LITERAL);
-						break;
-					case XMLLexer.SLASH:
-					case XMLLexer.OPEN:
-					case XMLLexer.CLOSE:
-					case XMLLexer.SLASH_CLOSE:
-						colors.addIfNeeded(line, column, EditorColorScheme.HTML_TAG);
-						break;
-					case XMLLexer.SEA_WS:
-					case XMLLexer.S:
-					default:
-						Span s = Span.obtain(column, EditorColorScheme.TEXT_NORMAL);
-						colors.addIfNeeded(line, s);
-						s.setUnderlineColor(Color.TRANSPARENT);
-				}
+						mode = MODE_TAG;
+					}
+					break;
+				case MODE_TAG:
+					if (Character.isWhitespace(ch)) {
+						i++;
+					} else if (ch == '>') {
+						addSpan(result, column, EditorColorScheme.HTML_TAG);
+						int blockColumn = tagColumn == -1 ? column : tagColumn;
+						if (closing) {
+							element = closeElement(element, tag, result, blockColumn);
+						} else if (!processing && tag != null) {
+							element = new Element(tag, element);
+							if (result != null) {
+								result.addBlockStart(blockColumn);
+							}
+						}
+						mode = MODE_TEXT;
+						i++;
+					} else if ((ch == '/' || ch == '?') && startsWith(text, ">", i + 1, end)) {
+						addSpan(result, column, EditorColorScheme.HTML_TAG);
+						mode = MODE_TEXT;
+						i += 2;
+					} else if (ch == '=') {
+						addSpan(result, column, EditorColorScheme.OPERATOR);
+						mode = MODE_VALUE;
+						i++;
+					} else if (ch == '"' || ch == '\'') {
+						addSpan(result, column, EditorColorScheme.LITERAL);
+						quote = ch;
+						mode = MODE_STRING;
+						i++;
+					} else if (ch == '<') {
+						// The tag is not closed, start another one
+						mode = MODE_TEXT;
+					} else if (isNameChar(ch)) {
+						int nameEnd = findNameEnd(text, i, end);
+						attribute = text.subSequence(i, nameEnd).toString();
+						int colon = attribute.indexOf(':');
+						if (colon == -1) {
+							addSpan(result, column, EditorColorScheme.IDENTIFIER_NAME);
+						} else {
+							addSpan(result, column, EditorColorScheme.ATTRIBUTE_NAME);
+							addSpan(result, column + colon, EditorColorScheme.TEXT_NORMAL);
+						}
+						i = nameEnd;
+					} else {
+						addSpan(result, column, EditorColorScheme.TEXT_NORMAL);
+						i++;
+					}
+					break;
+				case MODE_VALUE:
+					if (Character.isWhitespace(ch)) {
+						i++;
+					} else if (ch == '"' || ch == '\'') {
+						addSpan(result, column, EditorColorScheme.LITERAL);
+						quote = ch;
+						mode = MODE_STRING;
+						i++;
+					} else {
+						mode = MODE_TAG;
+					}
+					break;
+			}
+		}
+		return LineState.obtain(mode, quote, closing, processing, tag, attribute, element);
+	}
+
+	/**
+	 * Underline a color value like "#FF0000" with its color, so it is cached with the
+	 * spans of the line
+	 *
+	 * @param valueStart Index of the value, after the opening quote
+	 * @param valueEnd   Index of the closing quote
+	 * @param column     Column of the value
+	 */
+	private static void markColor(CharSequence text, int valueStart, int valueEnd, int column, LineAnalyzeResult result) {
+		if (valueEnd - valueStart < 2 || text.charAt(valueStart) != '#') {
+			return;
+		}
+		int color;
+		try {
+			color = Color.parseColor(text.subSequence(valueStart, valueEnd).toString());
+		} catch (IllegalArgumentException e) {
+			return;
+		}
+		result.addUnderlined(column, EditorColorScheme.LITERAL, color);
+		// The closing quote is not underlined
+		result.addIfNeeded(column + valueEnd - valueStart, EditorColorScheme.LITERAL);
+	}
 
-				if (token.getType() != XMLLexer.SEA_WS) {
-					previous = token;
+	/**
+	 * Close the innermost element with the given name and the ones inside it
+	 */
+	private static Element closeElement(Element element, String name, LineAnalyzeResult result, int column) {
+		int count = 1;
+		for (Element e = element; e != null; e = e.parent, count++) {
+			if (e.name.equals(name)) {
+				if (result != null) {
+					for (int i = 0; i < count; i++) {
+						result.addBlockEnd(column);
+					}
 				}
+				return e.parent;
 			}
-			colors.determine(lastLine);
+		}
+		// Stray end tag
+		return element;
+	}
 
-			compile(colors);
-		} catch (IOException ignore) {
+	private static void addSpan(LineAnalyzeResult result, int column, int colorId) {
+		if (result != null) {
+			result.addIfNeeded(column, colorId);
+		}
+	}
 
+	static boolean isNameChar(char ch) {
+		return Character.isLetterOrDigit(ch) || ch == ':' || ch == '_' || ch == '-' || ch == '.';
+	}
+
+	private static int findNameEnd(CharSequence text, int start, int end) {
+		while (start < end && isNameChar(text.charAt(start))) {
+			start++;
 		}
+		return start;
 	}
 
-	private final Handler handler = new Handler();
-	long delay = 1000L;
-	long lastTime;
+	private static boolean startsWith(CharSequence text, String prefix, int start, int end) {
+		if (end - start < prefix.length()) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length(); i++) {
+			if (text.charAt(start + i) != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
 
-	private void compile(TextAnalyzeResult colors) {
-		handler.removeCallbacks(runnable);
-		lastTime = System.currentTimeMillis();
-		runnable.setColors(colors);
-		handler.postDelayed(runnable, delay);
+	private static int indexOf(CharSequence text, String target, int start, int end) {
+		for (int i = start; i <= end - target.length(); i++) {
+			if (startsWith(text, target, i, end)) {
+				return i;
+			}
+		}
+		return -1;
 	}
 
-	CompileRunnable runnable = new CompileRunnable();
+	/**
+	 * Puts the spans and blocks of lines into a {@link TextAnalyzeResult} directly
+	 */
+	private static class WholeTextResult extends LineAnalyzeResult {
+
+		private final TextAnalyzeResult mColors;
+		private final List<BlockLine> mStack = new ArrayList<>();
+		int line;
+		/**
+		 * Whether the last span is underlined, so it can not be extended
+		 */
+		private boolean mUnderlined;
 
-	private class CompileRunnable implements Runnable {
+		WholeTextResult(TextAnalyzeResult colors) {
+			mColors = colors;
+		}
 
-		private TextAnalyzeResult colors;
+		@Override
+		public void addIfNeeded(int column, int colorId) {
+			if (mUnderlined) {
+				mColors.add(line, Span.obtain(column, colorId));
+				mUnderlined = false;
+			} else {
+				mColors.addIfNeeded(line, column, colorId);
+			}
+		}
 
-		public CompileRunnable() {
+		@Override
+		public void addUnderlined(int column, int colorId, int underlineColor) {
+			mColors.add(line, Span.obtain(column, colorId)).setUnderlineColor(underlineColor);
+			mUnderlined = true;
 		}
 
-		public void setColors(TextAnalyzeResult colors) {
-			this.colors = colors;
+		@Override
+		public void addBlockStart(int column) {
+			BlockLine block = mColors.obtainNewBlock();
+			block.startLine = line;
+			block.startColumn = column;
+			mStack.add(block);
 		}
 
 		@Override
-		public void run() {
-			if (colors == null) {
+		public void addBlockEnd(int column) {
+			if (mStack.isEmpty()) {
 				return;
 			}
-			if (System.currentTimeMillis() < (lastTime - 500)) {
-				return;
+			BlockLine block = mStack.remove(mStack.size() - 1);
+			block.endLine = line;
+			block.endColumn = column;
+			if (block.startLine != block.endLine) {
+				mColors.addBlockLine(block);
+			}
+		}
+	}
+
+	/**
+	 * An open element. Elements are immutable and shared by the states of all the lines
+	 * inside them
+	 */
+	public static final class Element {
+
+		final String name;
+		final Element parent;
+		final int depth;
+
+		Element(String name, Element parent) {
+			this.name = name;
+			this.parent = parent;
+			depth = parent == null ? 1 : parent.depth + 1;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return The enclosing element, or null if this is a root element
+		 */
+		public Element getParent() {
+			return parent;
+		}
+
+		/**
+		 * @return Count of open elements, including this one
+		 */
+		public int getDepth() {
+			return depth;
+		}
+
+		static boolean equals(Element a, Element b) {
+			while (a != b) {
+				if (a == null || b == null || a.depth != b.depth || !a.name.equals(b.name)) {
+					return false;
+				}
+				a = a.parent;
+				b = b.parent;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * State of the scanner at the end of a line
+	 */
+	public static final class LineState {
+
+		static final LineState INITIAL = new LineState(MODE_TEXT, '\0', false, false, null, null, null);
+
+		final int mode;
+		final char quote;
+		final boolean closing;
+		final boolean processing;
+		/**
+		 * Name of the tag being scanned
+		 */
+		final String tag;
+		/**
+		 * Name of the last attribute in the tag being scanned
+		 */
+		final String attribute;
+		final Element element;
+
+		LineState(int mode, char quote, boolean closing, boolean processing, String tag, String attribute, Element element) {
+			this.mode = mode;
+			this.quote = quote;
+			this.closing = closing;
+			this.processing = processing;
+			this.tag = tag;
+			this.attribute = attribute;
+			this.element = element;
+		}
+
+		static LineState obtain(int mode, char quote, boolean closing, boolean processing, String tag, String attribute, Element element) {
+			if (mode == MODE_TEXT) {
+				// Tag fields are not used outside of tags
+				if (element == null) {
+					return INITIAL;
+				}
+				return new LineState(mode, '\0', false, false, null, null, element);
+			}
+			if (mode != MODE_STRING) {
+				quote = '\0';
 			}
+			return new LineState(mode, quote, closing, processing, tag, attribute, element);
+		}
 
-//			Executors.newSingleThreadExecutor().execute(() -> {
-//				boolean isResource = ProjectUtils.isLayoutXMLFile(mEditor.getCurrentFile());
-//
-//				if (isResource) {
-//					if (CompletionEngine.isIndexing()) {
-//						return;
-//					}
-//					Project project = ProjectManager.getInstance().getCurrentProject();
-//					if (project != null) {
-//						project.getFileManager().save(mEditor.getCurrentFile(), mEditor.getText().toString());
-//						Task task = new IncrementalAapt2Task();
-//						try {
-//							task.prepare(BuildType.DEBUG);
-//							task.run();
-//						} catch (IOException | CompilationFailedException e) {
-//							e.printStackTrace();
-//						}
-//
-//					}
-//				}
-//			});
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			LineState state = (LineState) o;
+			return mode == state.mode && quote == state.quote && closing == state.closing
+					&& processing == state.processing && equals(tag, state.tag)
+					&& equals(attribute, state.attribute) && Element.equals(element, state.element);
+		}
+
+		private static boolean equals(String a, String b) {
+			return a == null ? b == null : a.equals(b);
+		}
+
+		@Override
+		public int hashCode() {
+			int result = 31 * mode + quote;
+			result = 31 * result + (tag == null ? 0 : tag.hashCode());
+			// Only the innermost element, so that hashing does not walk the chain
+			result = 31 * result + (element == null ? 0 : 31 * element.depth + element.name.hashCode());
+			return result;
 		}
 	}
 }
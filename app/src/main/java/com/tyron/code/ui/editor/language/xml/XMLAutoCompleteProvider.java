@@ -14,6 +14,16 @@ public class XMLAutoCompleteProvider implements AutoCompleteProvider {
 
 	@Override
 	public List<CompletionItem> getAutoCompleteItems(String prefix, TextAnalyzeResult analyzeResult, int line, int column) {
+		XMLContext context = XMLAnalyzer.getContext(analyzeResult, line, column);
+		if (context == null) {
+			return Collections.emptyList();
+		}
+		XMLAnalyzer.Element element = context.getEnclosingElement();
+		if (context.getType() == XMLContext.TYPE_CLOSING_TAG_NAME && element != null
+				&& element.getName().startsWith(prefix)) {
+			return Collections.singletonList(new CompletionItem(element.getName(),
+					element.getName() + ">", "Close tag"));
+		}
 		return Collections.emptyList();
 	}
 }
@@ -0,0 +1,82 @@
+package com.tyron.code.ui.editor.language.xml;
+
+/**
+ * Syntax context at a position of XML text
+ *
+ * @see XMLAnalyzer#getContext(io.github.rosemoe.sora.text.TextAnalyzeResult, int, int)
+ */
+public class XMLContext {
+
+	public static final int TYPE_TEXT = 0;
+	public static final int TYPE_TAG_NAME = 1;
+	public static final int TYPE_CLOSING_TAG_NAME = 2;
+	public static final int TYPE_ATTRIBUTE_NAME = 3;
+	public static final int TYPE_ATTRIBUTE_VALUE = 4;
+	/**
+	 * Comments, CDATA sections and declarations
+	 */
+	public static final int TYPE_OTHER = 5;
+
+	private final int mType;
+	private final String mPrefix;
+	private final String mTag;
+	private final String mAttribute;
+	private final XMLAnalyzer.Element mElement;
+
+	XMLContext(XMLAnalyzer.LineState state, String prefix) {
+		mPrefix = prefix;
+		mElement = state.element;
+		switch (state.mode) {
+			case XMLAnalyzer.MODE_TEXT:
+				mType = TYPE_TEXT;
+				break;
+			case XMLAnalyzer.MODE_TAG_NAME:
+				mType = state.closing ? TYPE_CLOSING_TAG_NAME : TYPE_TAG_NAME;
+				break;
+			case XMLAnalyzer.MODE_TAG:
+				mType = state.processing ? TYPE_OTHER : TYPE_ATTRIBUTE_NAME;
+				break;
+			case XMLAnalyzer.MODE_VALUE:
+			case XMLAnalyzer.MODE_STRING:
+				mType = state.processing ? TYPE_OTHER : TYPE_ATTRIBUTE_VALUE;
+				break;
+			default:
+				mType = TYPE_OTHER;
+		}
+		mTag = mType == TYPE_ATTRIBUTE_NAME || mType == TYPE_ATTRIBUTE_VALUE ? state.tag : null;
+		mAttribute = mType == TYPE_ATTRIBUTE_VALUE ? state.attribute : null;
+	}
+
+	public int getType() {
+		return mType;
+	}
+
+	/**
+	 * @return The part of name or value before the position
+	 */
+	public String getPrefix() {
+		return mPrefix;
+	}
+
+	/**
+	 * @return Name of the tag whose attribute is at the position, or null
+	 */
+	public String getTag() {
+		return mTag;
+	}
+
+	/**
+	 * @return Name of the attribute whose value is at the position, or null
+	 */
+	public String getAttribute() {
+		return mAttribute;
+	}
+
+	/**
+	 * @return The innermost open element, or null if there is none. Outer ones can be
+	 * found by {@link XMLAnalyzer.Element#getParent()}
+	 */
+	public XMLAnalyzer.Element getEnclosingElement() {
+		return mElement;
+	}
+}
@@ -18,6 +18,7 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.tyron.ProjectManager;
 import com.tyron.builder.log.ILogger;
+import com.tyron.builder.log.LogUpdate;
 import com.tyron.builder.log.LogViewModel;
 import com.tyron.builder.model.DiagnosticWrapper;
 import com.tyron.builder.project.Project;
@@ -89,6 +90,7 @@ public class AppLogFragment extends Fragment
     public void onViewCreated(@NonNull View view, Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
 
+        mAdapter.submitUpdate(mModel.getSnapshot(id));
         mModel.getLogs(id).observe(getViewLifecycleOwner(), this::process);
         if (id == LogViewModel.APP_LOG) {
             ProjectManager.getInstance().addOnProjectOpenListener(this);
@@ -120,8 +122,10 @@ public class AppLogFragment extends Fragment
         }
     }
 
-    private void process(List<DiagnosticWrapper> texts) {
-        mAdapter.submitList(texts);
+    private void process(LogUpdate update) {
+        if (!mAdapter.submitUpdate(update)) {
+            mAdapter.submitUpdate(mModel.getSnapshot(id));
+        }
 
         if (mRecyclerView.canScrollVertically(-1)) {
             mRecyclerView.scrollToPosition(mAdapter.getItemCount());
@@ -154,24 +158,26 @@ public class AppLogFragment extends Fragment
             mLogReceiver = new BroadcastReceiver() {
                 @Override
                 public void onReceive(Context context, Intent intent) {
-                    String type = intent.getExtras().getString("type", "DEBUG");
-                    String message = intent.getExtras().getString("message", "No message provided");
-                    DiagnosticWrapper wrapped = ILogger.wrap(message);
-
-                    switch (type) {
-                        case "DEBUG":
-                        case "INFO":
-                            wrapped.setKind(Diagnostic.Kind.NOTE);
-                            mModel.d(LogViewModel.APP_LOG, wrapped);
-                            break;
-                        case "ERROR":
-                            wrapped.setKind(Diagnostic.Kind.ERROR);
-                            mModel.e(LogViewModel.APP_LOG, wrapped);
-                            break;
-                        case "WARNING":
-                            wrapped.setKind(Diagnostic.Kind.WARNING);
-                            mModel.w(LogViewModel.APP_LOG, wrapped);
-                            break;
+                    Bundle extras = intent.getExtras();
+                    if (extras == null) {
+                        return;
+                    }
+
+                    // logs are sent in batches by the injected Logger class
+                    String[] types = extras.getStringArray("types");
+                    String[] messages = extras.getStringArray("messages");
+                    if (types != null && messages != null) {
+                        for (int i = 0; i < Math.min(types.length, messages.length); i++) {
+                            log(types[i], messages[i]);
+                        }
+                    } else {
+                        log(extras.getString("type", "DEBUG"),
+                                extras.getString("message", "No message provided"));
+                    }
+
+                    int dropped = extras.getInt("dropped", 0);
+                    if (dropped > 0) {
+                        log("WARNING", dropped + " log lines were dropped by the app");
                     }
                 }
             };
@@ -179,4 +185,23 @@ public class AppLogFragment extends Fragment
                     new IntentFilter(((AndroidModule) module).getPackageName() + ".LOG"));
         }
     }
+
+    private void log(String type, String message) {
+        DiagnosticWrapper wrapped = ILogger.wrap(message);
+        switch (type) {
+            case "DEBUG":
+            case "INFO":
+                wrapped.setKind(Diagnostic.Kind.NOTE);
+                mModel.d(LogViewModel.APP_LOG, wrapped);
+                break;
+            case "ERROR":
+                wrapped.setKind(Diagnostic.Kind.ERROR);
+                mModel.e(LogViewModel.APP_LOG, wrapped);
+                break;
+            case "WARNING":
+                wrapped.setKind(Diagnostic.Kind.WARNING);
+                mModel.w(LogViewModel.APP_LOG, wrapped);
+                break;
+        }
+    }
 }
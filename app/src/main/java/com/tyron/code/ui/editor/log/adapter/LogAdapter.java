@@ -14,15 +14,16 @@ import android.widget.TextView;
 import androidx.annotation.ColorInt;
 import androidx.annotation.NonNull;
 import androidx.core.content.res.ResourcesCompat;
-import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.tyron.builder.log.LogStore;
+import com.tyron.builder.log.LogUpdate;
+import com.tyron.builder.log.LogViewModel;
 import com.tyron.builder.model.DiagnosticWrapper;
 import com.tyron.code.R;
 
 import org.openjdk.javax.tools.Diagnostic;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 
@@ -32,7 +33,9 @@ public class LogAdapter extends RecyclerView.Adapter<LogAdapter.ViewHolder>{
         void onClick(DiagnosticWrapper diagnostic);
     }
 
-    private final List<DiagnosticWrapper> mData = new ArrayList<>();
+    private final LogStore mData = new LogStore(LogViewModel.CAPACITY);
+    /** sequence number of the next entry expected from the view model */
+    private long mNextSequence;
     private OnClickListener mListener;
 
     public LogAdapter() {
@@ -43,35 +46,46 @@ public class LogAdapter extends RecyclerView.Adapter<LogAdapter.ViewHolder>{
         mListener = listener;
     }
 
-    public void submitList(List<DiagnosticWrapper> newData) {
-        DiffUtil.DiffResult result = DiffUtil.calculateDiff(new DiffUtil.Callback() {
-            @Override
-            public int getOldListSize() {
-                return mData.size();
+    /**
+     * Applies a batch of entries published by the {@link LogViewModel}. Entries
+     * that have already been applied are skipped.
+     *
+     * @return false if some entries between the last applied update and this one
+     * were missed, in that case a snapshot of the log should be submitted instead
+     */
+    public boolean submitUpdate(LogUpdate update) {
+        if (update.isReset()) {
+            if (update.getNextSequence() < mNextSequence) {
+                // a stale update replayed to a new observer
+                return true;
             }
+            mData.clear();
+            mData.appendAll(update.getAppended());
+            mNextSequence = update.getNextSequence();
+            notifyDataSetChanged();
+            return true;
+        }
 
-            @Override
-            public int getNewListSize() {
-                return newData.size();
-            }
+        if (update.getFirstSequence() > mNextSequence) {
+            return false;
+        }
 
-            @Override
-            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
-                return mData.get(oldItemPosition).equals(newData.get(newItemPosition));
-            }
+        List<DiagnosticWrapper> appended = update.getAppended();
+        int skip = (int) Math.min(appended.size(), mNextSequence - update.getFirstSequence());
+        if (skip == appended.size()) {
+            return true;
+        }
 
-            @Override
-            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
-                return mData.get(oldItemPosition).equals(newData.get(newItemPosition));
-            }
-        });
-        mData.clear();
-        mData.addAll(newData);
-        try {
-            result.dispatchUpdatesTo(this);
-        } catch (IndexOutOfBoundsException e) {
-            notifyDataSetChanged();
+        int before = mData.size();
+        mData.appendAll(appended.subList(skip, appended.size()));
+        mNextSequence = update.getNextSequence();
+
+        int evicted = Math.min(before, before + appended.size() - skip - mData.size());
+        if (evicted > 0) {
+            notifyItemRangeRemoved(0, evicted);
         }
+        notifyItemRangeInserted(before - evicted, mData.size() - (before - evicted));
+        return true;
     }
 
     @NonNull
@@ -1,16 +1,23 @@
 package com.tyron.code.ui.file;
 
 import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.ViewModel;
 
 import com.tyron.code.ui.component.tree.TreeNode;
+import com.tyron.code.ui.file.tree.TreeFileWatcher;
 import com.tyron.code.ui.file.tree.TreeUtil;
 import com.tyron.code.ui.file.tree.model.TreeFile;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class FileViewModel extends ViewModel {
@@ -18,11 +25,25 @@ public class FileViewModel extends ViewModel {
     private MutableLiveData<File> mRoot =
             new MutableLiveData<>(Environment.getExternalStorageDirectory());
     private MutableLiveData<TreeNode<TreeFile>> mNode = new MutableLiveData<>();
+    private MutableLiveData<TreeNode<TreeFile>> mUpdatedNode = new MutableLiveData<>();
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    /**
+     * Accessed only on main thread
+     */
+    private TreeFileWatcher mWatcher;
 
     public LiveData<TreeNode<TreeFile>> getNodes() {
         return mNode;
     }
 
+    /**
+     * Nodes whose children are loaded or changed on disk
+     */
+    public LiveData<TreeNode<TreeFile>> getUpdatedNode() {
+        return mUpdatedNode;
+    }
+
     public LiveData<File> getRootFile() {
         return mRoot;
     }
@@ -33,9 +54,54 @@ public class FileViewModel extends ViewModel {
     }
 
     public void refreshNode(File root) {
-        Executors.newSingleThreadExecutor().execute(() -> {
+        mExecutor.execute(() -> {
             TreeNode<TreeFile> node = TreeNode.root(TreeUtil.getNodes(root));
-            mNode.postValue(node);
+            mHandler.post(() -> {
+                startWatching(node);
+                mNode.setValue(node);
+            });
+        });
+    }
+
+    /**
+     * List the children of a folder that is expanded for the first time
+     */
+    public void loadChildren(TreeNode<TreeFile> node) {
+        mExecutor.execute(() -> {
+            List<TreeFile> children = TreeUtil.listChildren(node.getValue().getFile());
+            mHandler.post(() -> {
+                TreeUtil.setChildren(node, children);
+                if (mWatcher != null) {
+                    mWatcher.watch(node);
+                }
+                mUpdatedNode.setValue(node);
+            });
         });
     }
+
+    private void startWatching(TreeNode<TreeFile> root) {
+        if (mWatcher != null) {
+            mWatcher.close();
+            mWatcher = null;
+        }
+        try {
+            mWatcher = new TreeFileWatcher(mUpdatedNode::setValue);
+        } catch (IOException e) {
+            Log.w("FileViewModel", "Unable to watch file changes", e);
+            return;
+        }
+        for (TreeNode<TreeFile> node : root.getChildren()) {
+            mWatcher.watch(node);
+        }
+    }
+
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        mExecutor.shutdownNow();
+        if (mWatcher != null) {
+            mWatcher.close();
+            mWatcher = null;
+        }
+    }
 }
@@ -20,6 +20,7 @@ import com.tyron.code.ui.file.action.FileActionManager;
 import com.tyron.code.ui.file.tree.binder.TreeFileNodeViewBinder.TreeFileNodeListener;
 import com.tyron.code.ui.file.tree.binder.TreeFileNodeViewFactory;
 import com.tyron.code.ui.file.tree.model.TreeFile;
+import com.tyron.code.ui.file.tree.model.TreeFolder;
 import com.tyron.code.ui.main.MainViewModel;
 
 import java.io.File;
@@ -94,8 +95,11 @@ public class TreeFileManagerFragment extends Fragment {
         treeView.setAdapter(new TreeFileNodeViewFactory(new TreeFileNodeListener() {
             @Override
             public void onNodeToggled(TreeNode<TreeFile> treeNode, boolean expanded) {
-                if (treeNode.isLeaf()) {
-                    mMainViewModel.openFile(treeNode.getContent().getFile());
+                TreeFile content = treeNode.getContent();
+                if (!(content instanceof TreeFolder)) {
+                    mMainViewModel.openFile(content.getFile());
+                } else if (expanded && !((TreeFolder) content).isChildrenLoaded()) {
+                    mFileViewModel.loadChildren(treeNode);
                 }
             }
 
@@ -110,6 +114,9 @@ public class TreeFileManagerFragment extends Fragment {
         mFileViewModel.getNodes().observe(getViewLifecycleOwner(), node -> {
             treeView.refreshTreeView(node);
         });
+        mFileViewModel.getUpdatedNode().observe(getViewLifecycleOwner(), node -> {
+            treeView.refreshTreeView();
+        });
     }
 
     @Override
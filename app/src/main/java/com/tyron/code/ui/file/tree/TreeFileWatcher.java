@@ -0,0 +1,121 @@
+package com.tyron.code.ui.file.tree;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.tyron.code.ui.component.tree.TreeNode;
+import com.tyron.code.ui.file.tree.model.TreeFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the loaded folders of a file tree up to date with a {@link WatchService}, so that
+ * created and deleted files show up without walking the project again.
+ *
+ * Only folders whose children are listed are watched. A changed folder is listed again
+ * on the watch thread and its node is updated on the main thread.
+ */
+public class TreeFileWatcher {
+
+    private static final String TAG = "TreeFileWatcher";
+
+    /**
+     * Time to wait after the first event, so that a burst of changes like a build
+     * writing its outputs lists each folder once
+     */
+    private static final long EVENT_DELAY = 300;
+
+    public interface Listener {
+
+        /**
+         * Called on the main thread after the children of the node are updated
+         */
+        void onNodeChanged(TreeNode<TreeFile> node);
+    }
+
+    private final WatchService mService;
+    private final Map<WatchKey, TreeNode<TreeFile>> mNodes = new ConcurrentHashMap<>();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Listener mListener;
+    private volatile boolean mClosed;
+
+    public TreeFileWatcher(Listener listener) throws IOException {
+        mService = FileSystems.getDefault().newWatchService();
+        mListener = listener;
+        Thread thread = new Thread(this::run, TAG);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Watch the folder of the given node, whose children are loaded
+     */
+    public void watch(TreeNode<TreeFile> node) {
+        File file = node.getValue().getFile();
+        try {
+            // The same key is returned if the folder is already watched
+            WatchKey key = file.toPath().register(mService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            mNodes.put(key, node);
+        } catch (IOException | ClosedWatchServiceException e) {
+            Log.w(TAG, "Unable to watch " + file, e);
+        }
+    }
+
+    public void close() {
+        mClosed = true;
+        try {
+            mService.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to close watch service", e);
+        }
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                Set<WatchKey> keys = new LinkedHashSet<>();
+                keys.add(mService.take());
+                Thread.sleep(EVENT_DELAY);
+                WatchKey key;
+                while ((key = mService.poll()) != null) {
+                    keys.add(key);
+                }
+                for (WatchKey changed : keys) {
+                    // Overflow events are handled the same way, the whole folder is listed
+                    changed.pollEvents();
+                    if (!changed.reset()) {
+                        // The folder is deleted, its parent removes the node
+                        mNodes.remove(changed);
+                        continue;
+                    }
+                    TreeNode<TreeFile> node = mNodes.get(changed);
+                    if (node != null) {
+                        List<TreeFile> children = TreeUtil.listChildren(node.getValue().getFile());
+                        mHandler.post(() -> {
+                            if (!mClosed) {
+                                TreeUtil.setChildren(node, children);
+                                mListener.onNodeChanged(node);
+                            }
+                        });
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ignore) {
+            // Closed
+        }
+    }
+}
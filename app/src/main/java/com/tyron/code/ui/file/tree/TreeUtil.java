@@ -2,14 +2,15 @@ package com.tyron.code.ui.file.tree;
 
 import com.tyron.code.ui.component.tree.TreeNode;
 import com.tyron.code.ui.file.tree.model.TreeFile;
+import com.tyron.code.ui.file.tree.model.TreeFolder;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
 public class TreeUtil {
 
@@ -23,35 +24,73 @@ public class TreeUtil {
         }
     };
 
+    /**
+     * Same order as {@link #FILE_FIRST_ORDER}, without querying the file system
+     */
+    private static final Comparator<TreeFile> TREE_FILE_FIRST_ORDER = (file1, file2) -> {
+        boolean folder1 = file1 instanceof TreeFolder;
+        boolean folder2 = file2 instanceof TreeFolder;
+        if (folder1 != folder2) {
+            return folder1 ? 1 : -1;
+        }
+        return String.CASE_INSENSITIVE_ORDER.compare(file1.getFile().getName(),
+                file2.getFile().getName());
+    };
+
+    /**
+     * List the children of the given node again, and of the loaded folders in it.
+     * Folders that are never expanded are not listed.
+     */
     public static void updateNode(TreeNode<TreeFile> node) {
-        Set<File> expandedNodes = TreeUtil.getExpandedNodes(node);
-        List<TreeNode<TreeFile>> newChildren = getNodes(node.getValue().getFile(), node.getLevel())
-                .get(0).getChildren();
-        setExpandedNodes(newChildren, expandedNodes);
-        node.setChildren(newChildren);
+        TreeFile value = node.getValue();
+        if (!(value instanceof TreeFolder) || !((TreeFolder) value).isChildrenLoaded()) {
+            return;
+        }
+        setChildren(node, listChildren(value.getFile()));
+        for (TreeNode<TreeFile> child : node.getChildren()) {
+            updateNode(child);
+        }
     }
 
-    private static void setExpandedNodes(List<TreeNode<TreeFile>> nodeList, Set<File> expandedNodes) {
-        for (TreeNode<TreeFile> treeFileTreeNode : nodeList) {
-            if (expandedNodes.contains(treeFileTreeNode.getValue().getFile())) {
-                treeFileTreeNode.setExpanded(true);
-            }
-
-            setExpandedNodes(treeFileTreeNode.getChildren(), expandedNodes);
+    /**
+     * List the files in the given folder, sorted in the order of the tree.
+     * This does not touch any node so it can be called on any thread.
+     */
+    public static List<TreeFile> listChildren(File folder) {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return Collections.emptyList();
         }
+        List<TreeFile> children = new ArrayList<>(files.length);
+        for (File file : files) {
+            children.add(TreeFile.fromFile(file));
+        }
+        children.sort(TREE_FILE_FIRST_ORDER);
+        return children;
     }
 
-    private static Set<File> getExpandedNodes(TreeNode<TreeFile> node) {
-        Set<File> expandedNodes = new HashSet<>();
-        if (node.isExpanded()) {
-            expandedNodes.add(node.getValue().getFile());
-        }
+    /**
+     * Replace the children of a folder node with the given files. Nodes of the files that are
+     * still in the folder are kept, so loaded and expanded sub folders stay as they are.
+     *
+     * @param node     Node of a folder
+     * @param children Files in the folder, from {@link #listChildren(File)}
+     */
+    public static void setChildren(TreeNode<TreeFile> node, List<TreeFile> children) {
+        Map<File, TreeNode<TreeFile>> oldNodes = new HashMap<>();
         for (TreeNode<TreeFile> child : node.getChildren()) {
-            if (child.getValue().getFile().isDirectory()) {
-                expandedNodes.addAll(getExpandedNodes(child));
+            oldNodes.put(child.getValue().getFile(), child);
+        }
+        List<TreeNode<TreeFile>> newNodes = new ArrayList<>(children.size());
+        for (TreeFile file : children) {
+            TreeNode<TreeFile> child = oldNodes.get(file.getFile());
+            if (child == null || child.getValue().getClass() != file.getClass()) {
+                child = new TreeNode<>(file, node.getLevel() + 1);
             }
+            newNodes.add(child);
         }
-        return expandedNodes;
+        node.setChildren(newNodes);
+        ((TreeFolder) node.getValue()).setChildrenLoaded(true);
     }
 
     public static List<TreeNode<TreeFile>> getNodes(File rootFile) {
@@ -59,7 +98,7 @@ public class TreeUtil {
     }
 
     /**
-     * Get all the tree note at the given root
+     * Get the tree node of the given root, with only its direct children listed
      */
     public static List<TreeNode<TreeFile>> getNodes(File rootFile, int initialLevel) {
         List<TreeNode<TreeFile>> nodes = new ArrayList<>();
@@ -71,33 +110,10 @@ public class TreeUtil {
                 TreeFile.fromFile(rootFile), initialLevel
         );
         root.setExpanded(true);
-
-        File[] children = rootFile.listFiles();
-        if (children != null) {
-            Arrays.sort(children, FILE_FIRST_ORDER);
-            for (File file : children) {
-                addNode(root, file, initialLevel + 1);
-            }
+        if (root.getValue() instanceof TreeFolder) {
+            setChildren(root, listChildren(rootFile));
         }
         nodes.add(root);
         return nodes;
     }
-
-    private static void addNode(TreeNode<TreeFile> node, File file, int level) {
-        TreeNode<TreeFile> childNode = new TreeNode<>(
-                TreeFile.fromFile(file), level
-        );
-
-        if (file.isDirectory()) {
-            File[] children = file.listFiles();
-            if (children != null) {
-                Arrays.sort(children, FILE_FIRST_ORDER);
-                for (File child : children) {
-                    addNode(childNode, child, level + 1);
-                }
-            }
-        }
-
-        node.addChild(childNode);
-    }
 }
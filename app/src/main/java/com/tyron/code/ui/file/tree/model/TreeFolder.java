@@ -11,10 +11,23 @@ import java.io.File;
 
 public class TreeFolder extends TreeFile {
 
+    private boolean mChildrenLoaded;
+
     public TreeFolder(File file) {
         super(file);
     }
 
+    /**
+     * Children of a folder are only listed when it is expanded for the first time
+     */
+    public boolean isChildrenLoaded() {
+        return mChildrenLoaded;
+    }
+
+    public void setChildrenLoaded(boolean loaded) {
+        mChildrenLoaded = loaded;
+    }
+
     @Override
     public Drawable getIcon(Context context) {
         return AppCompatResources.getDrawable(context,
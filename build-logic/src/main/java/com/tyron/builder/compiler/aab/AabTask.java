@@ -1,19 +1,19 @@
 package com.tyron.builder.compiler.aab;
 
+import com.android.tools.build.bundletool.androidtools.Aapt2Command;
+import com.android.tools.build.bundletool.commands.BuildApksCommand;
+import com.android.tools.build.bundletool.commands.BuildBundleCommand;
+import com.google.common.collect.ImmutableList;
 import com.tyron.builder.BuildModule;
 import com.tyron.builder.compiler.BuildType;
 import com.tyron.builder.compiler.Task;
 import com.tyron.builder.exception.CompilationFailedException;
 import com.tyron.builder.log.ILogger;
 import com.tyron.builder.project.api.AndroidModule;
-import com.tyron.common.util.BinaryExecutor;
-import com.tyron.common.util.Decompress;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -21,15 +21,24 @@ import java.io.OutputStream;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
+/**
+ * Packages the outputs of the previous tasks into an Android App Bundle and
+ * extracts a universal apk out of it.
+ *
+ * The base module archive is written in a single pass straight from the proto
+ * format resources, the dex files and the native libraries, bundletool is then
+ * invoked in-process through its command API.
+ */
 public class AabTask extends Task<AndroidModule> {
 
     public AabTask(AndroidModule project, ILogger logger) {
@@ -38,9 +47,14 @@ public class AabTask extends Task<AndroidModule> {
 
     private static final String TAG = "AabTask";
 
+    private static final String MANIFEST_NAME = "AndroidManifest.xml";
+    private static final String UNIVERSAL_APK = "universal.apk";
+
     private File mBinDir;
-    private File base;
-    private File manifest;
+    private File mProtoFormat;
+    private File mBaseModule;
+    private File mBundle;
+    private File mApks;
 
     @Override
     public String getName() {
@@ -49,32 +63,23 @@ public class AabTask extends Task<AndroidModule> {
 
     @Override
     public void prepare(BuildType type) throws IOException {
-        mBinDir = new File(getModule().getBuildDirectory(), "/bin");
-        base = new File(mBinDir.getAbsolutePath(), "/base");
-
-        if (!base.exists() && !base.mkdirs()) {
-            throw new IOException("Failed to create resource output directory");
-        }
-
-        manifest = new File(mBinDir.getAbsolutePath(), "/base/manifest");
-        if (!manifest.exists() && !manifest.mkdirs()) {
-            throw new IOException("Failed to create resource output directory");
-        }
-
-        File dex = new File(mBinDir.getAbsolutePath(), "/base/dex");
-        if (!dex.exists() && !dex.mkdirs()) {
+        mBinDir = new File(getModule().getBuildDirectory(), "bin");
+        if (!mBinDir.exists() && !mBinDir.mkdirs()) {
             throw new IOException("Failed to create resource output directory");
         }
 
+        mProtoFormat = new File(mBinDir, "proto-format.zip");
+        mBaseModule = new File(mBinDir, "Base-Module.zip");
+        mBundle = new File(mBinDir, "module.aab");
+        mApks = new File(mBinDir, "App.apks");
     }
 
     public void run() throws IOException, CompilationFailedException {
-        unZip();
-        copyManifest();
-        copyJni();
-        copyDexFiles();
+        if (!mProtoFormat.exists()) {
+            throw new CompilationFailedException("Unable to find proto format resources, " +
+                    "was the project compiled with --proto-format?");
+        }
         baseZip();
-        budletool();
         aab();
         buildApks();
         extractApks();
@@ -83,182 +88,141 @@ public class AabTask extends Task<AndroidModule> {
     @Override
     protected void clean() {
         try {
-            FileUtils.deleteDirectory(base);
+            Files.deleteIfExists(mBaseModule.toPath());
         } catch (IOException ignore) {
 
         }
     }
 
-    private void extractApks() throws IOException {
-        getLogger().debug("Extracting Apks");
-        String Apks = mBinDir.getAbsolutePath() + "/App.apks";
-        String dApks = mBinDir.getAbsolutePath() + "";
-        uApks(Apks, dApks);
-    }
+    /**
+     * Writes the base module archive in the layout expected by bundletool. Entries are
+     * stored without compression since bundletool decides the final compression of
+     * every entry when it builds the bundle.
+     */
+    private void baseZip() throws IOException {
+        getLogger().debug("Creating Module Archive");
 
-    private static void uApks(String Apks, String dApks) throws IOException {
-        File dir = new File(dApks);
-        // create output directory if it doesn't exist
-        if (!dir.exists() && !dir.mkdirs()) {
-            throw new IOException("Failed to create directory: " + dir);
-        }
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(mBaseModule))) {
+            zos.setLevel(Deflater.NO_COMPRESSION);
 
-        try (FileInputStream fis = new FileInputStream(Apks)) {
-            byte[] buffer = new byte[1024];
-            try (ZipInputStream zis = new ZipInputStream(fis)) {
-                ZipEntry ze = zis.getNextEntry();
-                while (ze != null) {
-                    String fileName = ze.getName();
-                    File newFile = new File(dApks + File.separator + fileName);
-                    //create directories for sub directories in zip
-                    File parent = newFile.getParentFile();
-                    if (parent != null) {
-                        if (!parent.exists() && !parent.mkdirs()) {
-                            throw new IOException("Failed to create directories: " + parent);
-                        }
-                    }
-                    try (FileOutputStream fos = new FileOutputStream(newFile)) {
-                        int len;
-                        while ((len = zis.read(buffer)) > 0) {
-                            fos.write(buffer, 0, len);
-                        }
-                    }
-                    ze = zis.getNextEntry();
-                }
-            }
+            copyProtoFormat(zos);
+            copyDexFiles(zos);
+            copyJni(zos);
         }
     }
 
-    private void buildApks() throws CompilationFailedException {
-        getLogger().debug("Building Apks");
-        List<String> args = new ArrayList<>();
-        args.add("dalvikvm");
-        args.add("-Xcompiler-option");
-        args.add("--compiler-filter=speed");
-        args.add("-Xmx256m");
-        args.add("-Djava.io.tmpdir=" + BuildModule.getContext().getCacheDir().getAbsolutePath());
-        args.add("-cp");
-        args.add(BuildModule.getContext().getFilesDir() + "/bundletool.jar");
-        args.add("com.android.tools.build.bundletool.BundleToolMain");
-        args.add("build-apks");
-        args.add("--bundle=" + mBinDir.getAbsolutePath() + "/module.aab");
-        args.add("--output=" + mBinDir.getAbsolutePath() + "/App.apks");
-        args.add("--mode=universal");
-        args.add("--aapt2=" + BuildModule.getContext().getApplicationInfo().nativeLibraryDir + "/libaapt2.so");
-
-
-        BinaryExecutor executor = new BinaryExecutor();
-        executor.setCommands(args);
-        if (!executor.execute().isEmpty()) {
-            throw new CompilationFailedException(executor.getLog());
-        }
-    }
+    private void copyProtoFormat(ZipOutputStream zos) throws IOException {
+        getLogger().debug("Copying proto format resources.");
+
+        try (ZipFile protoFormat = new ZipFile(mProtoFormat)) {
+            Enumeration<? extends ZipEntry> entries = protoFormat.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory()) {
+                    continue;
+                }
 
-    private void budletool() throws IOException {
-        getLogger().debug("Preparing Bundletool");
+                String name = entry.getName();
+                if (MANIFEST_NAME.equals(name)) {
+                    name = "manifest/" + MANIFEST_NAME;
+                }
 
-        File bundletool = new File(BuildModule.getContext().getFilesDir(), "bundletool.jar");
-        if (!bundletool.exists()) {
-            InputStream input = BuildModule.getContext()
-                    .getAssets().open("bundletool.jar");
-            OutputStream output = new FileOutputStream(
-                    new File(BuildModule.getContext().getFilesDir(), "bundletool.jar"));
-            IOUtils.copy(input, output);
+                zos.putNextEntry(new ZipEntry(name));
+                try (InputStream is = protoFormat.getInputStream(entry)) {
+                    IOUtils.copy(is, zos);
+                }
+                zos.closeEntry();
+            }
         }
     }
 
+    private void copyDexFiles(ZipOutputStream zos) throws IOException {
+        File[] dexFiles = mBinDir.listFiles(c ->
+                c.isFile() && c.getName().endsWith(".dex")
+        );
+        if (dexFiles == null) {
+            return;
+        }
 
-    private void aab() throws CompilationFailedException {
-        getLogger().debug("Generating AAB.");
-
-        List<String> args = new ArrayList<>();
-        args.add("dalvikvm");
-        args.add("-Xcompiler-option");
-        args.add("--compiler-filter=speed");
-        args.add("-Xmx256m");
-        args.add("-Djava.io.tmpdir=" + BuildModule.getContext().getCacheDir().getAbsolutePath());
-        args.add("-cp");
-        args.add(BuildModule.getContext().getFilesDir() + "/bundletool.jar");
-        args.add("com.android.tools.build.bundletool.BundleToolMain");
-        args.add("build-bundle");
-        args.add("--modules=" + mBinDir.getAbsolutePath() + "/Base-Module.zip");
-        args.add("--output=" + mBinDir.getAbsolutePath() + "/module.aab");
-
-        BinaryExecutor executor = new BinaryExecutor();
-        executor.setCommands(args);
-        if (!executor.execute().isEmpty()) {
-            throw new CompilationFailedException(executor.getLog());
+        // keep classes.dex, classes2.dex ... in a stable order inside the archive
+        Arrays.sort(dexFiles, Comparator.comparing(File::getName));
+        for (File dexFile : dexFiles) {
+            zos.putNextEntry(new ZipEntry("dex/" + dexFile.getName()));
+            Files.copy(dexFile.toPath(), zos);
+            zos.closeEntry();
         }
     }
 
+    private void copyJni(ZipOutputStream zos) throws IOException {
+        getLogger().debug("Copying JniLibs.");
 
-    private void baseZip() throws IOException {
-        getLogger().debug("Creating Module Archive");
-        String folderToZip = base.getAbsolutePath();
-        String zipName = mBinDir.getAbsolutePath() + "/Base-Module.zip";
-        zipFolder(Paths.get(folderToZip), Paths.get(zipName));
-    }
+        final Path jniLibs = getModule().getNativeLibrariesDirectory().toPath();
+        if (!Files.isDirectory(jniLibs)) {
+            return;
+        }
 
-    // Uses java.util.zip to create zip file
-    private void zipFolder(final Path sourceFolderPath, Path zipPath) throws IOException {
-        final ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zipPath.toFile()));
-        Files.walkFileTree(sourceFolderPath, new SimpleFileVisitor<Path>() {
+        Files.walkFileTree(jniLibs, new SimpleFileVisitor<Path>() {
+            @Override
             public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                zos.putNextEntry(new ZipEntry(sourceFolderPath.relativize(file).toString()));
+                String relative = jniLibs.relativize(file).toString()
+                        .replace(File.separatorChar, '/');
+                zos.putNextEntry(new ZipEntry("lib/" + relative));
                 Files.copy(file, zos);
                 zos.closeEntry();
                 return FileVisitResult.CONTINUE;
             }
         });
-        zos.close();
     }
 
+    private void aab() throws CompilationFailedException {
+        getLogger().debug("Generating AAB.");
 
-    private void copyManifest() throws CompilationFailedException {
-        getLogger().debug("Copying Manifest.");
-
-        List<String> args = new ArrayList<>();
-        args.add("mv");
-        args.add(base.getAbsolutePath() + "/AndroidManifest.xml");
-        args.add(manifest.getAbsolutePath() + "");
-        BinaryExecutor executor = new BinaryExecutor();
-        executor.setCommands(args);
-        if (!executor.execute().isEmpty()) {
-            throw new CompilationFailedException(executor.getLog());
+        try {
+            BuildBundleCommand.builder()
+                    .setModulesPaths(ImmutableList.of(mBaseModule.toPath()))
+                    .setOutputPath(mBundle.toPath())
+                    .setOverwriteOutput(true)
+                    .build()
+                    .execute();
+        } catch (RuntimeException e) {
+            throw new CompilationFailedException("Failed to build the app bundle", e);
         }
     }
 
-    private void copyDexFiles() throws IOException {
-        File[] dexFiles = mBinDir.listFiles(c ->
-                c.isFile() && c.getName().endsWith(".dex")
-        );
+    private void buildApks() throws CompilationFailedException {
+        getLogger().debug("Building Apks");
 
-        File dexOutput = new File(mBinDir, "base/dex");
-        if (dexFiles != null) {
-            for (File dexFile : dexFiles) {
-                FileUtils.copyFileToDirectory(dexFile, dexOutput);
-            }
+        Path aapt2 = new File(BuildModule.getContext().getApplicationInfo().nativeLibraryDir,
+                "libaapt2.so").toPath();
+        try {
+            BuildApksCommand.builder()
+                    .setBundlePath(mBundle.toPath())
+                    .setOutputFile(mApks.toPath())
+                    .setApkBuildMode(BuildApksCommand.ApkBuildMode.UNIVERSAL)
+                    .setAapt2Command(Aapt2Command.createFromExecutablePath(aapt2))
+                    .setOverwriteOutput(true)
+                    .build()
+                    .execute();
+        } catch (RuntimeException e) {
+            throw new CompilationFailedException("Failed to build apks from the app bundle", e);
         }
     }
 
-    private void copyJni() throws IOException {
-        getLogger().debug("Coping JniLibs.");
-        String fromDirectory = getModule().getNativeLibrariesDirectory().getAbsolutePath();
-        String toToDirectory = base.getAbsolutePath() + "/lib";
-        copyDirectoryFileVisitor(fromDirectory, toToDirectory);
-    }
-
-    public static void copyDirectoryFileVisitor(String source, String target)
-            throws IOException {
-        TreeCopyFileVisitor fileVisitor = new TreeCopyFileVisitor(source, target);
-        Files.walkFileTree(Paths.get(source), fileVisitor);
-    }
-
+    /**
+     * Universal mode produces a single apk, only that entry is extracted from the apk set
+     */
+    private void extractApks() throws IOException {
+        getLogger().debug("Extracting Apks");
 
-    private void unZip() {
-        getLogger().debug("Unzipping proto format.");
-        String zipFilePath = mBinDir.getAbsolutePath() + "/proto-format.zip";
-        String destDir = base.getAbsolutePath() + "";
-        Decompress.unzip(zipFilePath, destDir);
+        try (ZipFile apks = new ZipFile(mApks)) {
+            ZipEntry universal = apks.getEntry(UNIVERSAL_APK);
+            if (universal == null) {
+                throw new IOException("Unable to find " + UNIVERSAL_APK + " in " + mApks);
+            }
+            try (InputStream is = apks.getInputStream(universal);
+                 OutputStream os = new FileOutputStream(new File(mBinDir, UNIVERSAL_APK))) {
+                IOUtils.copy(is, os);
+            }
+        }
     }
 }
@@ -32,6 +32,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
+import java.util.Set;
 
 public class IncrementalJavaTask extends Task<JavaModule> {
 
@@ -43,6 +44,10 @@ public class IncrementalJavaTask extends Task<JavaModule> {
     private List<File> mJavaFiles;
     private List<File> mFilesToCompile;
     private Cache<String, List<File>> mClassCache;
+    /**
+     * Version of the file change journal when this build is prepared
+     */
+    private long mJournalVersion;
 
     public IncrementalJavaTask(JavaModule project, ILogger logger) {
         super(project, logger);
@@ -73,9 +78,12 @@ public class IncrementalJavaTask extends Task<JavaModule> {
             }
         }
 
+        // Files changed since the last successful build, instead of checking every file
+        mJournalVersion = mClassCache.getJournalVersion();
+        Set<File> changedFiles = mClassCache.getChangedFiles();
         for (File file : mJavaFiles) {
             Path filePath = file.toPath();
-            if (mClassCache.needs(filePath, "class")) {
+            if (mClassCache.needs(filePath, "class", changedFiles)) {
                 mFilesToCompile.add(file);
             }
         }
@@ -87,6 +95,7 @@ public class IncrementalJavaTask extends Task<JavaModule> {
     @Override
     public void run() throws IOException, CompilationFailedException {
         if (mFilesToCompile.isEmpty()) {
+            mClassCache.setCheckedVersion(mJournalVersion);
             return;
         }
 
@@ -171,8 +180,9 @@ public class IncrementalJavaTask extends Task<JavaModule> {
                         Objects.requireNonNull(compiledFiles.get(file.getAbsolutePath()))
                                 .add(classFile);
                     }
+                    // Sources saved during the compilation are compiled again next time
                     mClassCache.load(file.toPath(), "class",
-                            Collections.singletonList(classFile));
+                            Collections.singletonList(classFile), mJournalVersion);
                 }
             }
 
@@ -209,6 +219,8 @@ public class IncrementalJavaTask extends Task<JavaModule> {
         if (mHasErrors) {
             throw new CompilationFailedException("Compilation failed, check logs for more details");
         }
+        // Files that failed are checked again in the next build
+        mClassCache.setCheckedVersion(mJournalVersion);
     }
 
     @VisibleForTesting
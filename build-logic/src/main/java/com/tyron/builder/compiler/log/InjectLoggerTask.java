@@ -48,7 +48,14 @@ public class InjectLoggerTask extends Task<AndroidModule> {
             "import java.io.BufferedReader;\n" +
             "import java.io.IOException;\n" +
             "import java.io.InputStreamReader;\n" +
+            "import java.util.ArrayList;\n" +
+            "import java.util.List;\n" +
+            "import java.util.concurrent.ArrayBlockingQueue;\n" +
+            "import java.util.concurrent.BlockingQueue;\n" +
+            "import java.util.concurrent.ExecutorService;\n" +
             "import java.util.concurrent.Executors;\n" +
+            "import java.util.concurrent.TimeUnit;\n" +
+            "import java.util.concurrent.atomic.AtomicInteger;\n" +
             "import java.util.regex.Matcher;\n" +
             "import java.util.regex.Pattern;\n" +
             "\n" +
@@ -60,6 +67,14 @@ public class InjectLoggerTask extends Task<AndroidModule> {
             "    private static final String INFO = \"INFO\";\n" +
             "    private static final Pattern TYPE_PATTERN = Pattern.compile(\"^(.*\\\\d) ([ADEIW]) (.*): (.*)\");\n" +
             "\n" +
+            "    private static final int QUEUE_CAPACITY = 4096;\n" +
+            "    private static final int MAX_BATCH_LINES = 256;\n" +
+            "    private static final int MAX_BATCH_CHARS = 64 * 1024;\n" +
+            "    private static final long FLUSH_INTERVAL_MS = 100;\n" +
+            "\n" +
+            "    private static final BlockingQueue<String[]> mQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);\n" +
+            "    private static final AtomicInteger mDropped = new AtomicInteger();\n" +
+            "\n" +
             "    private static volatile boolean mInitialized;\n" +
             "    private static Context mContext;\n" +
             "\n" +
@@ -74,34 +89,38 @@ public class InjectLoggerTask extends Task<AndroidModule> {
             "    }\n" +
             "\n" +
             "    private static void start() {\n" +
-            "        Executors.newSingleThreadExecutor().execute(() -> {\n" +
-            "            try {\n" +
-            "                clear();\n" +
-            "                Process process = Runtime.getRuntime()\n" +
-            "                        .exec(\"logcat\");\n" +
-            "                BufferedReader reader = new BufferedReader(new InputStreamReader(\n" +
-            "                        process.getInputStream()));\n" +
-            "                String line = null;\n" +
-            "                while ((line = reader.readLine()) != null) {\n" +
-            "                    Matcher matcher = TYPE_PATTERN.matcher(line);\n" +
-            "                    if (matcher.matches()) {\n" +
-            "                        String type = matcher.group(2);\n" +
-            "                        if (type != null) {\n" +
-            "                           switch (type) {\n" +
-            "                               case \"D\": debug(line);   break;\n" +
-            "                               case \"E\": error(line);   break;\n" +
-            "                               case \"W\": warning(line); break;\n" +
-            "                               case \"I\": info(line);    break;\n" +
-            "                           }\n" +
-            "                        } else {\n" +
-            "                            debug(line);\n" +
-            "                        }\n" +
+            "        ExecutorService executor = Executors.newFixedThreadPool(2);\n" +
+            "        executor.execute(Logger::read);\n" +
+            "        executor.execute(Logger::flush);\n" +
+            "    }\n" +
+            "\n" +
+            "    private static void read() {\n" +
+            "        try {\n" +
+            "            clear();\n" +
+            "            Process process = Runtime.getRuntime()\n" +
+            "                    .exec(\"logcat\");\n" +
+            "            BufferedReader reader = new BufferedReader(new InputStreamReader(\n" +
+            "                    process.getInputStream()));\n" +
+            "            String line = null;\n" +
+            "            while ((line = reader.readLine()) != null) {\n" +
+            "                Matcher matcher = TYPE_PATTERN.matcher(line);\n" +
+            "                if (matcher.matches()) {\n" +
+            "                    String type = matcher.group(2);\n" +
+            "                    if (type != null) {\n" +
+            "                       switch (type) {\n" +
+            "                           case \"D\": debug(line);   break;\n" +
+            "                           case \"E\": error(line);   break;\n" +
+            "                           case \"W\": warning(line); break;\n" +
+            "                           case \"I\": info(line);    break;\n" +
+            "                       }\n" +
+            "                    } else {\n" +
+            "                        debug(line);\n" +
             "                    }\n" +
             "                }\n" +
-            "            } catch (IOException e) {\n" +
-            "                error(\"IOException occurred on Logger: \" + e.getMessage());\n" +
             "            }\n" +
-            "        });\n" +
+            "        } catch (IOException e) {\n" +
+            "            error(\"IOException occurred on Logger: \" + e.getMessage());\n" +
+            "        }\n" +
             "    }\n" +
             "\n" +
             "    private static void clear() throws IOException {\n" +
@@ -109,25 +128,67 @@ public class InjectLoggerTask extends Task<AndroidModule> {
             "    }\n" +
             "\n" +
             "    private static void debug(String message) {\n" +
-            "        broadcast(DEBUG, message);\n" +
+            "        enqueue(DEBUG, message);\n" +
             "    }\n" +
             "\n" +
             "    private static void warning(String message) {\n" +
-            "        broadcast(WARNING, message);\n" +
+            "        enqueue(WARNING, message);\n" +
             "    }\n" +
             "\n" +
             "    private static void error(String message) {\n" +
-            "        broadcast(ERROR, message);\n" +
+            "        enqueue(ERROR, message);\n" +
             "    }\n" +
             "\n" +
             "    private static void info(String message) {\n" +
-            "        broadcast(INFO, message);\n" +
+            "        enqueue(INFO, message);\n" +
+            "    }\n" +
+            "\n" +
+            "    private static void enqueue(String type, String message) {\n" +
+            "        if (!mQueue.offer(new String[]{type, message})) {\n" +
+            "            mDropped.incrementAndGet();\n" +
+            "        }\n" +
+            "    }\n" +
+            "\n" +
+            "    private static void flush() {\n" +
+            "        List<String[]> batch = new ArrayList<>(MAX_BATCH_LINES);\n" +
+            "        try {\n" +
+            "            while (true) {\n" +
+            "                String[] line = mQueue.take();\n" +
+            "                int chars = line[1].length();\n" +
+            "                batch.add(line);\n" +
+            "\n" +
+            "                long deadline = System.currentTimeMillis() + FLUSH_INTERVAL_MS;\n" +
+            "                while (batch.size() < MAX_BATCH_LINES && chars < MAX_BATCH_CHARS) {\n" +
+            "                    long remaining = deadline - System.currentTimeMillis();\n" +
+            "                    if (remaining <= 0) {\n" +
+            "                        break;\n" +
+            "                    }\n" +
+            "                    line = mQueue.poll(remaining, TimeUnit.MILLISECONDS);\n" +
+            "                    if (line == null) {\n" +
+            "                        break;\n" +
+            "                    }\n" +
+            "                    chars += line[1].length();\n" +
+            "                    batch.add(line);\n" +
+            "                }\n" +
+            "\n" +
+            "                broadcast(batch);\n" +
+            "                batch.clear();\n" +
+            "            }\n" +
+            "        } catch (InterruptedException ignored) {\n" +
+            "        }\n" +
             "    }\n" +
             "\n" +
-            "    private static void broadcast(String type, String message) {\n" +
+            "    private static void broadcast(List<String[]> batch) {\n" +
+            "        String[] types = new String[batch.size()];\n" +
+            "        String[] messages = new String[batch.size()];\n" +
+            "        for (int i = 0; i < batch.size(); i++) {\n" +
+            "            types[i] = batch.get(i)[0];\n" +
+            "            messages[i] = batch.get(i)[1];\n" +
+            "        }\n" +
             "        Intent intent = new Intent(mContext.getPackageName() + \".LOG\");\n" +
-            "        intent.putExtra(\"type\", type);\n" +
-            "        intent.putExtra(\"message\", message);\n" +
+            "        intent.putExtra(\"types\", types);\n" +
+            "        intent.putExtra(\"messages\", messages);\n" +
+            "        intent.putExtra(\"dropped\", mDropped.getAndSet(0));\n" +
             "        mContext.sendBroadcast(intent);\n" +
             "    }\n" +
             "}\n";
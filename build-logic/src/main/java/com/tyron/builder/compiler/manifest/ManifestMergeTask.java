@@ -10,19 +10,36 @@ import com.tyron.builder.exception.CompilationFailedException;
 import com.tyron.builder.log.ILogger;
 import com.tyron.builder.model.ModuleSettings;
 import com.tyron.builder.project.api.AndroidModule;
+import com.tyron.builder.project.cache.CacheHolder;
+import com.tyron.common.util.Cache;
 
 import org.apache.commons.io.FileUtils;
 import org.w3c.dom.Document;
 
 import java.io.File;
 import java.io.IOException;
+import java.math.BigInteger;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 
 public class ManifestMergeTask extends Task<AndroidModule> {
 
+    /**
+     * Holds the parsed library manifests, shared between builds
+     */
+    public static final CacheHolder.CacheKey<Void, Document> CACHE_KEY =
+            new CacheHolder.CacheKey<>("manifestMergerCache");
+
     private File mOutputFile;
+    private File mMergedManifest;
+    private File mReportFile;
+    private File mFingerprintFile;
     private File mMainManifest;
     private File[] mLibraryManifestFiles;
     private String mPackageName;
@@ -53,6 +70,14 @@ public class ManifestMergeTask extends Task<AndroidModule> {
             }
         }
 
+        File mergerDirectory = new File(getModule().getBuildDirectory(), "intermediate/manifest");
+        if (!mergerDirectory.exists() && !mergerDirectory.mkdirs()) {
+            throw new IOException("Unable to create manifest merger directory");
+        }
+        mMergedManifest = new File(mergerDirectory, "AndroidManifest.xml");
+        mReportFile = new File(mergerDirectory, "manifest-merger-blame-report.txt");
+        mFingerprintFile = new File(mergerDirectory, "fingerprint");
+
         mMainManifest = getModule().getManifestFile();
         if (!mMainManifest.exists()) {
             throw new IOException("Unable to find the main manifest file");
@@ -83,22 +108,28 @@ public class ManifestMergeTask extends Task<AndroidModule> {
 
     @Override
     public void run() throws IOException, CompilationFailedException {
-        ModuleSettings settings = getModule().getSettings();
+        Map<SystemProperty, String> overrides = getOverrides();
+
+        // the output may have been modified by later tasks of the previous build, so the
+        // merged manifest is kept separately and copied back when the inputs are unchanged
+        String fingerprint = getFingerprint(overrides);
+        if (isUpToDate(fingerprint)) {
+            getLogger().debug("Manifests have not changed, using the previous merge result.");
+            FileUtils.copyFile(mMergedManifest, mOutputFile);
+            return;
+        }
+        FileUtils.deleteQuietly(mFingerprintFile);
 
         ManifestMerger2.Invoker<?> invoker = ManifestMerger2.newMerger(mMainManifest,
                 getLogger(), ManifestMerger2.MergeType.APPLICATION);
-        invoker.setOverride(SystemProperty.PACKAGE, mPackageName);
-        invoker.setOverride(SystemProperty.MIN_SDK_VERSION,
-                String.valueOf(settings.getInt(ModuleSettings.MIN_SDK_VERSION, 21)));
-        invoker.setOverride(SystemProperty.TARGET_SDK_VERSION,
-                String.valueOf(settings.getInt(ModuleSettings.TARGET_SDK_VERSION, 30)));
-        invoker.setOverride(SystemProperty.VERSION_CODE,
-                String.valueOf(settings.getInt(ModuleSettings.VERSION_CODE, 1)));
-        invoker.setOverride(SystemProperty.VERSION_NAME,
-                settings.getString(ModuleSettings.VERSION_NAME, "1.0"));
+        for (Map.Entry<SystemProperty, String> entry : overrides.entrySet()) {
+            invoker.setOverride(entry.getKey(), entry.getValue());
+        }
         if (mLibraryManifestFiles != null) {
             invoker.addLibraryManifests(mLibraryManifestFiles);
         }
+        invoker.setDocumentCache(getModule().getCache(CACHE_KEY, new Cache<>()));
+        invoker.setMergeReportFile(mReportFile);
         invoker.setVerbose(false);
         try {
             MergingReport report = invoker.merge();
@@ -119,15 +150,73 @@ public class ManifestMergeTask extends Task<AndroidModule> {
                         XmlFormatStyle.get(document),
                         null,
                         false);
-                FileUtils.writeStringToFile(mOutputFile,
+                FileUtils.writeStringToFile(mMergedManifest,
                         contents,
                         Charset.defaultCharset());
+                FileUtils.copyFile(mMergedManifest, mOutputFile);
+                FileUtils.writeStringToFile(mFingerprintFile,
+                        fingerprint,
+                        StandardCharsets.UTF_8);
             }
         } catch (ManifestMerger2.MergeFailureException e) {
             throw new CompilationFailedException(e);
         }
     }
 
+    private Map<SystemProperty, String> getOverrides() {
+        ModuleSettings settings = getModule().getSettings();
+
+        Map<SystemProperty, String> overrides = new EnumMap<>(SystemProperty.class);
+        overrides.put(SystemProperty.PACKAGE, mPackageName);
+        overrides.put(SystemProperty.MIN_SDK_VERSION,
+                String.valueOf(settings.getInt(ModuleSettings.MIN_SDK_VERSION, 21)));
+        overrides.put(SystemProperty.TARGET_SDK_VERSION,
+                String.valueOf(settings.getInt(ModuleSettings.TARGET_SDK_VERSION, 30)));
+        overrides.put(SystemProperty.VERSION_CODE,
+                String.valueOf(settings.getInt(ModuleSettings.VERSION_CODE, 1)));
+        overrides.put(SystemProperty.VERSION_NAME,
+                settings.getString(ModuleSettings.VERSION_NAME, "1.0"));
+        return overrides;
+    }
+
+    /**
+     * Computes a hash of everything that affects the merged manifest: the contents of the
+     * main and library manifests, their order and the values injected by the merger.
+     */
+    private String getFingerprint(Map<SystemProperty, String> overrides) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        update(digest, mMainManifest);
+        if (mLibraryManifestFiles != null) {
+            for (File library : mLibraryManifestFiles) {
+                update(digest, library);
+            }
+        }
+        for (Map.Entry<SystemProperty, String> entry : overrides.entrySet()) {
+            digest.update((entry.getKey().name() + '=' + entry.getValue() + '\n')
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        return new BigInteger(1, digest.digest()).toString(16);
+    }
+
+    private static void update(MessageDigest digest, File file) throws IOException {
+        digest.update((file.getAbsolutePath() + '\n').getBytes(StandardCharsets.UTF_8));
+        digest.update(FileUtils.readFileToByteArray(file));
+    }
+
+    private boolean isUpToDate(String fingerprint) throws IOException {
+        if (!mFingerprintFile.exists() || !mMergedManifest.exists()) {
+            return false;
+        }
+        String previous = FileUtils.readFileToString(mFingerprintFile, StandardCharsets.UTF_8);
+        return fingerprint.equals(previous);
+    }
+
     private String getApplicationId() throws IOException {
         String packageName = getModule().getPackageName();
         if (packageName == null) {
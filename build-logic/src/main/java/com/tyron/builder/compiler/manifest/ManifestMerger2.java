@@ -14,17 +14,24 @@ import com.tyron.builder.compiler.manifest.blame.SourcePosition;
 import com.tyron.builder.log.ILogger;
 import com.tyron.builder.util.SdkUtils;
 import com.tyron.builder.util.XmlUtils;
+import com.tyron.common.util.Cache;
 
 import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.annotation.concurrent.Immutable;
 
@@ -49,6 +56,8 @@ public class ManifestMerger2 {
     private final ImmutableList<Invoker.Feature> mOptionalFeatures;
     private final MergeType mMergeType;
     private final Optional<File> mReportFile;
+    @Nullable
+    private final Cache<Void, Document> mDocumentCache;
 
     private boolean mVerbose = false;
 
@@ -65,7 +74,8 @@ public class ManifestMerger2 {
             @NonNull Map<String, Object> placeHolderValues,
             @NonNull PlaceholderHandler.KeyBasedValueResolver<SystemProperty> systemPropertiesResolver,
             @NonNull MergeType mergeType,
-            @NonNull Optional<File> reportFile) {
+            @NonNull Optional<File> reportFile,
+            @Nullable Cache<Void, Document> documentCache) {
         this.mSystemPropertyResolver = systemPropertiesResolver;
         this.mPlaceHolderValues = placeHolderValues;
         this.mManifestFile = mainManifestFile;
@@ -75,6 +85,7 @@ public class ManifestMerger2 {
         this.mOptionalFeatures = optionalFeatures;
         this.mMergeType = mergeType;
         this.mReportFile = reportFile;
+        this.mDocumentCache = documentCache;
     }
 
     /**
@@ -473,24 +484,26 @@ public class ManifestMerger2 {
     private List<LoadedManifestInfo> loadLibraries(SelectorResolver selectors,
                                                    MergingReport.Builder mergingReportBuilder) throws MergeFailureException {
 
+        // parsing is the most expensive part of loading a manifest and it does not depend
+        // on the other manifests, so it is done up front on a worker pool. The documents are
+        // still processed below in their priority order so the merge stays deterministic.
+        List<Document> parsedDocuments = parseLibraries();
+
         ImmutableList.Builder<LoadedManifestInfo> loadedLibraryDocuments = ImmutableList.builder();
-        for (Pair<String, File> libraryFile : mLibraryFiles) {
+        for (int i = 0; i < mLibraryFiles.size(); i++) {
+            Pair<String, File> libraryFile = mLibraryFiles.get(i);
             if (mVerbose) {
                 mLogger.verbose("Loading library manifest " + libraryFile.getSecond().getPath());
             }
             ManifestInfo manifestInfo = new ManifestInfo(libraryFile.getFirst(),
                     libraryFile.getSecond(),
                     XmlDocument.Type.LIBRARY, Optional.<String>absent());
-            XmlDocument libraryDocument;
-            try {
-                libraryDocument = XmlLoader.load(selectors,
-                        mSystemPropertyResolver,
-                        manifestInfo.mName, manifestInfo.mLocation,
-                        XmlDocument.Type.LIBRARY,
-                        Optional.<String>absent()  /* mainManifestPackageName */);
-            } catch (Exception e) {
-                throw new MergeFailureException(e);
-            }
+            XmlDocument libraryDocument = XmlLoader.load(selectors,
+                    mSystemPropertyResolver,
+                    manifestInfo.mName, manifestInfo.mLocation,
+                    parsedDocuments.get(i),
+                    XmlDocument.Type.LIBRARY,
+                    Optional.<String>absent()  /* mainManifestPackageName */);
             // extract the package name...
             String libraryPackage = libraryDocument.getRootNode().getXml().getAttribute("package");
             // save it in the selector instance.
@@ -517,6 +530,43 @@ public class ManifestMerger2 {
         return loadedLibraryDocuments.build();
     }
 
+    /**
+     * Parses all the library manifests concurrently.
+     *
+     * @return the parsed documents, in the same order as the library files.
+     * @throws MergeFailureException if one of the manifests cannot be parsed.
+     */
+    private List<Document> parseLibraries() throws MergeFailureException {
+        int count = mLibraryFiles.size();
+        if (count == 0) {
+            return ImmutableList.of();
+        }
+
+        int threads = Math.min(count, Runtime.getRuntime().availableProcessors());
+        ExecutorService service = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Document>> futures = new ArrayList<>(count);
+            for (Pair<String, File> libraryFile : mLibraryFiles) {
+                futures.add(service.submit(() ->
+                        XmlLoader.parse(mDocumentCache, libraryFile.getSecond())));
+            }
+
+            List<Document> documents = new ArrayList<>(count);
+            for (Future<Document> future : futures) {
+                documents.add(future.get());
+            }
+            return documents;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw new MergeFailureException(cause instanceof Exception ? (Exception) cause : e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MergeFailureException(e);
+        } finally {
+            service.shutdownNow();
+        }
+    }
+
     /**
      * Creates a new {@link ManifestMerger2.Invoker} instance to invoke
      * the merging tool to merge manifest files for an application.
@@ -804,6 +854,8 @@ public class ManifestMerger2 {
 
         @Nullable private File mReportFile;
 
+        @Nullable private Cache<Void, Document> mDocumentCache;
+
         /**
          * Sets a value for a {@link ManifestMerger2.SystemProperty}
          * @param override the property to set
@@ -897,6 +949,18 @@ public class ManifestMerger2 {
             return this;
         }
 
+        /**
+         * Sets the cache used to keep the parsed library manifests between merges. Library
+         * manifests rarely change so most of them can be reused instead of being parsed
+         * again on every merge.
+         * @param documentCache the cache of parsed documents.
+         * @return itself.
+         */
+        public Invoker setDocumentCache(@NonNull Cache<Void, Document> documentCache) {
+            mDocumentCache = documentCache;
+            return thisAsT();
+        }
+
         /**
          * Add one library file manifest, will be added last in the list of library files which will
          * make the parameter the lowest priority library manifest file.
@@ -1003,7 +1067,8 @@ public class ManifestMerger2 {
                             mPlaceholders.build(),
                             new MapBasedKeyBasedValueResolver<SystemProperty>(systemProperties),
                             mMergeType,
-                            Optional.fromNullable(mReportFile));
+                            Optional.fromNullable(mReportFile),
+                            mDocumentCache);
             manifestMerger.setVerbose(mVerbose);
             return manifestMerger.merge();
         }
@@ -1,8 +1,11 @@
 package com.tyron.builder.compiler.manifest;
 
+import androidx.annotation.Nullable;
+
 import com.google.common.base.Optional;
 import com.tyron.builder.compiler.manifest.blame.SourceFile;
 import com.tyron.builder.util.PositionXmlParser;
+import com.tyron.common.util.Cache;
 
 import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
@@ -12,6 +15,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
 
 import org.openjdk.javax.xml.parsers.ParserConfigurationException;
 
@@ -37,9 +41,30 @@ public final class XmlLoader {
             XmlDocument.Type type,
             Optional<String> mainManifestPackageName)
             throws IOException, SAXException, ParserConfigurationException {
-        InputStream inputStream = new BufferedInputStream(new FileInputStream(xmlFile));
+        return load(null, selectors, systemPropertyResolver, displayName, xmlFile, type,
+                mainManifestPackageName);
+    }
 
-        Document domDocument = PositionXmlParser.parse(inputStream);
+    /**
+     * Loads an xml file without doing xml validation and return a {@link XmlDocument}. If the
+     * file has not been modified since it was put in the given cache, a copy of the
+     * previously parsed document is used instead of parsing the file again.
+     *
+     * @param documentCache the cache of parsed documents, may be null
+     * @param displayName the xml file display name.
+     * @param xmlFile the xml file.
+     * @return the initialized {@link XmlDocument}
+     */
+    public static XmlDocument load(
+            @Nullable Cache<Void, Document> documentCache,
+            KeyResolver<String> selectors,
+            PlaceholderHandler.KeyBasedValueResolver<ManifestMerger2.SystemProperty> systemPropertyResolver,
+            String displayName,
+            File xmlFile,
+            XmlDocument.Type type,
+            Optional<String> mainManifestPackageName)
+            throws IOException, SAXException, ParserConfigurationException {
+        Document domDocument = parse(documentCache, xmlFile);
         return domDocument != null ? new XmlDocument(
                 new SourceFile(xmlFile, displayName),
                 selectors,
@@ -50,6 +75,71 @@ public final class XmlLoader {
                 : null;
     }
 
+    /**
+     * Creates a {@link XmlDocument} from an already parsed xml file.
+     *
+     * @param displayName the xml file display name.
+     * @param xmlFile the xml file the document was parsed from.
+     * @param domDocument the document returned by {@link #parse(Cache, File)}
+     * @return the initialized {@link XmlDocument}
+     */
+    public static XmlDocument load(
+            KeyResolver<String> selectors,
+            PlaceholderHandler.KeyBasedValueResolver<ManifestMerger2.SystemProperty> systemPropertyResolver,
+            String displayName,
+            File xmlFile,
+            Document domDocument,
+            XmlDocument.Type type,
+            Optional<String> mainManifestPackageName) {
+        return new XmlDocument(
+                new SourceFile(xmlFile, displayName),
+                selectors,
+                systemPropertyResolver,
+                domDocument.getDocumentElement(),
+                type,
+                mainManifestPackageName);
+    }
+
+    /**
+     * Parses an xml file, or returns a copy of the document parsed previously if the file
+     * has not been modified since it was put in the given cache. This method may be called
+     * from multiple threads.
+     *
+     * @param documentCache the cache of parsed documents, may be null
+     * @param xmlFile the xml file.
+     * @return the parsed document that the caller is free to modify.
+     */
+    public static Document parse(@Nullable Cache<Void, Document> documentCache, File xmlFile)
+            throws IOException, SAXException, ParserConfigurationException {
+        Path path = xmlFile.toPath();
+        Document cached = null;
+        if (documentCache != null) {
+            synchronized (documentCache) {
+                if (documentCache.has(path, null)) {
+                    cached = documentCache.get(path, null);
+                }
+            }
+        }
+        if (cached != null) {
+            // the merger modifies the documents it is given, never hand out the cached one.
+            // reading a DOM tree is not thread safe either, so copies are made one at a time
+            synchronized (cached) {
+                return PositionXmlParser.cloneDocument(cached);
+            }
+        }
+
+        Document domDocument;
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(xmlFile))) {
+            domDocument = PositionXmlParser.parse(inputStream);
+        }
+        if (documentCache != null && domDocument != null) {
+            Document copy = PositionXmlParser.cloneDocument(domDocument);
+            synchronized (documentCache) {
+                documentCache.load(path, null, copy);
+            }
+        }
+        return domDocument;
+    }
 
     /**
      * Loads a xml document from its {@link String} representation without doing xml validation and
@@ -0,0 +1,137 @@
+package com.tyron.builder.log;
+
+import com.tyron.builder.model.DiagnosticWrapper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Fixed capacity ring buffer of log entries. Once the buffer is full, appending
+ * a new entry evicts the oldest one.
+ *
+ * Every appended entry is given a sequence number that keeps increasing even
+ * after the store has been cleared, so readers can tell which entries they have
+ * already seen. {@link #drain()} returns everything appended since the last call
+ * so writers on any thread can be published in batches.
+ */
+public class LogStore {
+
+    private final DiagnosticWrapper[] mItems;
+
+    /** index in mItems of the oldest entry */
+    private int mStart;
+    private int mSize;
+
+    /** sequence number that the next appended entry will get */
+    private long mNextSequence;
+
+    /** sequence number of the first entry that has not been returned by drain() */
+    private long mDrainedSequence;
+    private boolean mCleared;
+
+    public LogStore(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        mItems = new DiagnosticWrapper[capacity];
+    }
+
+    public int getCapacity() {
+        return mItems.length;
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * @param index the position of the entry, 0 being the oldest entry in the store
+     */
+    public synchronized DiagnosticWrapper get(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("index: " + index + " size: " + mSize);
+        }
+        return mItems[(mStart + index) % mItems.length];
+    }
+
+    /**
+     * @return the sequence number of the oldest entry in the store
+     */
+    public synchronized long getFirstSequence() {
+        return mNextSequence - mSize;
+    }
+
+    /**
+     * @return the sequence number that the next appended entry will get
+     */
+    public synchronized long getNextSequence() {
+        return mNextSequence;
+    }
+
+    public synchronized void append(DiagnosticWrapper diagnostic) {
+        int capacity = mItems.length;
+        if (mSize == capacity) {
+            mItems[mStart] = diagnostic;
+            mStart = (mStart + 1) % capacity;
+        } else {
+            mItems[(mStart + mSize) % capacity] = diagnostic;
+            mSize++;
+        }
+        mNextSequence++;
+    }
+
+    public synchronized void appendAll(List<DiagnosticWrapper> diagnostics) {
+        for (DiagnosticWrapper diagnostic : diagnostics) {
+            append(diagnostic);
+        }
+    }
+
+    /**
+     * Removes all the entries, sequence numbers are not reset.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < mSize; i++) {
+            mItems[(mStart + i) % mItems.length] = null;
+        }
+        mStart = 0;
+        mSize = 0;
+        mCleared = true;
+    }
+
+    /**
+     * @return all the entries that are still in the store with their sequence numbers
+     */
+    public synchronized LogUpdate snapshot() {
+        return new LogUpdate(true, getFirstSequence(), copySince(getFirstSequence()));
+    }
+
+    /**
+     * Returns the entries appended since the last call to this method. If more entries
+     * were appended than the store can hold, only the ones still in the store are returned.
+     *
+     * @return the update, or null if nothing has changed since the last call
+     */
+    public synchronized LogUpdate drain() {
+        if (!mCleared && mDrainedSequence == mNextSequence) {
+            return null;
+        }
+        long first = Math.max(mDrainedSequence, getFirstSequence());
+        LogUpdate update = new LogUpdate(mCleared, first, copySince(first));
+        mDrainedSequence = mNextSequence;
+        mCleared = false;
+        return update;
+    }
+
+    private List<DiagnosticWrapper> copySince(long sequence) {
+        int count = (int) (mNextSequence - sequence);
+        if (count <= 0) {
+            return Collections.emptyList();
+        }
+        List<DiagnosticWrapper> list = new ArrayList<>(count);
+        for (int i = mSize - count; i < mSize; i++) {
+            list.add(mItems[(mStart + i) % mItems.length]);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,48 @@
+package com.tyron.builder.log;
+
+import com.tyron.builder.model.DiagnosticWrapper;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A batch of log entries published by a {@link LogStore}
+ */
+public class LogUpdate {
+
+    private final boolean mReset;
+    private final long mFirstSequence;
+    private final List<DiagnosticWrapper> mAppended;
+
+    public LogUpdate(boolean reset, long firstSequence, List<DiagnosticWrapper> appended) {
+        mReset = reset;
+        mFirstSequence = firstSequence;
+        mAppended = Collections.unmodifiableList(appended);
+    }
+
+    /**
+     * @return whether the previous entries have been cleared before appending
+     * the entries of this update
+     */
+    public boolean isReset() {
+        return mReset;
+    }
+
+    /**
+     * @return the sequence number of the first appended entry
+     */
+    public long getFirstSequence() {
+        return mFirstSequence;
+    }
+
+    /**
+     * @return the sequence number after the last appended entry
+     */
+    public long getNextSequence() {
+        return mFirstSequence + mAppended.size();
+    }
+
+    public List<DiagnosticWrapper> getAppended() {
+        return mAppended;
+    }
+}
@@ -2,6 +2,7 @@ package com.tyron.builder.log;
 
 import android.os.Handler;
 import android.os.Looper;
+import android.view.Choreographer;
 
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
@@ -14,6 +15,7 @@ import org.openjdk.javax.tools.JavaFileObject;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 public class LogViewModel extends ViewModel {
@@ -23,38 +25,57 @@ public class LogViewModel extends ViewModel {
     public static final int BUILD_LOG = totalCount++;
     public static final int DEBUG = totalCount++;
 
+    /**
+     * Maximum number of entries kept for each log, older entries are evicted first
+     */
+    public static final int CAPACITY = 10_000;
+
     private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
-    private List<MutableLiveData<List<DiagnosticWrapper>>> log;
+    private final List<LogStore> mStores = new ArrayList<>();
+    private final List<MutableLiveData<LogUpdate>> mUpdates = new ArrayList<>();
+    private final AtomicBoolean mFlushScheduled = new AtomicBoolean();
 
-    public LiveData<List<DiagnosticWrapper>> getLogs(int id) {
-        if (log == null) {
-            log = init();
+    private final Choreographer.FrameCallback mFlushCallback = frameTimeNanos -> flush();
+
+    public LogViewModel() {
+        for (int i = 0; i < totalCount; i++) {
+            mStores.add(new LogStore(CAPACITY));
+            mUpdates.add(new MutableLiveData<>());
         }
-        return log.get(id);
     }
 
-    public void updateLogs(int id, List<Diagnostic<? extends JavaFileObject>> diagnostics) {
-        if (log == null) {
-            log = init();
-        }
-        MutableLiveData<List<DiagnosticWrapper>> logData = this.log.get(id);
-        logData.setValue(diagnostics.stream()
-                .map(DiagnosticWrapper::new)
-                .collect(Collectors.toList()));
+    /**
+     * Returns the updates of the given log. Entries are published in batches at most
+     * once per frame, observers that start observing late should start from
+     * {@link #getSnapshot(int)} and use the sequence numbers to skip entries they
+     * have already seen.
+     */
+    public LiveData<LogUpdate> getLogs(int id) {
+        return mUpdates.get(id);
     }
 
-    private List<MutableLiveData<List<DiagnosticWrapper>>> init() {
-        List<MutableLiveData<List<DiagnosticWrapper>>> list = new ArrayList<>();
-        for (int i = 0; i < totalCount; i++) {
-            list.add(new MutableLiveData<>(new ArrayList<>()));
+    /**
+     * @return all the entries that are currently kept for the given log
+     */
+    public LogUpdate getSnapshot(int id) {
+        return mStores.get(id).snapshot();
+    }
+
+    public void updateLogs(int id, List<Diagnostic<? extends JavaFileObject>> diagnostics) {
+        LogStore store = mStores.get(id);
+        synchronized (store) {
+            store.clear();
+            store.appendAll(diagnostics.stream()
+                    .map(DiagnosticWrapper::new)
+                    .collect(Collectors.toList()));
         }
-        return list;
+        scheduleFlush();
     }
 
     public void clear(int id) {
-        MutableLiveData<List<DiagnosticWrapper>> data = (MutableLiveData<List<DiagnosticWrapper>>) getLogs(id);
-        data.setValue(new ArrayList<>());
+        mStores.get(id).clear();
+        scheduleFlush();
     }
 
     public void e(int id, DiagnosticWrapper diagnostic) {
@@ -95,26 +116,28 @@ public class LogViewModel extends ViewModel {
      * @param diagnosticWrapper the DiagnosticWrapper to add
      */
     private void add(int id, DiagnosticWrapper diagnosticWrapper) {
-        List<DiagnosticWrapper> list = getLogs(id).getValue();
-        if (list == null) {
-            list = new ArrayList<>();
-        }
-        list.add(diagnosticWrapper);
-        maybePost(id, list);
+        mStores.get(id).append(diagnosticWrapper);
+        scheduleFlush();
     }
 
     /**
-     * Checks if the current thread is the main thread and does not post it if so
-     *
-     * @param id      log id to set the value to
-     * @param current Value to set to the ViewModel
+     * Schedules the pending entries to be published on the next frame, entries
+     * added before that frame are coalesced into a single update per log.
      */
-    private void maybePost(int id, List<DiagnosticWrapper> current) {
-        if (Thread.currentThread() != Looper.getMainLooper().getThread()) {
-            // Using postValue will ignore all values except the last one, we don't want that
-            mainHandler.post(() -> log.get(id).setValue(current));
-        } else {
-            log.get(id).setValue(current);
+    private void scheduleFlush() {
+        if (mFlushScheduled.compareAndSet(false, true)) {
+            // the Choreographer is bound to the thread that it is retrieved from
+            mainHandler.post(() -> Choreographer.getInstance().postFrameCallback(mFlushCallback));
+        }
+    }
+
+    private void flush() {
+        mFlushScheduled.set(false);
+        for (int i = 0; i < totalCount; i++) {
+            LogUpdate update = mStores.get(i).drain();
+            if (update != null) {
+                mUpdates.get(i).setValue(update);
+            }
         }
     }
 }
@@ -3,6 +3,7 @@ package com.tyron.builder.project;
 import com.tyron.builder.model.ProjectSettings;
 import com.tyron.builder.project.api.Module;
 import com.tyron.builder.project.impl.AndroidModuleImpl;
+import com.tyron.common.util.FileChangeJournal;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -17,11 +18,15 @@ public class Project {
     private final File mRoot;
 
     private final ProjectSettings mSettings;
+    private final FileChangeJournal mFileChangeJournal;
     
     public Project(File root) {
         mRoot = root;
         mModules = new ArrayList<>();
-        mMainModule = new AndroidModuleImpl(new File(mRoot, "app"));
+        mFileChangeJournal = new FileChangeJournal(root);
+        AndroidModuleImpl mainModule = new AndroidModuleImpl(new File(mRoot, "app"));
+        mainModule.setFileChangeJournal(mFileChangeJournal);
+        mMainModule = mainModule;
         mSettings = new ProjectSettings(new File(root, "settings.json"));
     }
 
@@ -37,6 +42,14 @@ public class Project {
         return mSettings;
     }
 
+    /**
+     * Get the journal of files changed in this project. It is started when the
+     * project is opened.
+     */
+    public FileChangeJournal getFileChangeJournal() {
+        return mFileChangeJournal;
+    }
+
     public Module getModule(File file) {
         return getMainModule();
     }
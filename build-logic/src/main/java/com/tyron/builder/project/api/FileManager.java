@@ -7,10 +7,24 @@ public interface FileManager {
 
     void openFileForSnapshot(File file, String content);
 
-    void setSnapshotContent(File file, String content);
+    /**
+     * Update the content of an opened file. The content is read from background
+     * threads, so it must not be modified afterwards, e.g. a snapshot of the editor text.
+     */
+    void setSnapshotContent(File file, CharSequence content);
 
     void closeFileForSnapshot(File file);
 
+    /**
+     * Close an opened file without writing its content, for callers that save it themselves.
+     * Nothing is done if the file is opened again since the given content is set, so the
+     * snapshot of the new editor is kept.
+     *
+     * @param content The content last given to {@link #openFileForSnapshot(File, String)} or
+     *                {@link #setSnapshotContent(File, CharSequence)} by the closing editor
+     */
+    void discardSnapshot(File file, CharSequence content);
+
     Optional<CharSequence> getFileContent(File file);
 
     void shutdown();
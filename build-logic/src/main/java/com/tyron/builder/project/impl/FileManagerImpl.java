@@ -10,9 +10,9 @@ import org.apache.commons.io.FileUtils;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -22,12 +22,12 @@ public class FileManagerImpl implements FileManager {
 
     private final ExecutorService mService;
     private final File mRoot;
-    private final Map<File, String> mSnapshots;
+    private final Map<File, CharSequence> mSnapshots;
 
     public FileManagerImpl(File root) {
         mRoot = root;
         mService = Executors.newSingleThreadExecutor();
-        mSnapshots = new HashMap<>();
+        mSnapshots = new ConcurrentHashMap<>();
     }
 
     @Override
@@ -36,15 +36,16 @@ public class FileManagerImpl implements FileManager {
     }
 
     @Override
-    public void setSnapshotContent(File file, String content) {
+    public void setSnapshotContent(File file, CharSequence content) {
         mSnapshots.computeIfPresent(file, (f, c) -> content);
     }
 
     @Override
     public void closeFileForSnapshot(File file) {
-        if (mSnapshots.containsKey(file)) {
+        CharSequence content = mSnapshots.get(file);
+        if (content != null) {
             try {
-                FileUtils.writeStringToFile(file, mSnapshots.get(file), StandardCharsets.UTF_8);
+                FileUtils.writeStringToFile(file, content.toString(), StandardCharsets.UTF_8);
             } catch (IOException e) {
                 if (BuildConfig.DEBUG) {
                     Log.d(TAG, "Failed to save file " + file.getName(), e);
@@ -54,6 +55,12 @@ public class FileManagerImpl implements FileManager {
         }
     }
 
+    @Override
+    public void discardSnapshot(File file, CharSequence content) {
+        // Compared by identity, the reopened file may have equal text
+        mSnapshots.computeIfPresent(file, (f, c) -> c == content ? null : c);
+    }
+
     @Override
     public Optional<CharSequence> getFileContent(File file) {
         CharSequence content = mSnapshots.get(file);
@@ -73,7 +80,7 @@ public class FileManagerImpl implements FileManager {
     public void shutdown() {
         mSnapshots.forEach((k, v) -> mService.execute(() -> {
             try {
-                FileUtils.writeStringToFile(k, v, StandardCharsets.UTF_8);
+                FileUtils.writeStringToFile(k, v.toString(), StandardCharsets.UTF_8);
             } catch (IOException e) {
                 // ignored
             }
@@ -6,6 +6,7 @@ import com.tyron.builder.model.ModuleSettings;
 import com.tyron.builder.project.api.FileManager;
 import com.tyron.builder.project.api.Module;
 import com.tyron.common.util.Cache;
+import com.tyron.common.util.FileChangeJournal;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.kotlin.com.intellij.openapi.util.Key;
@@ -28,6 +29,7 @@ public class ModuleImpl implements Module {
     private final File mRoot;
     private ModuleSettings myModuleSettings;
     private FileManager mFileManager;
+    private FileChangeJournal mFileChangeJournal;
 
     public ModuleImpl(File root) {
         mRoot = root;
@@ -147,10 +149,18 @@ public class ModuleImpl implements Module {
 
     private final Map<CacheKey<?, ?>, Cache<?, ?>> mCacheMap = new HashMap<>();
 
+    /**
+     * Set the journal used by the caches of this module to find out modified files
+     */
+    public void setFileChangeJournal(FileChangeJournal journal) {
+        mFileChangeJournal = journal;
+    }
+
     @Override
     public <K, V> Cache<K, V> getCache(CacheKey<K, V> key, Cache<K, V> defaultValue) {
         Object o = mCacheMap.get(key);
         if (o == null) {
+            defaultValue.setJournal(mFileChangeJournal);
             put(key, defaultValue);
             return defaultValue;
         }
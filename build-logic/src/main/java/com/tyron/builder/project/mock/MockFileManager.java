@@ -31,7 +31,7 @@ public class MockFileManager implements FileManager {
     }
 
     @Override
-    public void setSnapshotContent(File file, String content) {
+    public void setSnapshotContent(File file, CharSequence content) {
         mSnapshots.computeIfPresent(file, (f, c) -> content);
     }
 
@@ -40,6 +40,12 @@ public class MockFileManager implements FileManager {
         mSnapshots.remove(file);
     }
 
+    @Override
+    public void discardSnapshot(File file, CharSequence content) {
+        // Compared by identity, the reopened file may have equal text
+        mSnapshots.computeIfPresent(file, (f, c) -> c == content ? null : c);
+    }
+
     @Override
     public Optional<CharSequence> getFileContent(File file) {
         CharSequence content = mSnapshots.get(file);
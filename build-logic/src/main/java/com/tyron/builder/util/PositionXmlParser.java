@@ -191,6 +191,35 @@ public class PositionXmlParser {
         return parseInternal(xml, namespaceAware);
     }
 
+    /**
+     * Creates a deep copy of a document returned by one of the parse methods. Unlike
+     * {@link Node#cloneNode(boolean)}, the position information of the nodes is
+     * copied as well so the copy can be used in place of the original document.
+     *
+     * @param document the document to copy
+     * @return a copy of the document that can be modified independently
+     */
+    @NonNull
+    public static Document cloneDocument(@NonNull Document document) {
+        Document clone = (Document) document.cloneNode(true);
+        clone.setUserData(CONTENT_KEY, document.getUserData(CONTENT_KEY), null);
+        copyPositions(document, clone);
+        return clone;
+    }
+
+    private static void copyPositions(@NonNull Node from, @NonNull Node to) {
+        Object position = from.getUserData(POS_KEY);
+        if (position != null) {
+            to.setUserData(POS_KEY, position, null);
+        }
+
+        NodeList fromChildren = from.getChildNodes();
+        NodeList toChildren = to.getChildNodes();
+        for (int i = 0; i < fromChildren.getLength(); i++) {
+            copyPositions(fromChildren.item(i), toChildren.item(i));
+        }
+    }
+
     @NonNull
     private static Document parseInternal(@NonNull String xml, boolean namespaceAware)
             throws ParserConfigurationException, SAXException, IOException {
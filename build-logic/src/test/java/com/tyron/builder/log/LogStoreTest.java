@@ -0,0 +1,64 @@
+package com.tyron.builder.log;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.tyron.builder.model.DiagnosticWrapper;
+
+import org.junit.Test;
+
+public class LogStoreTest {
+
+    @Test
+    public void evictsOldestEntries() {
+        LogStore store = new LogStore(3);
+        for (int i = 0; i < 5; i++) {
+            store.append(entry(i));
+        }
+
+        assertThat(store.size()).isEqualTo(3);
+        assertThat(store.getFirstSequence()).isEqualTo(2);
+        assertThat(store.getNextSequence()).isEqualTo(5);
+        assertThat(store.get(0).getMessage(null)).isEqualTo("2");
+        assertThat(store.get(2).getMessage(null)).isEqualTo("4");
+    }
+
+    @Test
+    public void drainReturnsOnlyNewEntries() {
+        LogStore store = new LogStore(10);
+        store.append(entry(0));
+        store.append(entry(1));
+
+        LogUpdate first = store.drain();
+        assertThat(first.isReset()).isFalse();
+        assertThat(first.getFirstSequence()).isEqualTo(0);
+        assertThat(first.getAppended()).hasSize(2);
+
+        assertThat(store.drain()).isNull();
+
+        store.append(entry(2));
+        LogUpdate second = store.drain();
+        assertThat(second.getFirstSequence()).isEqualTo(2);
+        assertThat(second.getAppended()).hasSize(1);
+    }
+
+    @Test
+    public void clearIsReportedAsReset() {
+        LogStore store = new LogStore(10);
+        store.append(entry(0));
+        store.drain();
+
+        store.clear();
+        store.append(entry(1));
+
+        LogUpdate update = store.drain();
+        assertThat(update.isReset()).isTrue();
+        assertThat(update.getFirstSequence()).isEqualTo(1);
+        assertThat(update.getAppended()).hasSize(1);
+    }
+
+    private static DiagnosticWrapper entry(int i) {
+        DiagnosticWrapper wrapper = new DiagnosticWrapper();
+        wrapper.setMessage(String.valueOf(i));
+        return wrapper;
+    }
+}
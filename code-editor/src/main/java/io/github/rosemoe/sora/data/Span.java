@@ -167,6 +167,13 @@ public class Span {
 
     @Override
     public int hashCode() {
+        return hashCode(column, colorId, underlineColor, problemFlags, renderer);
+    }
+
+    /**
+     * Compute the hash code of a span with the given fields
+     */
+    public static int hashCode(int column, int colorId, int underlineColor, int problemFlags, ExternalRenderer renderer) {
         int hash = 31 * column;
         hash = 31 * hash + colorId;
         hash = 31 * hash + underlineColor;
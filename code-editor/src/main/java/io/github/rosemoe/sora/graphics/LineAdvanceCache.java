@@ -0,0 +1,233 @@
+/*
+ *    CodeEditor - the awesome code editor for Android
+ *    Copyright (C) 2020-2021  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.graphics;
+
+import android.graphics.Paint;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.github.rosemoe.sora.text.ContentLine;
+import io.github.rosemoe.sora.text.TextUtils;
+
+/**
+ * Cache of cumulative advance widths of lines, so that measuring a region of a line and
+ * finding the column at an offset are done by looking up the array instead of measuring
+ * characters again.
+ * <p>
+ * The advances of a line are an array with {@code length + 1} elements, the element at i is
+ * the width of the characters before column i. Characters of an emoji sequence are measured
+ * together, and columns inside the sequence get the offset after it.
+ * <p>
+ * Lines are identified by their object, so the owner must call {@link #invalidate(ContentLine)}
+ * when a line is modified and {@link #clear()} when the paint is changed.
+ * It is not thread-safe.
+ *
+ * @author Rose
+ */
+public class LineAdvanceCache {
+
+    /**
+     * Max count of lines in cache
+     */
+    private static final int MAX_LINE_COUNT = 256;
+
+    /**
+     * Max count of advances kept in cache in total. Lines longer than this are not cached.
+     */
+    private static final int MAX_ADVANCE_COUNT = 1 << 20;
+
+    private final Paint mPaint;
+    private final FontCache mFontCache;
+    private final LinkedHashMap<ContentLine, float[]> mEntries;
+    private int mAdvanceCount;
+    private int mTabWidth = 4;
+    private float[] mBuffer = new float[64];
+
+    public LineAdvanceCache(Paint paint, FontCache fontCache) {
+        mPaint = paint;
+        mFontCache = fontCache;
+        mEntries = new LinkedHashMap<>(MAX_LINE_COUNT, 0.75f, true);
+    }
+
+    /**
+     * Set the width of tab, in count of spaces
+     */
+    public void setTabWidth(int tabWidth) {
+        if (mTabWidth != tabWidth) {
+            mTabWidth = tabWidth;
+            clear();
+        }
+    }
+
+    /**
+     * Get the advances of the line, and keep them in cache.
+     * The returned array must not be modified, and it may be reused by the next call.
+     */
+    public float[] getAdvances(ContentLine line) {
+        float[] advances = getCached(line);
+        if (advances != null) {
+            return advances;
+        }
+        int count = line.length() + 1;
+        if (count > MAX_ADVANCE_COUNT) {
+            return computeAdvances(line);
+        }
+        advances = new float[count];
+        fillAdvances(line, advances);
+        mEntries.put(line, advances);
+        mAdvanceCount += count;
+        trim();
+        return advances;
+    }
+
+    /**
+     * Get the advances of the line from the cache, or compute them without caching.
+     * This is for passes over many lines which should not evict the lines in use.
+     * The returned array must not be modified, and it may be reused by the next call.
+     */
+    public float[] computeAdvances(ContentLine line) {
+        float[] advances = getCached(line);
+        if (advances != null) {
+            return advances;
+        }
+        int count = line.length() + 1;
+        if (mBuffer.length < count) {
+            mBuffer = new float[Math.max(count, mBuffer.length * 2)];
+        }
+        fillAdvances(line, mBuffer);
+        return mBuffer;
+    }
+
+    /**
+     * Measure the region [start, end) of the line
+     */
+    public float measure(ContentLine line, int start, int end) {
+        float[] advances = getAdvances(line);
+        return advances[end] - advances[start];
+    }
+
+    /**
+     * Find the first column in [start, end] whose offset from start is not less than the
+     * given width
+     *
+     * @return The column and its offset from start
+     */
+    public float[] findColumn(ContentLine line, int start, int end, float width) {
+        float[] advances = getAdvances(line);
+        float target = advances[start] + width;
+        int low = start, high = end;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (advances[mid] < target) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return new float[]{low, advances[low] - advances[start]};
+    }
+
+    /**
+     * Find the last column in (start, end] whose offset from start is not greater than the
+     * given width. The column after start is returned if the first character is too wide.
+     */
+    public static int findLastFit(float[] advances, int start, int end, float width) {
+        float target = advances[start] + width;
+        int low = start + 1, high = end;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (advances[mid] <= target) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Remove the advances of the given line
+     */
+    public void invalidate(ContentLine line) {
+        float[] advances = mEntries.remove(line);
+        if (advances != null) {
+            mAdvanceCount -= advances.length;
+        }
+    }
+
+    /**
+     * Remove all the advances
+     */
+    public void clear() {
+        mEntries.clear();
+        mAdvanceCount = 0;
+    }
+
+    private float[] getCached(ContentLine line) {
+        float[] advances = mEntries.get(line);
+        if (advances != null && advances.length != line.length() + 1) {
+            // Modified without being invalidated
+            invalidate(line);
+            advances = null;
+        }
+        return advances;
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<ContentLine, float[]>> iterator = mEntries.entrySet().iterator();
+        while ((mEntries.size() > MAX_LINE_COUNT || mAdvanceCount > MAX_ADVANCE_COUNT) && mEntries.size() > 1) {
+            mAdvanceCount -= iterator.next().getValue().length;
+            iterator.remove();
+        }
+    }
+
+    private void fillAdvances(ContentLine line, float[] advances) {
+        char[] chars = line.getRawData();
+        int length = line.length();
+        float tabAdvance = mFontCache.measureChar(' ', mPaint) * mTabWidth;
+        float offset = 0f;
+        advances[0] = 0f;
+        int i = 0;
+        while (i < length) {
+            char ch = chars[i];
+            int count = 1;
+            float single;
+            if (ch == '\t') {
+                single = tabAdvance;
+            } else if (TextUtils.isEmoji(ch) && i + 1 < length) {
+                count = i + 2 < length && TextUtils.isEmoji(chars[i + 1]) && !TextUtils.isEmoji(chars[i + 2]) ? 3 : 2;
+                single = mPaint.measureText(chars, i, count);
+            } else {
+                single = mFontCache.measureChar(ch, mPaint);
+            }
+            offset += single;
+            for (int j = 1; j <= count; j++) {
+                advances[i + j] = offset;
+            }
+            i += count;
+        }
+    }
+
+}
@@ -46,6 +46,23 @@ public interface AutoCompleteProvider {
      * @return Analyzed items
      */
     List<CompletionItem> getAutoCompleteItems(String prefix, TextAnalyzeResult analyzeResult, int line, int column) throws InterruptedException;
+
+    /**
+     * Analyze auto complete items, stopping early when the request is cancelled.
+     * The thread running this is never interrupted, providers doing long work should check
+     * the token instead.
+     *
+     * @param prefix        The prefix of input to match
+     * @param analyzeResult Last analyze result
+     * @param line          The line of cursor
+     * @param column        The column of cursor
+     * @param token         Cancelled when a newer request is made
+     * @return Analyzed items
+     */
+    default List<CompletionItem> getAutoCompleteItems(String prefix, TextAnalyzeResult analyzeResult, int line, int column, CancellationToken token) throws InterruptedException {
+        token.checkCancelled();
+        return getAutoCompleteItems(prefix, analyzeResult, line, column);
+    }
     
     default void getAutoCompleteItems(String prefix, TextAnalyzeResult result, int line, int column, Consumer<CompletionItem> consumer) throws InterruptedException {
         getAutoCompleteItems(prefix, result, line, column).forEach(consumer::consume);
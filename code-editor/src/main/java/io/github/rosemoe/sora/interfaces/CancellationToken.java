@@ -0,0 +1,48 @@
+/*
+ *    CodeEditor - the awesome code editor for Android
+ *    Copyright (C) 2020-2021  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.interfaces;
+
+/**
+ * Tells a running task that its result is no longer needed. The task is expected to check
+ * it at points where it can stop safely, instead of being interrupted.
+ *
+ * @author Rose
+ */
+public interface CancellationToken {
+
+    /**
+     * @return Whether the task should stop
+     */
+    boolean isCancelled();
+
+    /**
+     * Stop the task if it is cancelled
+     *
+     * @throws InterruptedException If the task is cancelled
+     */
+    default void checkCancelled() throws InterruptedException {
+        if (isCancelled()) {
+            throw new InterruptedException();
+        }
+    }
+}
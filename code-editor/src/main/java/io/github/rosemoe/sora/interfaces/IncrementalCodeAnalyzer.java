@@ -0,0 +1,72 @@
+/*
+ *    CodeEditor - the awesome code editor for Android
+ *    Copyright (C) 2020-2021  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.interfaces;
+
+import io.github.rosemoe.sora.text.LineAnalyzeResult;
+import io.github.rosemoe.sora.text.TextAnalyzeResult;
+import io.github.rosemoe.sora.text.TextAnalyzer;
+
+/**
+ * A {@link CodeAnalyzer} that tokenizes the text line by line.
+ *
+ * The state of the lexer at the end of every line is kept by {@link TextAnalyzer},
+ * so that after an edit only the changed lines are analyzed again. Analysis goes on
+ * with the following lines until their start state equals the one they had before,
+ * the cached results are used from there.
+ *
+ * @param <S> Type of the lexer state. It must be immutable and implement {@link Object#equals(Object)}
+ * @author Rose
+ */
+public interface IncrementalCodeAnalyzer<S> extends CodeAnalyzer {
+
+    /**
+     * Get the state of the lexer at the start of the text.
+     * It is requested once for every {@link TextAnalyzer}
+     */
+    S getInitialState();
+
+    /**
+     * Analyze a single line
+     *
+     * @param text   The whole text, do not read outside of the given range
+     * @param start  Start index of the line in text
+     * @param end    End index of the line in text, line separator excluded
+     * @param state  State of the lexer at the start of line
+     * @param result Result dest. Columns are relative to the start of line
+     * @return State of the lexer at the end of line
+     */
+    S analyzeLine(CharSequence text, int start, int end, S state, LineAnalyzeResult result);
+
+    /**
+     * Called when the spans and code blocks of all the lines have been put into the result.
+     * Analyzers can add information that requires the whole text here
+     *
+     * @param content  The input text
+     * @param result   Result with spans determined
+     * @param delegate Delegate between thread and analyzer
+     */
+    default void onLinesAnalyzed(CharSequence content, TextAnalyzeResult result, TextAnalyzer.AnalyzeThread.Delegate delegate) {
+
+    }
+
+}
@@ -5,12 +5,14 @@ import io.github.rosemoe.sora.util.TrieTree;
 import io.github.rosemoe.sora.widget.EditorColorScheme;
 import io.github.rosemoe.sora.text.LineNumberCalculator;
 import io.github.rosemoe.sora.text.TextAnalyzer;
-import io.github.rosemoe.sora.interfaces.CodeAnalyzer;
+import io.github.rosemoe.sora.interfaces.IncrementalCodeAnalyzer;
+import io.github.rosemoe.sora.text.LineAnalyzeResult;
 import io.github.rosemoe.sora.data.BlockLine;
 import io.github.rosemoe.sora.data.NavigationItem;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.Stack;
 
 /**
@@ -18,7 +20,7 @@ import java.util.Stack;
  *
  * @author Rose
  */
-public class JavaCodeAnalyzer implements CodeAnalyzer {
+public class JavaCodeAnalyzer implements IncrementalCodeAnalyzer<JavaCodeAnalyzer.LineState> {
 
     private final static Object OBJECT = new Object();
 
@@ -233,4 +235,275 @@ public class JavaCodeAnalyzer implements CodeAnalyzer {
         result.setNavigation(labels);
     }
 
+
+    @Override
+    public LineState getInitialState() {
+        return new LineState(false, Tokens.UNKNOWN, false, new ClassNames(), 0);
+    }
+
+    @Override
+    public LineState analyzeLine(CharSequence text, int start, int end, LineState state, LineAnalyzeResult result) {
+        int offset = start;
+        if (state.longComment) {
+            result.addIfNeeded(0, EditorColorScheme.COMMENT);
+            offset = findLongCommentEnd(text, start, end);
+            if (offset == -1) {
+                return state;
+            }
+        }
+        JavaTextTokenizer tokenizer = new JavaTextTokenizer(text);
+        tokenizer.reset(text, offset, end);
+        tokenizer.setCalculateLineColumn(false);
+        Tokens token, previous = state.previous;
+        boolean classNamePrevious = state.classNamePrevious;
+        boolean longComment = false;
+        ClassNames classNames = state.classNames;
+        while (true) {
+            try {
+                token = tokenizer.directNextToken();
+            } catch (RuntimeException e) {
+                token = Tokens.CHARACTER_LITERAL;
+            }
+            if (token == Tokens.EOF) {
+                break;
+            }
+            int thisIndex = offset + tokenizer.getIndex();
+            int thisLength = tokenizer.getTokenLength();
+            int column = thisIndex - start;
+            switch (token) {
+                case WHITESPACE:
+                case NEWLINE:
+                    break;
+                case IDENTIFIER:
+                    if (previous == Tokens.AT) {
+                        result.addIfNeeded(column, EditorColorScheme.ANNOTATION);
+                        break;
+                    }
+                    Tokens next;
+                    try {
+                        next = tokenizer.directNextToken();
+                    } catch (RuntimeException e) {
+                        // Unclosed literal at the end of line
+                        next = Tokens.UNKNOWN;
+                    }
+                    tokenizer.pushBack(tokenizer.getTokenLength());
+                    if (next == Tokens.LPAREN) {
+                        result.addIfNeeded(column, EditorColorScheme.FUNCTION_NAME);
+                        break;
+                    }
+                    if (previous == Tokens.CLASS) {
+                        result.addIfNeeded(column, EditorColorScheme.IDENTIFIER_NAME);
+                        classNames.put(text, thisIndex, thisLength);
+                        break;
+                    }
+                    if (classNames.contains(text, thisIndex, thisLength)) {
+                        result.addIfNeeded(column, EditorColorScheme.IDENTIFIER_NAME);
+                        classNamePrevious = true;
+                        break;
+                    }
+                    if (classNamePrevious) {
+                        result.addIfNeeded(column, EditorColorScheme.IDENTIFIER_VAR);
+                        classNamePrevious = false;
+                        break;
+                    }
+                    result.addIfNeeded(column, EditorColorScheme.TEXT_NORMAL);
+                    break;
+                case CHARACTER_LITERAL:
+                case STRING:
+                case FLOATING_POINT_LITERAL:
+                case INTEGER_LITERAL:
+                    classNamePrevious = false;
+                    result.addIfNeeded(column, EditorColorScheme.LITERAL);
+                    break;
+                case INT:
+                case LONG:
+                case BOOLEAN:
+                case BYTE:
+                case CHAR:
+                case FLOAT:
+                case DOUBLE:
+                case SHORT:
+                case VOID:
+                    classNamePrevious = true;
+                    result.addIfNeeded(column, EditorColorScheme.KEYWORD);
+                    break;
+                case ABSTRACT:
+                case ASSERT:
+                case CLASS:
+                case DO:
+                case FINAL:
+                case FOR:
+                case IF:
+                case NEW:
+                case PUBLIC:
+                case PRIVATE:
+                case PROTECTED:
+                case PACKAGE:
+                case RETURN:
+                case STATIC:
+                case SUPER:
+                case SWITCH:
+                case ELSE:
+                case VOLATILE:
+                case SYNCHRONIZED:
+                case STRICTFP:
+                case GOTO:
+                case CONTINUE:
+                case BREAK:
+                case TRANSIENT:
+                case TRY:
+                case CATCH:
+                case FINALLY:
+                case WHILE:
+                case CASE:
+                case DEFAULT:
+                case CONST:
+                case ENUM:
+                case EXTENDS:
+                case IMPLEMENTS:
+                case IMPORT:
+                case INSTANCEOF:
+                case INTERFACE:
+                case NATIVE:
+                case THIS:
+                case THROW:
+                case THROWS:
+                case TRUE:
+                case FALSE:
+                case NULL:
+                    classNamePrevious = false;
+                    result.addIfNeeded(column, EditorColorScheme.KEYWORD);
+                    break;
+                case LBRACE:
+                    classNamePrevious = false;
+                    result.addIfNeeded(column, EditorColorScheme.OPERATOR);
+                    result.addBlockStart(column);
+                    break;
+                case RBRACE:
+                    classNamePrevious = false;
+                    result.addIfNeeded(column, EditorColorScheme.OPERATOR);
+                    result.addBlockEnd(column);
+                    break;
+                case LONG_COMMENT:
+                    longComment = !isLongCommentClosed(text, thisIndex, thisLength);
+                    // fall through
+                case LINE_COMMENT:
+                    result.addIfNeeded(column, EditorColorScheme.COMMENT);
+                    break;
+                default:
+                    if (token == Tokens.LBRACK || (token == Tokens.RBRACK && previous == Tokens.LBRACK)) {
+                        result.addIfNeeded(column, EditorColorScheme.OPERATOR);
+                        break;
+                    }
+                    classNamePrevious = false;
+                    result.addIfNeeded(column, EditorColorScheme.OPERATOR);
+            }
+            if (token != Tokens.WHITESPACE && token != Tokens.NEWLINE) {
+                previous = token;
+            }
+        }
+        return new LineState(longComment, previous, classNamePrevious, classNames, classNames.size());
+    }
+
+    /**
+     * Find the end of a long comment which is started in previous lines
+     *
+     * @return Index after the comment end, or -1 if the comment does not end in this line
+     */
+    protected static int findLongCommentEnd(CharSequence text, int start, int end) {
+        for (int i = start + 1; i < end; i++) {
+            if (text.charAt(i) == '/' && text.charAt(i - 1) == '*') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Check whether a LONG_COMMENT token returned by the tokenizer is closed
+     */
+    protected static boolean isLongCommentClosed(CharSequence text, int index, int length) {
+        return length >= 4 && text.charAt(index + length - 1) == '/' && text.charAt(index + length - 2) == '*';
+    }
+
+    /**
+     * State of the lexer at the end of a line
+     */
+    public static class LineState {
+
+        final boolean longComment;
+        final Tokens previous;
+        final boolean classNamePrevious;
+        final ClassNames classNames;
+        /**
+         * Count of class names known at the end of line. Lines after a new class
+         * declaration are analyzed again, so that its usages are highlighted
+         */
+        final int classNameCount;
+
+        public LineState(boolean longComment, Tokens previous, boolean classNamePrevious, ClassNames classNames, int classNameCount) {
+            this.longComment = longComment;
+            this.previous = previous;
+            this.classNamePrevious = classNamePrevious;
+            this.classNames = classNames;
+            this.classNameCount = classNameCount;
+        }
+
+        public boolean isInLongComment() {
+            return longComment;
+        }
+
+        public Tokens getPreviousToken() {
+            return previous;
+        }
+
+        public ClassNames getClassNames() {
+            return classNames;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            LineState state = (LineState) o;
+            return longComment == state.longComment && previous == state.previous
+                    && classNamePrevious == state.classNamePrevious
+                    && classNames == state.classNames && classNameCount == state.classNameCount;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(longComment, previous, classNamePrevious, classNameCount);
+        }
+    }
+
+    /**
+     * Class names declared in the text. Names are only added, so the count of names
+     * can be saved in line states as a version
+     */
+    public static class ClassNames {
+
+        private final TrieTree<Object> mTree = new TrieTree<>();
+        private int mSize;
+
+        public ClassNames() {
+            mTree.put("String", OBJECT);
+            mTree.put("Object", OBJECT);
+        }
+
+        public void put(CharSequence text, int offset, int length) {
+            if (!contains(text, offset, length)) {
+                mTree.put(text, offset, length, OBJECT);
+                mSize++;
+            }
+        }
+
+        public boolean contains(CharSequence text, int offset, int length) {
+            return mTree.get(text, offset, length) == OBJECT;
+        }
+
+        public int size() {
+            return mSize;
+        }
+    }
 }
\ No newline at end of file
@@ -447,6 +447,16 @@ public class JavaTextTokenizer {
         bufferLen = src.length();
     }
 
+    /**
+     * Reset the tokenizer to scan the region [start, end) of the given source
+     * Index of tokens is relative to start
+     */
+    public void reset(CharSequence src, int start, int end) {
+        reset(src);
+        offset = start;
+        bufferLen = end;
+    }
+
     protected static String[] sKeywords;
 
     protected static void doStaticInit() {
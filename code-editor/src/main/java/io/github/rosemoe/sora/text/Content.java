@@ -23,6 +23,7 @@
 package io.github.rosemoe.sora.text;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -35,6 +36,7 @@ import java.util.List;
 public class Content implements CharSequence {
 
     public final static int DEFAULT_MAX_UNDO_STACK_SIZE = 500;
+    public final static int DEFAULT_MAX_UNDO_MEMORY = 8 * 1024 * 1024;
     public final static int DEFAULT_LIST_CAPACITY = 1000;
 
     private static int sInitialListCapacity;
@@ -43,11 +45,13 @@ public class Content implements CharSequence {
         setInitialLineCapacity(DEFAULT_LIST_CAPACITY);
     }
 
-    private List<ContentLine> mLines;
+    private LineList mLines;
     private int mTextLength;
+    private volatile long mVersion;
+    private final LineChangeLog mChangeLog = new LineChangeLog();
     private int mNestedBatchEdit;
     private List<ContentListener> mListeners;
-    private Indexer mIndexer;
+    private PrefixSumIndexer mIndexer;
     private UndoManager mUndoManager;
     private Cursor mCursor;
     private LineRemoveListener mLineListener;
@@ -71,12 +75,13 @@ public class Content implements CharSequence {
         }
         mTextLength = 0;
         mNestedBatchEdit = 0;
-        mLines = new ArrayList<>(getInitialLineCapacity());
+        mLines = new LineList(getInitialLineCapacity());
         mLines.add(new ContentLine());
         mListeners = new ArrayList<>();
         mUndoManager = new UndoManager();
         setMaxUndoStackSize(Content.DEFAULT_MAX_UNDO_STACK_SIZE);
-        mIndexer = new NoCacheIndexer(this);
+        setMaxUndoMemory(Content.DEFAULT_MAX_UNDO_MEMORY);
+        mIndexer = new PrefixSumIndexer(this);
         if (src.length() == 0) {
             setUndoEnabled(true);
             return;
@@ -254,29 +259,43 @@ public class Content implements CharSequence {
         //-----Notify------
         if (mCursor != null)
             mCursor.beforeInsert(line, column);
+        mVersion++;
 
         int workLine = line;
         int workIndex = column;
         if (workIndex == -1) {
             workIndex = 0;
         }
-        ContentLine currLine = mLines.get(workLine);
-        for (int i = 0; i < text.length(); i++) {
-            char c = text.charAt(i);
-            if (c == '\n') {
+        ContentLine currLine = mLines.getForWrite(workLine);
+        // New lines are collected and added to the line list at once
+        List<ContentLine> newLines = null;
+        int length = text.length();
+        int runStart = 0;
+        for (int i = 0; i <= length; i++) {
+            if (i < length && text.charAt(i) != '\n') {
+                continue;
+            }
+            // Insert the characters before the line separator in a single operation
+            currLine.insert(workIndex, text, runStart, i);
+            workIndex += i - runStart;
+            runStart = i + 1;
+            if (i < length) {
                 ContentLine newLine = new ContentLine();
                 newLine.append(currLine, workIndex, currLine.length());
                 currLine.delete(workIndex, currLine.length());
-                mLines.add(workLine + 1, newLine);
+                if (newLines == null) {
+                    newLines = new ArrayList<>();
+                }
+                newLines.add(newLine);
                 currLine = newLine;
                 workIndex = 0;
                 workLine++;
-            } else {
-                currLine.insert(workIndex, c);
-                workIndex++;
             }
         }
-        mTextLength += text.length();
+        if (newLines != null) {
+            mLines.addAll(line + 1, newLines);
+        }
+        mTextLength += length;
         this.dispatchAfterInsert(line, column, workLine, workIndex, text);
     }
 
@@ -329,6 +348,8 @@ public class Content implements CharSequence {
                 else
                     mCursor.beforeDelete(startLine == 0 ? 0 : startLine - 1, startLine == 0 ? 0 : getColumnCount(startLine - 1), endLine, columnOnEndLine);
 
+            mVersion++;
+            curr = mLines.getForWrite(startLine);
             changedContent.append(curr, beginIdx, columnOnEndLine);
             curr.delete(beginIdx, columnOnEndLine);
             mTextLength -= columnOnEndLine - columnOnStartLine;
@@ -336,7 +357,7 @@ public class Content implements CharSequence {
                 if (startLine == 0) {
                     mTextLength++;
                 } else {
-                    ContentLine previous = mLines.get(startLine - 1);
+                    ContentLine previous = mLines.getForWrite(startLine - 1);
                     previous.append(curr);
                     ContentLine rm = mLines.remove(startLine);
                     if (mLineListener != null) {
@@ -354,30 +375,32 @@ public class Content implements CharSequence {
             //-----Notify------
             if (mCursor != null)
                 mCursor.beforeDelete(startLine, columnOnStartLine, endLine, columnOnEndLine);
+            mVersion++;
 
-            for (int i = 0; i < endLine - startLine - 1; i++) {
-                ContentLine line = mLines.remove(startLine + 1);
+            for (int i = startLine + 1; i < endLine; i++) {
+                ContentLine line = mLines.get(i);
                 if (mLineListener != null) {
                     mLineListener.onRemove(this, line);
                 }
                 mTextLength -= line.length() + 1;
                 changedContent.append('\n').append(line);
             }
+            mLines.removeRange(startLine + 1, endLine);
             int currEnd = startLine + 1;
-            ContentLine start = mLines.get(startLine);
+            ContentLine start = mLines.getForWrite(startLine);
+            // The end line is removed, so it is not modified in case it is shared with a snapshot
             ContentLine end = mLines.get(currEnd);
             mTextLength -= start.length() - columnOnStartLine;
             changedContent.insert(0, start, columnOnStartLine, start.length());
             start.delete(columnOnStartLine, start.length());
             mTextLength -= columnOnEndLine;
             changedContent.append('\n').append(end, 0, columnOnEndLine);
-            end.delete(0, columnOnEndLine);
             mTextLength--;
             ContentLine r = mLines.remove(currEnd);
             if (mLineListener != null) {
                 mLineListener.onRemove(this, r);
             }
-            start.append(end);
+            start.append(end, columnOnEndLine, end.length());
         } else {
             throw new IllegalArgumentException("start line > end line");
         }
@@ -404,27 +427,32 @@ public class Content implements CharSequence {
     }
 
     /**
-     * When you are going to use {@link CharSequence#charAt(int)} frequently,you are required to call
-     * this method.Because the way Content save text,it is usually slow to transform index to
-     * (line,column) from the start of text when the text is big.
-     * By calling this method,you will be able to get faster because calling this will
-     * cause the ITextContent object use a Indexer with cache.
-     * The performance is highly improved while linearly getting characters.
+     * This method has no effect now.
+     * The {@link Indexer} of Content finds any position in logarithmic time, so there is no
+     * need to switch to an Indexer with cache when calling {@link CharSequence#charAt(int)} frequently.
      *
-     * @param initialIndex The Indexer with cache will take it into this index to its cache
+     * @param initialIndex Unused
+     * @deprecated Not needed anymore
      */
+    @Deprecated
     public void beginStreamCharGetting(int initialIndex) {
-        mIndexer = new CachedIndexer(this);
-        mIndexer.getCharPosition(initialIndex);
+        //Do nothing
     }
 
     /**
-     * When you finished calling {@link CharSequence#charAt(int)} frequently,you can call this method
-     * to free the Indexer with cache.
-     * This is not forced.
+     * This method has no effect now.
+     *
+     * @deprecated Not needed anymore
+     * @see #beginStreamCharGetting(int)
      */
+    @Deprecated
     public void endStreamCharGetting() {
-        mIndexer = new NoCacheIndexer(this);
+        //Do nothing
+    }
+
+    @VisibleForTesting
+    UndoManager getUndoManager() {
+        return mUndoManager;
     }
 
     /**
@@ -498,6 +526,25 @@ public class Content implements CharSequence {
         mUndoManager.setMaxUndoStackSize(maxSize);
     }
 
+    /**
+     * Get max memory that UndoManager can use to save modifications
+     *
+     * @return max memory in bytes
+     */
+    public int getMaxUndoMemory() {
+        return mUndoManager.getMaxUndoMemory();
+    }
+
+    /**
+     * Set max memory that UndoManager can use to save modifications.
+     * Oldest modifications are removed when it is exceeded.
+     *
+     * @param maxMemory New max memory in bytes
+     */
+    public void setMaxUndoMemory(int maxMemory) {
+        mUndoManager.setMaxUndoMemory(maxMemory);
+    }
+
     /**
      * A delegate method.
      * Notify the UndoManager to begin batch edit(enter a new layer).
@@ -506,6 +553,9 @@ public class Content implements CharSequence {
      * @return Whether in batch edit
      */
     public boolean beginBatchEdit() {
+        if (mNestedBatchEdit == 0) {
+            mUndoManager.onBeginBatchEdit();
+        }
         mNestedBatchEdit++;
         return isInBatchEdit();
     }
@@ -568,9 +618,6 @@ public class Content implements CharSequence {
      * @return Indexer for this object
      */
     public Indexer getIndexer() {
-        if (mIndexer.getClass() != CachedIndexer.class && mCursor != null) {
-            return mCursor.getIndexer();
-        }
         return mIndexer;
     }
 
@@ -590,13 +637,18 @@ public class Content implements CharSequence {
             c.insert(0, 0, mLines.get(startLine).subSequence(startColumn, endColumn));
         } else if (startLine < endLine) {
             c.insert(0, 0, mLines.get(startLine).subSequence(startColumn, mLines.get(startLine).length()));
+            List<ContentLine> lines = new ArrayList<>(endLine - startLine - 1);
             for (int i = startLine + 1; i < endLine; i++) {
-                c.mLines.add(new ContentLine(mLines.get(i)));
-                c.mTextLength += mLines.get(i).length() + 1;
+                ContentLine line = mLines.get(i);
+                lines.add(new ContentLine(line));
+                c.mTextLength += line.length() + 1;
             }
+            c.mLines.addAll(c.mLines.size(), lines);
             ContentLine end = mLines.get(endLine);
             c.mLines.add(new ContentLine().insert(0, end, 0, endColumn));
             c.mTextLength += endColumn + 1;
+            // Lines are added without notifying the indexer
+            c.mIndexer = new PrefixSumIndexer(c);
         } else {
             throw new IllegalArgumentException("start > end");
         }
@@ -662,6 +714,32 @@ public class Content implements CharSequence {
         return sb;
     }
 
+    /**
+     * Get the version of text. It is increased by every modification
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Get the lines changed by the latest modifications
+     */
+    LineChangeLog getChangeLog() {
+        return mChangeLog;
+    }
+
+    /**
+     * Create an immutable snapshot of the current text.
+     * The text is not copied, lines are shared with this object until they are modified.
+     * This must be called on the thread modifying this object, the snapshot can then be
+     * read from any thread.
+     *
+     * @return Snapshot of current text
+     */
+    public ContentSnapshot createSnapshot() {
+        return new ContentSnapshot(this, mLines.snapshot(), mTextLength, mVersion);
+    }
+
     /**
      * Get Cursor for editor (Create if there is not)
      *
@@ -678,12 +756,10 @@ public class Content implements CharSequence {
      * Dispatch events to listener before replacement
      */
     private void dispatchBeforeReplace() {
+        mIndexer.beforeReplace(this);
         mUndoManager.beforeReplace(this);
         if (mCursor != null)
             mCursor.beforeReplace();
-        if (mIndexer instanceof ContentListener) {
-            ((ContentListener) mIndexer).beforeReplace(this);
-        }
         for (ContentListener lis : mListeners) {
             lis.beforeReplace(this);
         }
@@ -699,12 +775,13 @@ public class Content implements CharSequence {
      * @param e Text deleted
      */
     private void dispatchAfterDelete(int a, int b, int c, int d, CharSequence e) {
+        // Listeners may take snapshots, so the change is recorded before them
+        mChangeLog.record(mVersion, a, a, mLines.size());
+        // Update the indexer first so that others can query positions
+        mIndexer.afterDelete(this, a, b, c, d, e);
         mUndoManager.afterDelete(this, a, b, c, d, e);
         if (mCursor != null)
             mCursor.afterDelete(a, b, c, d, e);
-        if (mIndexer instanceof ContentListener) {
-            ((ContentListener) mIndexer).afterDelete(this, a, b, c, d, e);
-        }
         for (ContentListener lis : mListeners) {
             lis.afterDelete(this, a, b, c, d, e);
         }
@@ -720,12 +797,13 @@ public class Content implements CharSequence {
      * @param e Text deleted
      */
     private void dispatchAfterInsert(int a, int b, int c, int d, CharSequence e) {
+        // Listeners may take snapshots, so the change is recorded before them
+        mChangeLog.record(mVersion, a, c, mLines.size());
+        // Update the indexer first so that others can query positions
+        mIndexer.afterInsert(this, a, b, c, d, e);
         mUndoManager.afterInsert(this, a, b, c, d, e);
         if (mCursor != null)
             mCursor.afterInsert(a, b, c, d, e);
-        if (mIndexer instanceof ContentListener) {
-            ((ContentListener) mIndexer).afterInsert(this, a, b, c, d, e);
-        }
         for (ContentListener lis : mListeners) {
             lis.afterInsert(this, a, b, c, d, e);
         }
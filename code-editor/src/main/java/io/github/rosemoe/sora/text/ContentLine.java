@@ -43,6 +43,12 @@ public class ContentLine implements CharSequence, GetChars {
      */
     private int width;
 
+    /**
+     * Generation of {@link LineList} when this object is created or copied.
+     * Lines from older generations may be shared with snapshots and must be copied before modifying
+     */
+    int generation;
+
     public ContentLine() {
         this(true);
     }
@@ -123,6 +129,18 @@ public class ContentLine implements CharSequence, GetChars {
         this.width = width;
     }
 
+    /**
+     * Copy text and layout attributes of this line to a new object
+     */
+    ContentLine copy() {
+        ContentLine line = new ContentLine(false);
+        line.value = value.clone();
+        line.length = length;
+        line.id = id;
+        line.width = width;
+        return line;
+    }
+
     private void checkIndex(int index) {
         if (index < 0 || index > length) {
             throw new StringIndexOutOfBoundsException("index = " + index + ", length = " + length);
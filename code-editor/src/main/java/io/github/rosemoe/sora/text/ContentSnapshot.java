@@ -0,0 +1,223 @@
+/*
+ *    CodeEditor - the awesome code editor for Android
+ *    Copyright (C) 2020-2021  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Immutable version of a {@link Content}, created by {@link Content#createSnapshot()}
+ *
+ * Lines are shared with the Content until they are modified, so creating a snapshot
+ * does not copy the text. A snapshot can be read from any thread, and background work
+ * can check {@link #isStale()} to stop early when the text has been changed since.
+ *
+ * @author Rose
+ */
+public class ContentSnapshot implements CharSequence {
+
+    private final Content mContent;
+    private final LineList mLines;
+    private final int mTextLength;
+    private final long mVersion;
+
+    /**
+     * Start index of every line, computed on first use
+     */
+    private volatile int[] mLineStarts;
+
+    ContentSnapshot(Content content, LineList lines, int textLength, long version) {
+        mContent = content;
+        mLines = lines;
+        mTextLength = textLength;
+        mVersion = version;
+    }
+
+    /**
+     * Get the version of {@link Content} this snapshot is created from
+     *
+     * @see Content#getVersion()
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Whether the Content has been modified after this snapshot is created
+     */
+    public boolean isStale() {
+        return mContent.getVersion() != mVersion;
+    }
+
+    /**
+     * Get the lines changed since an older snapshot of the same Content
+     *
+     * @param old The older snapshot
+     * @return Count of unchanged lines at the start of text and count of unchanged lines at
+     * the end of text packed by {@link io.github.rosemoe.sora.util.IntPair}, or -1 if
+     * the changes are unknown
+     * @see LineChangeLog#getChangedLines(long, long)
+     */
+    long getChangedLines(ContentSnapshot old) {
+        if (old.mContent != mContent || old.mVersion > mVersion) {
+            return -1;
+        }
+        return mContent.getChangeLog().getChangedLines(old.mVersion, mVersion);
+    }
+
+    /**
+     * Get how many lines there are
+     */
+    public int getLineCount() {
+        return mLines.size();
+    }
+
+    /**
+     * Get raw data of line
+     * The result must not be modified
+     *
+     * @param line Line
+     * @return Raw ContentLine
+     */
+    public ContentLine getLine(int line) {
+        return mLines.get(line);
+    }
+
+    /**
+     * Get how many characters is on the given line
+     */
+    public int getColumnCount(int line) {
+        return mLines.get(line).length();
+    }
+
+    /**
+     * Get the given line text without '\n' character
+     */
+    public String getLineString(int line) {
+        return mLines.get(line).toString();
+    }
+
+    /**
+     * Transform the (line,column) position to index
+     */
+    public int getCharIndex(int line, int column) {
+        return getLineStarts()[line] + column;
+    }
+
+    /**
+     * Get the line position of index
+     */
+    public int getCharLine(int index) {
+        if (index < 0 || index > mTextLength) {
+            throw new StringIndexOutOfBoundsException("Index " + index + " out of bounds. length:" + mTextLength);
+        }
+        int[] starts = getLineStarts();
+        int low = 0, high = starts.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (starts[mid] <= index) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private int[] getLineStarts() {
+        int[] starts = mLineStarts;
+        if (starts == null) {
+            int count = mLines.size();
+            starts = new int[count];
+            int index = 0;
+            for (int i = 0; i < count; i++) {
+                starts[i] = index;
+                index += mLines.get(i).length() + 1;
+            }
+            mLineStarts = starts;
+        }
+        return starts;
+    }
+
+    @Override
+    public int length() {
+        return mTextLength;
+    }
+
+    @Override
+    public char charAt(int index) {
+        int line = getCharLine(index);
+        int column = index - getLineStarts()[line];
+        ContentLine text = mLines.get(line);
+        return column == text.length() ? '\n' : text.charAt(column);
+    }
+
+    @NonNull
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start > end) {
+            throw new StringIndexOutOfBoundsException("start > end");
+        }
+        StringBuilder sb = new StringBuilder(end - start);
+        int line = getCharLine(start);
+        int index = getLineStarts()[line];
+        while (index < end) {
+            ContentLine text = mLines.get(line);
+            int lineEnd = index + text.length();
+            int from = Math.max(start, index) - index;
+            int to = Math.min(end, lineEnd) - index;
+            if (from < to) {
+                sb.append(text.getRawData(), from, to - from);
+            }
+            if (end > lineEnd && start <= lineEnd) {
+                sb.append('\n');
+            }
+            index = lineEnd + 1;
+            line++;
+        }
+        return sb;
+    }
+
+    /**
+     * Get the text in StringBuilder form
+     *
+     * @see Content#toStringBuilder()
+     */
+    public StringBuilder toStringBuilder() {
+        StringBuilder sb = new StringBuilder(mTextLength + 10);
+        final int lines = mLines.size();
+        for (int i = 0; i < lines; i++) {
+            if (i != 0) {
+                sb.append('\n');
+            }
+            mLines.get(i).appendTo(sb);
+        }
+        return sb;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return toStringBuilder().toString();
+    }
+
+}
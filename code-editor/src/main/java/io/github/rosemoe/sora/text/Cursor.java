@@ -40,7 +40,7 @@ import java.util.stream.Collectors;
 public final class Cursor {
 
     private final Content mContent;
-    private final CachedIndexer mIndexer;
+    private final Indexer mIndexer;
     private CharPosition mLeft, mRight;
     private CharPosition cache0, cache1, cache2;
     private boolean mAutoIndentEnabled;
@@ -54,7 +54,7 @@ public final class Cursor {
      */
     public Cursor(Content content) {
         mContent = content;
-        mIndexer = new CachedIndexer(content);
+        mIndexer = content.getIndexer();
         mLeft = new CharPosition().zero();
         mRight = new CharPosition().zero();
         mTabWidth = 4;
@@ -194,7 +194,7 @@ public final class Cursor {
      *
      * @return Using Indexer
      */
-    public CachedIndexer getIndexer() {
+    public Indexer getIndexer() {
         return mIndexer;
     }
 
@@ -493,7 +493,7 @@ public final class Cursor {
      * Internal call back before replace
      */
     void beforeReplace() {
-        mIndexer.beforeReplace(mContent);
+        //Do nothing
     }
 
     /**
@@ -507,7 +507,6 @@ public final class Cursor {
      */
     void afterInsert(int startLine, int startColumn, int endLine, int endColumn,
                      CharSequence insertedContent) {
-        mIndexer.afterInsert(mContent, startLine, startColumn, endLine, endColumn, insertedContent);
         int beginIdx = cache0.getIndex();
         if (getLeft() >= beginIdx) {
             mLeft = mIndexer.getCharPosition(getLeft() + insertedContent.length()).fromThis();
@@ -528,7 +527,6 @@ public final class Cursor {
      */
     void afterDelete(int startLine, int startColumn, int endLine, int endColumn,
                      CharSequence deletedContent) {
-        mIndexer.afterDelete(mContent, startLine, startColumn, endLine, endColumn, deletedContent);
         int beginIdx = cache1.getIndex();
         int endIdx = cache2.getIndex();
         int left = getLeft();
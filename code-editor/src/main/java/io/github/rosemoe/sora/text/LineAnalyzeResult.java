@@ -0,0 +1,137 @@
+/*
+ *    CodeEditor - the awesome code editor for Android
+ *    Copyright (C) 2020-2021  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text;
+
+import io.github.rosemoe.sora.interfaces.IncrementalCodeAnalyzer;
+import io.github.rosemoe.sora.util.IntPair;
+import io.github.rosemoe.sora.util.LongArrayList;
+
+/**
+ * Result of analyzing a single line
+ * Spans and code block boundaries are saved as packed (column, value) pairs
+ *
+ * @author Rose
+ * @see IncrementalCodeAnalyzer#analyzeLine(CharSequence, int, int, Object, LineAnalyzeResult)
+ */
+public class LineAnalyzeResult {
+
+    static final long[] EMPTY = new long[0];
+
+    static final int BLOCK_START = 0;
+    static final int BLOCK_END = 1;
+
+    private final LongArrayList mSpans = new LongArrayList();
+    private final LongArrayList mBlocks = new LongArrayList();
+    /**
+     * Underline colors packed with the index of their span
+     */
+    private final LongArrayList mUnderlines = new LongArrayList();
+
+    /**
+     * Add a new span if required (colorId is different from last)
+     * Spans must be added in order by their column
+     *
+     * @param column  Column
+     * @param colorId Type
+     */
+    public void addIfNeeded(int column, int colorId) {
+        int size = mSpans.size();
+        if (size > 0) {
+            long last = mSpans.get(size - 1);
+            boolean underlined = isUnderlined(size - 1);
+            if (IntPair.getSecond(last) == colorId && !underlined) {
+                return;
+            }
+            if (IntPair.getFirst(last) == column) {
+                mSpans.set(size - 1, IntPair.pack(column, colorId));
+                if (underlined) {
+                    mUnderlines.removeLast();
+                }
+                return;
+            }
+        }
+        mSpans.add(IntPair.pack(column, colorId));
+    }
+
+    /**
+     * Add a new span with an underline of the given color. The next span added is never
+     * merged into it
+     *
+     * @param column         Column
+     * @param colorId        Type
+     * @param underlineColor Color of underline
+     */
+    public void addUnderlined(int column, int colorId, int underlineColor) {
+        int size = mSpans.size();
+        if (size > 0 && IntPair.getFirst(mSpans.get(size - 1)) == column) {
+            mSpans.set(size - 1, IntPair.pack(column, colorId));
+            if (isUnderlined(size - 1)) {
+                mUnderlines.removeLast();
+            }
+        } else {
+            mSpans.add(IntPair.pack(column, colorId));
+        }
+        mUnderlines.add(IntPair.pack(mSpans.size() - 1, underlineColor));
+    }
+
+    private boolean isUnderlined(int index) {
+        int count = mUnderlines.size();
+        return count > 0 && IntPair.getFirst(mUnderlines.get(count - 1)) == index;
+    }
+
+    /**
+     * Mark the start of a code block at the given column
+     */
+    public void addBlockStart(int column) {
+        mBlocks.add(IntPair.pack(column, BLOCK_START));
+    }
+
+    /**
+     * Mark the end of a code block at the given column
+     */
+    public void addBlockEnd(int column) {
+        mBlocks.add(IntPair.pack(column, BLOCK_END));
+    }
+
+    long[] getSpans() {
+        return mSpans.size() == 0 ? EMPTY : mSpans.toArray();
+    }
+
+    /**
+     * Get the underline colors packed with the index of their span
+     */
+    long[] getUnderlines() {
+        return mUnderlines.size() == 0 ? EMPTY : mUnderlines.toArray();
+    }
+
+    long[] getBlocks() {
+        return mBlocks.size() == 0 ? EMPTY : mBlocks.toArray();
+    }
+
+    void clear() {
+        mSpans.clear();
+        mBlocks.clear();
+        mUnderlines.clear();
+    }
+
+}
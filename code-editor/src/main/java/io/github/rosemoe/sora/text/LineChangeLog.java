@@ -0,0 +1,99 @@
+/*
+ *    CodeEditor - the awesome code editor for Android
+ *    Copyright (C) 2020-2021  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text;
+
+import io.github.rosemoe.sora.util.IntPair;
+
+/**
+ * Lines changed by the latest modifications of a {@link Content}
+ *
+ * Every modification is recorded with the version of Content after it, as the first changed
+ * line and the count of lines after the changed ones. Lines outside of that range are the
+ * same as before the modification, only shifted when lines are inserted or removed. So the
+ * lines changed between two versions are found by taking the minimum of both values over
+ * the modifications between them.
+ *
+ * Written on the thread modifying the Content and read from the analyze thread.
+ *
+ * @author Rose
+ */
+class LineChangeLog {
+
+    /**
+     * Count of modifications kept. Changes since an older version are unknown
+     */
+    private static final int CAPACITY = 256;
+
+    private final long[] mVersions = new long[CAPACITY];
+    private final long[] mChanges = new long[CAPACITY];
+    /**
+     * Count of modifications ever recorded
+     */
+    private long mCount;
+
+    /**
+     * Record a modification
+     *
+     * @param version   Version of Content after the modification
+     * @param startLine First changed line
+     * @param endLine   Last changed line, after the modification
+     * @param lineCount Count of lines after the modification
+     */
+    synchronized void record(long version, int startLine, int endLine, int lineCount) {
+        int index = (int) (mCount % CAPACITY);
+        mVersions[index] = version;
+        mChanges[index] = IntPair.pack(startLine, lineCount - 1 - endLine);
+        mCount++;
+    }
+
+    /**
+     * Get the lines changed after the given version and until another version
+     *
+     * @param fromVersion The older version
+     * @param toVersion   The newer version
+     * @return Count of unchanged lines at the start of text and count of unchanged lines at
+     * the end of text packed by {@link IntPair}, or -1 if the changes are no longer recorded
+     */
+    synchronized long getChangedLines(long fromVersion, long toVersion) {
+        int prefix = Integer.MAX_VALUE, suffix = Integer.MAX_VALUE;
+        long i = mCount - 1;
+        for (; i >= 0 && i >= mCount - CAPACITY; i--) {
+            int index = (int) (i % CAPACITY);
+            long version = mVersions[index];
+            if (version <= fromVersion) {
+                break;
+            }
+            if (version <= toVersion) {
+                long change = mChanges[index];
+                prefix = Math.min(prefix, IntPair.getFirst(change));
+                suffix = Math.min(suffix, IntPair.getSecond(change));
+            }
+        }
+        if (i >= 0 && i < mCount - CAPACITY) {
+            // Modifications after the version are dropped
+            return -1;
+        }
+        return IntPair.pack(prefix, suffix);
+    }
+
+}
@@ -0,0 +1,369 @@
+/*
+ *    CodeEditor - the awesome code editor for Android
+ *    Copyright (C) 2020-2021  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * List of lines used by {@link Content}
+ *
+ * Lines are saved in blocks of limited size, so inserting or removing lines only moves
+ * the lines in the affected block and the references of blocks after it, instead of all
+ * the lines after the position. Start line of each block is computed lazily from the
+ * first modified block, and the block of a line is found by binary search.
+ *
+ * {@link #snapshot()} creates a read-only list sharing the blocks with this one. Blocks and
+ * lines are stamped with the generation of the list when they are created, the generation
+ * is increased by every snapshot. Blocks and lines from an older generation are copied
+ * before they are modified, so snapshots never observe changes.
+ *
+ * @author Rose
+ */
+class LineList extends AbstractList<ContentLine> implements RandomAccess {
+
+    static final int BLOCK_CAPACITY = 512;
+
+    private final ArrayList<Block> mBlocks;
+    private int[] mStarts;
+    /**
+     * Count of blocks at the start whose value in mStarts is up to date
+     */
+    private int mValidStarts;
+    private int mSize;
+    private int mGeneration;
+
+    LineList(int initialCapacity) {
+        mBlocks = new ArrayList<>(Math.max(1, initialCapacity / BLOCK_CAPACITY));
+        mBlocks.add(new Block(mGeneration));
+        mStarts = new int[Math.max(16, initialCapacity / BLOCK_CAPACITY)];
+    }
+
+    private LineList(LineList src) {
+        src.ensureStarts();
+        mBlocks = new ArrayList<>(src.mBlocks);
+        mStarts = Arrays.copyOf(src.mStarts, mBlocks.size());
+        mValidStarts = mBlocks.size();
+        mSize = src.mSize;
+        mGeneration = src.mGeneration;
+    }
+
+    /**
+     * Create a read-only list with the current lines. It is safe to read the returned list
+     * from any thread, and the cost is proportional to the count of blocks
+     */
+    LineList snapshot() {
+        LineList snapshot = new LineList(this);
+        mGeneration++;
+        return snapshot;
+    }
+
+    /**
+     * Get the line at the given index for modifying its text.
+     * The line is copied first if it may be shared with a snapshot
+     */
+    ContentLine getForWrite(int index) {
+        checkIndex(index, mSize);
+        int blockIndex = findBlock(index);
+        Block block = getWritableBlock(blockIndex);
+        int offset = index - mStarts[blockIndex];
+        ContentLine line = block.lines[offset];
+        if (line.generation != mGeneration) {
+            line = line.copy();
+            line.generation = mGeneration;
+            block.lines[offset] = line;
+        }
+        return line;
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public ContentLine get(int index) {
+        checkIndex(index, mSize);
+        int block = findBlock(index);
+        return mBlocks.get(block).lines[index - mStarts[block]];
+    }
+
+    @Override
+    public ContentLine set(int index, ContentLine line) {
+        checkIndex(index, mSize);
+        int block = findBlock(index);
+        ContentLine[] lines = getWritableBlock(block).lines;
+        int offset = index - mStarts[block];
+        line.generation = mGeneration;
+        ContentLine old = lines[offset];
+        lines[offset] = line;
+        return old;
+    }
+
+    @Override
+    public void add(int index, ContentLine line) {
+        checkIndex(index, mSize + 1);
+        line.generation = mGeneration;
+        int blockIndex = findBlock(index);
+        Block block = getWritableBlock(blockIndex);
+        int offset = index - mStarts[blockIndex];
+        if (block.size == BLOCK_CAPACITY) {
+            Block next = block.split(BLOCK_CAPACITY / 2);
+            mBlocks.add(blockIndex + 1, next);
+            if (offset > block.size) {
+                offset -= block.size;
+                block = next;
+            }
+        }
+        block.insert(offset, line);
+        mSize++;
+        modCount++;
+        invalidateStarts(blockIndex);
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends ContentLine> lines) {
+        checkIndex(index, mSize + 1);
+        int count = lines.size();
+        if (count == 0) {
+            return false;
+        }
+        for (ContentLine line : lines) {
+            line.generation = mGeneration;
+        }
+        int blockIndex = findBlock(index);
+        Block block = getWritableBlock(blockIndex);
+        int offset = index - mStarts[blockIndex];
+        if (block.size + count <= BLOCK_CAPACITY) {
+            block.insertAll(offset, lines);
+        } else {
+            // Split the block at the position, and put the new lines into new full blocks between them
+            Block tail = block.split(offset);
+            int insertAt = blockIndex + 1;
+            if (block.size == 0) {
+                mBlocks.remove(blockIndex);
+                insertAt--;
+            }
+            Block current = null;
+            for (ContentLine line : lines) {
+                if (current == null || current.size == BLOCK_CAPACITY) {
+                    current = new Block(mGeneration);
+                    mBlocks.add(insertAt++, current);
+                }
+                current.lines[current.size++] = line;
+            }
+            if (tail.size > 0) {
+                mBlocks.add(insertAt, tail);
+            }
+        }
+        mSize += count;
+        modCount++;
+        invalidateStarts(blockIndex);
+        return true;
+    }
+
+    @Override
+    public ContentLine remove(int index) {
+        checkIndex(index, mSize);
+        int blockIndex = findBlock(index);
+        Block block = getWritableBlock(blockIndex);
+        ContentLine removed = block.lines[index - mStarts[blockIndex]];
+        block.removeRange(index - mStarts[blockIndex], index - mStarts[blockIndex] + 1);
+        if (block.size == 0 && mBlocks.size() > 1) {
+            mBlocks.remove(blockIndex);
+        } else {
+            mergeIfSmall(blockIndex);
+        }
+        mSize--;
+        modCount++;
+        invalidateStarts(blockIndex);
+        return removed;
+    }
+
+    /**
+     * Remove lines in [fromIndex, toIndex)
+     */
+    @Override
+    public void removeRange(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > mSize || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("from " + fromIndex + ", to " + toIndex + ", size " + mSize);
+        }
+        if (fromIndex == toIndex) {
+            return;
+        }
+        int blockIndex = findBlock(fromIndex);
+        int firstBlock = blockIndex;
+        int offset = fromIndex - mStarts[blockIndex];
+        int remaining = toIndex - fromIndex;
+        while (remaining > 0) {
+            Block block = getWritableBlock(blockIndex);
+            int count = Math.min(block.size - offset, remaining);
+            block.removeRange(offset, offset + count);
+            remaining -= count;
+            if (block.size == 0 && mBlocks.size() > 1) {
+                mBlocks.remove(blockIndex);
+            } else {
+                blockIndex++;
+            }
+            offset = 0;
+        }
+        if (blockIndex > 0) {
+            mergeIfSmall(blockIndex - 1);
+        }
+        mSize -= toIndex - fromIndex;
+        modCount++;
+        invalidateStarts(firstBlock);
+    }
+
+    @Override
+    public void clear() {
+        mBlocks.clear();
+        mBlocks.add(new Block(mGeneration));
+        mSize = 0;
+        modCount++;
+        invalidateStarts(0);
+    }
+
+    /**
+     * Merge the block with the next one if they are both small, so that
+     * removals do not leave many tiny blocks behind
+     */
+    private void mergeIfSmall(int blockIndex) {
+        if (blockIndex + 1 >= mBlocks.size()) {
+            return;
+        }
+        Block next = mBlocks.get(blockIndex + 1);
+        if (mBlocks.get(blockIndex).size + next.size <= BLOCK_CAPACITY / 2) {
+            Block block = getWritableBlock(blockIndex);
+            System.arraycopy(next.lines, 0, block.lines, block.size, next.size);
+            block.size += next.size;
+            mBlocks.remove(blockIndex + 1);
+        }
+    }
+
+    private Block getWritableBlock(int blockIndex) {
+        Block block = mBlocks.get(blockIndex);
+        if (block.generation != mGeneration) {
+            block = block.copy(mGeneration);
+            mBlocks.set(blockIndex, block);
+        }
+        return block;
+    }
+
+    private static void checkIndex(int index, int bound) {
+        if (index < 0 || index >= bound) {
+            throw new IndexOutOfBoundsException("index " + index + ", bound " + bound);
+        }
+    }
+
+    private void invalidateStarts(int blockIndex) {
+        mValidStarts = Math.min(mValidStarts, blockIndex);
+    }
+
+    private void ensureStarts() {
+        int count = mBlocks.size();
+        if (mStarts.length < count) {
+            int[] starts = new int[Math.max(count, mStarts.length << 1)];
+            System.arraycopy(mStarts, 0, starts, 0, mValidStarts);
+            mStarts = starts;
+        }
+        for (int i = mValidStarts; i < count; i++) {
+            mStarts[i] = i == 0 ? 0 : mStarts[i - 1] + mBlocks.get(i - 1).size;
+        }
+        mValidStarts = count;
+    }
+
+    /**
+     * Find the block containing the given line. For index equals to size, the last block is returned
+     */
+    private int findBlock(int index) {
+        ensureStarts();
+        int low = 0, high = mBlocks.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mStarts[mid] <= index) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private static class Block {
+
+        final ContentLine[] lines = new ContentLine[BLOCK_CAPACITY];
+        final int generation;
+        int size;
+
+        Block(int generation) {
+            this.generation = generation;
+        }
+
+        Block copy(int generation) {
+            Block block = new Block(generation);
+            System.arraycopy(lines, 0, block.lines, 0, size);
+            block.size = size;
+            return block;
+        }
+
+        void insert(int offset, ContentLine line) {
+            System.arraycopy(lines, offset, lines, offset + 1, size - offset);
+            lines[offset] = line;
+            size++;
+        }
+
+        void insertAll(int offset, Collection<? extends ContentLine> src) {
+            int count = src.size();
+            System.arraycopy(lines, offset, lines, offset + count, size - offset);
+            for (ContentLine line : src) {
+                lines[offset++] = line;
+            }
+            size += count;
+        }
+
+        void removeRange(int from, int to) {
+            System.arraycopy(lines, to, lines, from, size - to);
+            for (int i = size - (to - from); i < size; i++) {
+                lines[i] = null;
+            }
+            size -= to - from;
+        }
+
+        /**
+         * Move lines from the given offset to a new block
+         */
+        Block split(int offset) {
+            Block block = new Block(generation);
+            block.size = size - offset;
+            System.arraycopy(lines, offset, block.lines, 0, block.size);
+            removeRange(offset, size);
+            return block;
+        }
+
+    }
+
+}
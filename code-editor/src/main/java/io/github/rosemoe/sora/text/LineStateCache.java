@@ -0,0 +1,226 @@
+/*
+ *    CodeEditor - the awesome code editor for Android
+ *    Copyright (C) 2020-2021  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import io.github.rosemoe.sora.data.BlockLine;
+import io.github.rosemoe.sora.data.Span;
+import io.github.rosemoe.sora.interfaces.IncrementalCodeAnalyzer;
+import io.github.rosemoe.sora.util.IntPair;
+import io.github.rosemoe.sora.widget.EditorColorScheme;
+
+/**
+ * Lexer states and results of every line analyzed by an {@link IncrementalCodeAnalyzer}
+ *
+ * The lines changed since the text of the last pass are found from the modifications
+ * recorded by {@link Content}, without reading the text. The unchanged lines at the start and
+ * at the end of the text keep their cached results, the lines between them are analyzed
+ * again. Analysis then goes on until a line is met whose cached start state equals the end
+ * state of the line before it.
+ *
+ * Only accessed from the analyze thread.
+ *
+ * @author Rose
+ */
+class LineStateCache {
+
+    private final IncrementalCodeAnalyzer<Object> mAnalyzer;
+    private final LineAnalyzeResult mLineResult = new LineAnalyzeResult();
+    private Object mInitialState;
+    private final ArrayList<Entry> mEntries = new ArrayList<>();
+    /**
+     * The text that lines of mEntries belong to
+     */
+    private ContentSnapshot mBase;
+    private ContentSnapshot mText;
+    private int mLineCount;
+
+    @SuppressWarnings("unchecked")
+    LineStateCache(IncrementalCodeAnalyzer<?> analyzer) {
+        mAnalyzer = (IncrementalCodeAnalyzer<Object>) analyzer;
+        mInitialState = mAnalyzer.getInitialState();
+    }
+
+    /**
+     * Analyze the given text, reusing the results of unchanged lines
+     *
+     * @param text     The text
+     * @param result   Result dest
+     * @param delegate Delegate of the analyze thread
+     * @return Whether the analysis is completed without being interrupted by new input
+     */
+    boolean analyze(ContentSnapshot text, TextAnalyzeResult result, TextAnalyzer.AnalyzeThread.Delegate delegate) {
+        mText = text;
+        mLineCount = text.getLineCount();
+        align();
+        // Lines analyzed before an interruption are kept for the next pass
+        mBase = text;
+        List<Entry> entries = mEntries;
+        Object state = mInitialState;
+        for (int i = 0; i < mLineCount; i++) {
+            if (!delegate.shouldAnalyze()) {
+                return false;
+            }
+            Entry entry = entries.get(i);
+            if (entry == null || !Objects.equals(entry.startState, state)) {
+                entry = analyzeLine(i, state);
+                entries.set(i, entry);
+            }
+            state = entry.endState;
+        }
+        buildResult(entries, result);
+        mText = null;
+        mAnalyzer.onLinesAnalyzed(text, result, delegate);
+        return delegate.shouldAnalyze();
+    }
+
+    /**
+     * Move the cached entries to the lines of new text. Changed lines get null
+     */
+    private void align() {
+        int oldCount = mEntries.size();
+        int prefix, suffix;
+        long changed = mBase == null ? -1 : mText.getChangedLines(mBase);
+        if (changed != -1) {
+            prefix = Math.min(IntPair.getFirst(changed), Math.min(mLineCount, oldCount));
+            suffix = Math.min(IntPair.getSecond(changed), Math.min(mLineCount, oldCount) - prefix);
+        } else if (mBase == null) {
+            prefix = suffix = 0;
+        } else {
+            // Too many modifications since last pass. Lines shared with the last text are
+            // never modified, so they are compared by reference
+            prefix = 0;
+            while (prefix < mLineCount && prefix < oldCount
+                    && mText.getLine(prefix) == mBase.getLine(prefix)) {
+                prefix++;
+            }
+            suffix = 0;
+            while (suffix < mLineCount - prefix && suffix < oldCount - prefix
+                    && mText.getLine(mLineCount - 1 - suffix) == mBase.getLine(oldCount - 1 - suffix)) {
+                suffix++;
+            }
+        }
+        mEntries.subList(prefix, oldCount - suffix).clear();
+        mEntries.addAll(prefix, Collections.nCopies(mLineCount - prefix - suffix, null));
+    }
+
+    private Entry analyzeLine(int line, Object state) {
+        mLineResult.clear();
+        ContentLine text = mText.getLine(line);
+        Object endState = mAnalyzer.analyzeLine(text, 0, text.length(), state, mLineResult);
+        long[] spans = mLineResult.getSpans();
+        long[] underlines = mLineResult.getUnderlines();
+        // Make every line start with a span at column 0, so that the array can be
+        // shared with the span map directly
+        if (spans.length == 0 || IntPair.getFirst(spans[0]) != 0) {
+            long[] normalized = new long[spans.length + 1];
+            normalized[0] = IntPair.pack(0, EditorColorScheme.TEXT_NORMAL);
+            System.arraycopy(spans, 0, normalized, 1, spans.length);
+            spans = normalized;
+            for (int i = 0; i < underlines.length; i++) {
+                long underline = underlines[i];
+                underlines[i] = IntPair.pack(IntPair.getFirst(underline) + 1, IntPair.getSecond(underline));
+            }
+        }
+        return new Entry(state, endState, spans, underlines, mLineResult.getBlocks());
+    }
+
+    private void buildResult(List<Entry> entries, TextAnalyzeResult result) {
+        List<BlockLine> stack = new ArrayList<>();
+        int maxSwitch = 1, currSwitch = 0;
+        long last = IntPair.pack(0, EditorColorScheme.TEXT_NORMAL);
+        Object[] states = new Object[mLineCount];
+        for (int line = 0; line < mLineCount; line++) {
+            Entry entry = entries.get(line);
+            states[line] = entry.startState;
+            long[] spans = entry.spans;
+            // Cached spans are used until the line is modified, no Span object is created
+            // but for underlined ones
+            PackedSpanList lineSpans = new PackedSpanList(spans);
+            for (long underline : entry.underlines) {
+                lineSpans.get(IntPair.getFirst(underline)).setUnderlineColor(IntPair.getSecond(underline));
+            }
+            result.mSpanMap.add(lineSpans);
+            last = spans[spans.length - 1];
+
+            for (long block : entry.blocks) {
+                int column = IntPair.getFirst(block);
+                if (IntPair.getSecond(block) == LineAnalyzeResult.BLOCK_START) {
+                    if (stack.isEmpty()) {
+                        if (currSwitch > maxSwitch) {
+                            maxSwitch = currSwitch;
+                        }
+                        currSwitch = 0;
+                    }
+                    currSwitch++;
+                    BlockLine blockLine = result.obtainNewBlock();
+                    blockLine.startLine = line;
+                    blockLine.startColumn = column;
+                    stack.add(blockLine);
+                } else if (!stack.isEmpty()) {
+                    BlockLine blockLine = stack.remove(stack.size() - 1);
+                    blockLine.endLine = line;
+                    blockLine.endColumn = column;
+                    if (blockLine.startLine != blockLine.endLine) {
+                        result.addBlockLine(blockLine);
+                    }
+                }
+            }
+        }
+        if (stack.isEmpty()) {
+            if (currSwitch > maxSwitch) {
+                maxSwitch = currSwitch;
+            }
+        }
+        result.mLineStates = states;
+        result.mLast = Span.obtain(IntPair.getFirst(last), IntPair.getSecond(last));
+        result.determine(mLineCount - 1);
+        result.setSuppressSwitch(maxSwitch + 10);
+    }
+
+    private static class Entry {
+
+        final Object startState;
+        final Object endState;
+        final long[] spans;
+        /**
+         * Underline colors packed with the index of their span
+         */
+        final long[] underlines;
+        final long[] blocks;
+
+        Entry(Object startState, Object endState, long[] spans, long[] underlines, long[] blocks) {
+            this.startState = startState;
+            this.endState = endState;
+            this.spans = spans;
+            this.underlines = underlines;
+            this.blocks = blocks;
+        }
+
+    }
+
+}
@@ -0,0 +1,478 @@
+/*
+ *    CodeEditor - the awesome code editor for Android
+ *    Copyright (C) 2020-2021  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import io.github.rosemoe.sora.data.Span;
+import io.github.rosemoe.sora.interfaces.ExternalRenderer;
+import io.github.rosemoe.sora.util.IntPair;
+
+/**
+ * Span list of a single line
+ *
+ * Column and color id of each span are packed into a long array, and problem flags are saved
+ * in an int array allocated on demand. Spans added by {@link #addPacked(int, int)} do not
+ * create any {@link Span} object, so highlighting a whole text creates no garbage but this list
+ * itself.
+ *
+ * Spans added as objects, or returned by {@link #get(int)}, are kept in another array and their
+ * fields are used instead of the packed values. So they can still be modified in place like the
+ * ones in an ordinary list, which is required by analyzers that set underline colors or external
+ * renderers.
+ *
+ * Renderers are expected to read spans with {@link #read(List, int, Span)} and
+ * {@link #getColumn(List, int)}, which do not create objects for packed spans.
+ *
+ * @author Rose
+ */
+public class PackedSpanList extends AbstractList<Span> implements RandomAccess {
+
+    private static final long[] EMPTY_SPANS = new long[0];
+
+    private long[] mSpans;
+    private int[] mFlags;
+    private Span[] mObjects;
+    private int mSize;
+    /**
+     * Whether mSpans is shared with others and must be copied before modification
+     */
+    private boolean mShared;
+
+    public PackedSpanList() {
+        mSpans = EMPTY_SPANS;
+    }
+
+    public PackedSpanList(int initialCapacity) {
+        mSpans = initialCapacity == 0 ? EMPTY_SPANS : new long[initialCapacity];
+    }
+
+    /**
+     * Create a list that uses the given packed spans until it is modified
+     *
+     * @param spans Spans packed by {@link IntPair#pack(int, int)} with column and color id
+     */
+    PackedSpanList(long[] spans) {
+        mSpans = spans;
+        mSize = spans.length;
+        mShared = true;
+    }
+
+    /**
+     * Read the span at the given index of the list into the given Span object.
+     * For a PackedSpanList, no object is created or returned by {@link #get(int)}.
+     *
+     * @param spans Span list of a line
+     * @param index Index of span
+     * @param dest  Span to save the fields
+     * @return The given dest
+     */
+    public static Span read(List<Span> spans, int index, Span dest) {
+        if (spans instanceof PackedSpanList) {
+            ((PackedSpanList) spans).read(index, dest);
+        } else {
+            Span span = spans.get(index);
+            dest.column = span.column;
+            dest.colorId = span.colorId;
+            dest.problemFlags = span.problemFlags;
+            dest.underlineColor = span.underlineColor;
+            dest.renderer = span.renderer;
+        }
+        return dest;
+    }
+
+    /**
+     * Get column of the span at the given index of the list, without creating objects
+     */
+    public static int getColumn(List<Span> spans, int index) {
+        if (spans instanceof PackedSpanList) {
+            return ((PackedSpanList) spans).getColumn(index);
+        }
+        return spans.get(index).column;
+    }
+
+    /**
+     * Get the span list of the given line as a PackedSpanList. If it is another kind of list,
+     * it is replaced by a PackedSpanList with the same Span objects.
+     */
+    public static PackedSpanList ensurePacked(List<List<Span>> map, int line) {
+        List<Span> spans = map.get(line);
+        if (spans instanceof PackedSpanList) {
+            return (PackedSpanList) spans;
+        }
+        PackedSpanList packed = new PackedSpanList(spans.size());
+        packed.addAll(spans);
+        map.set(line, packed);
+        return packed;
+    }
+
+    /**
+     * Add a span at the end without creating an object
+     *
+     * @param column  Start column of span
+     * @param colorId Color id of span
+     */
+    public void addPacked(int column, int colorId) {
+        insertSlot(mSize, IntPair.pack(column, colorId));
+    }
+
+    /**
+     * Insert a span at the given index without creating an object
+     */
+    public void addPacked(int index, int column, int colorId) {
+        if (index < 0 || index > mSize) {
+            throw new IndexOutOfBoundsException("index = " + index + ", size = " + mSize);
+        }
+        insertSlot(index, IntPair.pack(column, colorId));
+    }
+
+    /**
+     * Insert a copy of a span in the given list at the given index, with the given column.
+     * The copy is packed if the source span is packed.
+     *
+     * @param index    Index to insert
+     * @param src      List of the source span, can be this list
+     * @param srcIndex Index of the source span
+     * @param column   Column of the copy
+     */
+    public void addCopyOf(int index, PackedSpanList src, int srcIndex, int column) {
+        src.checkIndex(srcIndex);
+        Span span = src.getObject(srcIndex);
+        if (span != null) {
+            add(index, span.copy().setColumn(column));
+        } else {
+            int colorId = IntPair.getSecond(src.mSpans[srcIndex]);
+            int flags = src.mFlags == null ? 0 : src.mFlags[srcIndex];
+            addPacked(index, column, colorId);
+            if (flags != 0) {
+                addProblemFlags(index, flags);
+            }
+        }
+    }
+
+    /**
+     * Read the span at the given index into the given Span object
+     */
+    public void read(int index, Span dest) {
+        checkIndex(index);
+        Span span = getObject(index);
+        if (span != null) {
+            dest.column = span.column;
+            dest.colorId = span.colorId;
+            dest.problemFlags = span.problemFlags;
+            dest.underlineColor = span.underlineColor;
+            dest.renderer = span.renderer;
+        } else {
+            long packed = mSpans[index];
+            dest.column = IntPair.getFirst(packed);
+            dest.colorId = IntPair.getSecond(packed);
+            dest.problemFlags = mFlags == null ? 0 : mFlags[index];
+            dest.underlineColor = 0;
+            dest.renderer = null;
+        }
+    }
+
+    public int getColumn(int index) {
+        checkIndex(index);
+        Span span = getObject(index);
+        return span != null ? span.column : IntPair.getFirst(mSpans[index]);
+    }
+
+    public int getColorId(int index) {
+        checkIndex(index);
+        Span span = getObject(index);
+        return span != null ? span.colorId : IntPair.getSecond(mSpans[index]);
+    }
+
+    public int getProblemFlags(int index) {
+        checkIndex(index);
+        Span span = getObject(index);
+        if (span != null) {
+            return span.problemFlags;
+        }
+        return mFlags == null ? 0 : mFlags[index];
+    }
+
+    public int getUnderlineColor(int index) {
+        checkIndex(index);
+        Span span = getObject(index);
+        return span != null ? span.underlineColor : 0;
+    }
+
+    public ExternalRenderer getRenderer(int index) {
+        checkIndex(index);
+        Span span = getObject(index);
+        return span != null ? span.renderer : null;
+    }
+
+    public void setColumn(int index, int column) {
+        checkIndex(index);
+        Span span = getObject(index);
+        if (span != null) {
+            span.column = column;
+        } else {
+            ensureWritable();
+            mSpans[index] = IntPair.pack(column, IntPair.getSecond(mSpans[index]));
+        }
+    }
+
+    /**
+     * Add the given value to columns of spans in [fromIndex, size)
+     */
+    public void shiftColumns(int fromIndex, int delta) {
+        if (fromIndex >= mSize || delta == 0) {
+            return;
+        }
+        ensureWritable();
+        for (int i = fromIndex; i < mSize; i++) {
+            Span span = getObject(i);
+            if (span != null) {
+                span.column += delta;
+            } else {
+                long packed = mSpans[i];
+                mSpans[i] = IntPair.pack(IntPair.getFirst(packed) + delta, IntPair.getSecond(packed));
+            }
+        }
+    }
+
+    public void addProblemFlags(int index, int flags) {
+        checkIndex(index);
+        Span span = getObject(index);
+        if (span != null) {
+            span.problemFlags |= flags;
+        } else {
+            if (mFlags == null) {
+                mFlags = new int[mSpans.length];
+            }
+            mFlags[index] |= flags;
+        }
+    }
+
+    /**
+     * Insert a copy of the span at the given index after it, with the given column
+     */
+    public void duplicate(int index, int column) {
+        addCopyOf(index + 1, this, index, column);
+    }
+
+    /**
+     * Remove spans in [fromIndex, toIndex), and recycle the ones saved as objects
+     */
+    public void recycleRange(int fromIndex, int toIndex) {
+        if (mObjects != null) {
+            for (int i = fromIndex; i < toIndex; i++) {
+                if (mObjects[i] != null) {
+                    mObjects[i].recycle();
+                }
+            }
+        }
+        removeRange(fromIndex, toIndex);
+    }
+
+    /**
+     * Remove all the spans, and recycle the ones saved as objects
+     */
+    public void recycleAll() {
+        recycleRange(0, mSize);
+    }
+
+    /**
+     * Get the span at the given index as an object.
+     * If the span is packed, it is converted to an object, which will be used from then on.
+     */
+    @Override
+    public Span get(int index) {
+        checkIndex(index);
+        Span span = getObject(index);
+        if (span == null) {
+            long packed = mSpans[index];
+            span = Span.obtain(IntPair.getFirst(packed), IntPair.getSecond(packed));
+            if (mFlags != null) {
+                span.problemFlags = mFlags[index];
+            }
+            setObject(index, span);
+        }
+        return span;
+    }
+
+    @Override
+    public Span set(int index, Span element) {
+        Span old = get(index);
+        setObject(index, element);
+        return old;
+    }
+
+    @Override
+    public void add(int index, Span element) {
+        if (index < 0 || index > mSize) {
+            throw new IndexOutOfBoundsException("index = " + index + ", size = " + mSize);
+        }
+        insertSlot(index, IntPair.pack(element.column, element.colorId));
+        setObject(index, element);
+    }
+
+    @Override
+    public Span remove(int index) {
+        Span span = get(index);
+        removeRange(index, index + 1);
+        return span;
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        if (fromIndex >= toIndex) {
+            return;
+        }
+        if (mShared && fromIndex == 0 && toIndex == mSize) {
+            // Avoid copying the shared array just to clear it
+            mSpans = EMPTY_SPANS;
+            mFlags = null;
+            mObjects = null;
+            mSize = 0;
+            mShared = false;
+            modCount++;
+            return;
+        }
+        ensureWritable();
+        int moved = mSize - toIndex;
+        System.arraycopy(mSpans, toIndex, mSpans, fromIndex, moved);
+        if (mFlags != null) {
+            System.arraycopy(mFlags, toIndex, mFlags, fromIndex, moved);
+            Arrays.fill(mFlags, fromIndex + moved, mSize, 0);
+        }
+        if (mObjects != null) {
+            System.arraycopy(mObjects, toIndex, mObjects, fromIndex, moved);
+            Arrays.fill(mObjects, fromIndex + moved, mSize, null);
+        }
+        mSize -= toIndex - fromIndex;
+        modCount++;
+    }
+
+    @Override
+    public void clear() {
+        removeRange(0, mSize);
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof PackedSpanList)) {
+            return super.equals(o);
+        }
+        PackedSpanList other = (PackedSpanList) o;
+        if (other.mSize != mSize) {
+            return false;
+        }
+        for (int i = 0; i < mSize; i++) {
+            if (getObject(i) != null || other.getObject(i) != null) {
+                if (!get(i).equals(other.get(i))) {
+                    return false;
+                }
+            } else if (mSpans[i] != other.mSpans[i] || getProblemFlags(i) != other.getProblemFlags(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        // Same as List#hashCode() but without converting packed spans to objects
+        int hash = 1;
+        for (int i = 0; i < mSize; i++) {
+            Span span = getObject(i);
+            int spanHash;
+            if (span != null) {
+                spanHash = span.hashCode();
+            } else {
+                long packed = mSpans[i];
+                spanHash = Span.hashCode(IntPair.getFirst(packed), IntPair.getSecond(packed), 0,
+                        mFlags == null ? 0 : mFlags[i], null);
+            }
+            hash = 31 * hash + spanHash;
+        }
+        return hash;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("index = " + index + ", size = " + mSize);
+        }
+    }
+
+    private Span getObject(int index) {
+        return mObjects == null ? null : mObjects[index];
+    }
+
+    private void setObject(int index, Span span) {
+        if (mObjects == null) {
+            mObjects = new Span[mSpans.length];
+        }
+        mObjects[index] = span;
+    }
+
+    private void ensureWritable() {
+        if (mShared) {
+            resize(Math.max(mSize + 2, 4));
+            mShared = false;
+        }
+    }
+
+    private void resize(int newLength) {
+        mSpans = Arrays.copyOf(mSpans, newLength);
+        if (mFlags != null) {
+            mFlags = Arrays.copyOf(mFlags, newLength);
+        }
+        if (mObjects != null) {
+            mObjects = Arrays.copyOf(mObjects, newLength);
+        }
+    }
+
+    private void insertSlot(int index, long packed) {
+        ensureWritable();
+        if (mSize == mSpans.length) {
+            resize(Math.max(4, mSize * 2));
+        }
+        int moved = mSize - index;
+        System.arraycopy(mSpans, index, mSpans, index + 1, moved);
+        mSpans[index] = packed;
+        if (mFlags != null) {
+            System.arraycopy(mFlags, index, mFlags, index + 1, moved);
+            mFlags[index] = 0;
+        }
+        if (mObjects != null) {
+            System.arraycopy(mObjects, index, mObjects, index + 1, moved);
+            mObjects[index] = null;
+        }
+        mSize++;
+        modCount++;
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ *    CodeEditor - the awesome code editor for Android
+ *    Copyright (C) 2020-2021  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text;
+
+import io.github.rosemoe.sora.util.PrefixSumList;
+
+/**
+ * Indexer Impl for Content
+ * Based on prefix sums of line lengths
+ *
+ * The length of every line, including its line separator, is saved in a {@link PrefixSumList},
+ * so the start index of a line is a prefix sum and the line of an index is found by binary search.
+ * An edit only updates the lengths of the lines it touches.
+ *
+ * The indexer is updated by {@link Content} before other listeners are notified, so it can
+ * be used in any {@link ContentListener}.
+ *
+ * @author Rose
+ */
+public final class PrefixSumIndexer implements Indexer, ContentListener {
+
+    private final Content mContent;
+    /**
+     * Length of each line plus one for its line separator
+     */
+    private final PrefixSumList mLengths = new PrefixSumList();
+
+    /**
+     * Create a new PrefixSumIndexer for the given content
+     *
+     * @param content Content to manage
+     */
+    PrefixSumIndexer(Content content) {
+        mContent = content;
+        insertLines(content, 0, content.getLineCount());
+    }
+
+    @Override
+    public int getCharIndex(int line, int column) {
+        mContent.checkLineAndColumn(line, column, true);
+        return getLineStart(line) + column;
+    }
+
+    @Override
+    public int getCharLine(int index) {
+        mContent.checkIndex(index);
+        return mLengths.find(index);
+    }
+
+    @Override
+    public int getCharColumn(int index) {
+        mContent.checkIndex(index);
+        return index - getLineStart(mLengths.find(index));
+    }
+
+    @Override
+    public CharPosition getCharPosition(int index) {
+        mContent.checkIndex(index);
+        CharPosition pos = new CharPosition();
+        pos.index = index;
+        pos.line = mLengths.find(index);
+        pos.column = index - getLineStart(pos.line);
+        return pos;
+    }
+
+    @Override
+    public CharPosition getCharPosition(int line, int column) {
+        mContent.checkLineAndColumn(line, column, true);
+        CharPosition pos = new CharPosition();
+        pos.index = getLineStart(line) + column;
+        pos.line = line;
+        pos.column = column;
+        return pos;
+    }
+
+    @Override
+    public void beforeReplace(Content content) {
+        //Do nothing
+    }
+
+    @Override
+    public void afterInsert(Content content, int startLine, int startColumn, int endLine, int endColumn,
+                            CharSequence insertedContent) {
+        mLengths.set(startLine, content.getColumnCount(startLine) + 1);
+        if (endLine > startLine) {
+            insertLines(content, startLine + 1, endLine - startLine);
+        }
+    }
+
+    @Override
+    public void afterDelete(Content content, int startLine, int startColumn, int endLine, int endColumn,
+                            CharSequence deletedContent) {
+        if (endLine > startLine) {
+            mLengths.remove(startLine + 1, endLine + 1);
+        }
+        mLengths.set(startLine, content.getColumnCount(startLine) + 1);
+    }
+
+    private int getLineStart(int line) {
+        return (int) mLengths.prefix(line);
+    }
+
+    private void insertLines(Content content, int line, int count) {
+        int[] lengths = new int[count];
+        for (int i = 0; i < count; i++) {
+            lengths[i] = content.getColumnCount(line + i) + 1;
+        }
+        mLengths.insert(line, lengths, 0, count);
+    }
+
+}
@@ -0,0 +1,268 @@
+/*
+ *    CodeEditor - the awesome code editor for Android
+ *    Copyright (C) 2020-2021  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import io.github.rosemoe.sora.util.IntPair;
+import io.github.rosemoe.sora.util.LongArrayList;
+
+/**
+ * Matches of a search query in a text
+ *
+ * Text is matched line by line, so a match never contains a line separator. In regex mode,
+ * '^' and '$' match the start and end of lines and zero-length matches are ignored.
+ *
+ * Matches are stored as sorted (start, end) char index pairs in a primitive array, so the
+ * match after or before a position and the matches of a line are found by binary search.
+ * After the index is built on a {@link ContentSnapshot}, edits of {@link Content} can be applied
+ * with {@link #update(Content, int, int, int)}, which only rescans the edited lines.
+ *
+ * @author Rose
+ */
+public final class SearchIndex {
+
+    private final String mQuery;
+    private final Pattern mPattern;
+    private final LongArrayList mLineMatches = new LongArrayList();
+    private long[] mMatches = new long[16];
+    private int mSize;
+    private long mVersion = -1;
+
+    /**
+     * Create a new index for the given query
+     *
+     * @param query Text to search
+     * @param regex Whether the query is a regular expression
+     * @throws java.util.regex.PatternSyntaxException if the regular expression is invalid
+     */
+    public SearchIndex(String query, boolean regex) {
+        if (query == null || query.length() == 0) {
+            throw new IllegalArgumentException("query must not be empty");
+        }
+        mQuery = query;
+        mPattern = regex ? Pattern.compile(query, Pattern.MULTILINE) : null;
+    }
+
+    public String getQuery() {
+        return mQuery;
+    }
+
+    public boolean isRegex() {
+        return mPattern != null;
+    }
+
+    /**
+     * Get the version of Content that matches are computed for, or -1 if the index is not built
+     *
+     * @see Content#getVersion()
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Find matches in a single line
+     *
+     * @param line Text of the line
+     * @param dest Receives the (start, end) columns of matches, packed by {@link IntPair}
+     */
+    public void findInLine(CharSequence line, LongArrayList dest) {
+        if (mPattern == null) {
+            int length = mQuery.length();
+            int index = 0;
+            String text = line.toString();
+            while ((index = text.indexOf(mQuery, index)) != -1) {
+                dest.add(IntPair.pack(index, index + length));
+                index += length;
+            }
+        } else {
+            Matcher matcher = mPattern.matcher(line);
+            while (matcher.find()) {
+                if (matcher.end() > matcher.start()) {
+                    dest.add(IntPair.pack(matcher.start(), matcher.end()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether the given text is exactly a match of the query
+     */
+    public boolean matches(CharSequence text) {
+        return mPattern == null ? mQuery.contentEquals(text) : mPattern.matcher(text).matches();
+    }
+
+    /**
+     * Get the text to replace a match with. In regex mode, group references in the replacement
+     * are expanded.
+     */
+    public String getReplacement(CharSequence match, String replacement) {
+        return mPattern == null ? replacement : mPattern.matcher(match).replaceFirst(replacement);
+    }
+
+    /**
+     * Find all the matches in the snapshot. This can be called on any thread, but the index
+     * must not be used by other threads until it returns.
+     *
+     * @return false if the thread is interrupted before the index is built
+     */
+    public boolean build(ContentSnapshot snapshot) {
+        mSize = 0;
+        mVersion = -1;
+        int lineStart = 0;
+        int lineCount = snapshot.getLineCount();
+        for (int i = 0; i < lineCount; i++) {
+            if ((i & 1023) == 0 && Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            ContentLine line = snapshot.getLine(i);
+            addLineMatches(line, lineStart);
+            lineStart += line.length() + 1;
+        }
+        mVersion = snapshot.getVersion();
+        return true;
+    }
+
+    /**
+     * Update matches after Content is modified. Lines from startLine to endLine are the
+     * lines containing the modified text in the new content.
+     *
+     * @param content   The modified content
+     * @param startLine First modified line
+     * @param endLine   Last modified line
+     * @param delta     Change of text length
+     */
+    public void update(Content content, int startLine, int endLine, int delta) {
+        int lineStart = content.getCharIndex(startLine, 0);
+        int oldEnd = content.getCharIndex(endLine, 0) + content.getColumnCount(endLine) - delta;
+        int from = lowerBound(lineStart);
+        int to = lowerBound(oldEnd + 1);
+        // Move the matches after the modified lines to the end of array, then append new ones
+        long[] tail = new long[mSize - to];
+        System.arraycopy(mMatches, to, tail, 0, tail.length);
+        mSize = from;
+        for (int i = startLine; i <= endLine; i++) {
+            ContentLine line = content.getLine(i);
+            addLineMatches(line, lineStart);
+            lineStart += line.length() + 1;
+        }
+        ensureCapacity(mSize + tail.length);
+        for (long match : tail) {
+            mMatches[mSize++] = IntPair.pack(IntPair.getFirst(match) + delta, IntPair.getSecond(match) + delta);
+        }
+        mVersion = content.getVersion();
+    }
+
+    private void addLineMatches(ContentLine line, int lineStart) {
+        LongArrayList lineMatches = mLineMatches;
+        lineMatches.clear();
+        findInLine(line, lineMatches);
+        int count = lineMatches.size();
+        if (count == 0) {
+            return;
+        }
+        ensureCapacity(mSize + count);
+        long offset = IntPair.pack(lineStart, lineStart);
+        for (int i = 0; i < count; i++) {
+            mMatches[mSize++] = lineMatches.get(i) + offset;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > mMatches.length) {
+            long[] matches = new long[Math.max(capacity, mMatches.length * 2)];
+            System.arraycopy(mMatches, 0, matches, 0, mSize);
+            mMatches = matches;
+        }
+    }
+
+    /**
+     * Get index of the first match starting at or after the given char index
+     */
+    private int lowerBound(int index) {
+        long key = IntPair.pack(index, 0);
+        int low = 0, high = mSize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mMatches[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Get count of matches
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Get the match at the given index, packed by {@link IntPair} as (start, end) char indices
+     */
+    public long get(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("index = " + index + ", size = " + mSize);
+        }
+        return mMatches[index];
+    }
+
+    /**
+     * Find the first match starting at or after the given char index
+     *
+     * @return Index of the match, or -1 if not found
+     */
+    public int findNext(int index) {
+        int result = lowerBound(index);
+        return result < mSize ? result : -1;
+    }
+
+    /**
+     * Find the last match starting before the given char index
+     *
+     * @return Index of the match, or -1 if not found
+     */
+    public int findPrevious(int index) {
+        return lowerBound(index) - 1;
+    }
+
+    /**
+     * Get matches starting in the given region
+     *
+     * @param start Start char index of region
+     * @param end   End char index of region
+     * @param dest  Receives (start, end) of matches relative to the start of region, packed by {@link IntPair}
+     */
+    public void getMatchesInRegion(int start, int end, LongArrayList dest) {
+        long offset = IntPair.pack(start, start);
+        for (int i = lowerBound(start); i < mSize && IntPair.getFirst(mMatches[i]) < end; i++) {
+            dest.add(mMatches[i] - offset);
+        }
+    }
+
+}
@@ -36,46 +36,37 @@ import io.github.rosemoe.sora.widget.EditorColorScheme;
 public class SpanMapUpdater {
 
     public static void shiftSpansOnMultiLineDelete(List<List<Span>> map, int startLine, int startColumn, int endLine, int endColumn) {
-        int lineCount = endLine - startLine - 1;
         // Remove unrelated lines
-        while (lineCount > 0) {
-            Span.recycleAll(map.remove(startLine + 1));
-            lineCount--;
+        if (endLine - startLine - 1 > 0) {
+            List<List<Span>> removed = map.subList(startLine + 1, endLine);
+            for (List<Span> spans : removed) {
+                recycle(spans);
+            }
+            removed.clear();
         }
         // Clean up start line
-        List<Span> startLineSpans = map.get(startLine);
-        int index = startLineSpans.size() - 1;
-        while (index > 0) {
-            if (startLineSpans.get(index).column >= startColumn) {
-                startLineSpans.remove(index).recycle();
-                index--;
-            } else {
-                break;
-            }
+        PackedSpanList startLineSpans = PackedSpanList.ensurePacked(map, startLine);
+        int keep = startLineSpans.size();
+        while (keep > 1 && startLineSpans.getColumn(keep - 1) >= startColumn) {
+            keep--;
         }
+        startLineSpans.recycleRange(keep, startLineSpans.size());
         // Shift end line
-        List<Span> endLineSpans = map.get(startLine + 1);
-        while (endLineSpans.size() > 1) {
-            Span first = endLineSpans.get(0);
-            if (first.column >= endColumn) {
+        PackedSpanList endLineSpans = PackedSpanList.ensurePacked(map, startLine + 1);
+        int removeCount = 0;
+        while (endLineSpans.size() - removeCount > 1) {
+            if (endLineSpans.getColumn(removeCount) >= endColumn) {
                 break;
+            } else if (endLineSpans.getColumn(removeCount + 1) <= endColumn) {
+                removeCount++;
             } else {
-                int spanEnd = endLineSpans.get(1).column;
-                if (spanEnd <= endColumn) {
-                    endLineSpans.remove(first);
-                    first.recycle();
-                } else {
-                    break;
-                }
+                break;
             }
         }
+        endLineSpans.recycleRange(0, removeCount);
         for (int i = 0; i < endLineSpans.size(); i++) {
-            Span span = endLineSpans.get(i);
-            if (span.column < endColumn) {
-                span.column = 0;
-            } else {
-                span.column -= endColumn;
-            }
+            int column = endLineSpans.getColumn(i);
+            endLineSpans.setColumn(i, column < endColumn ? 0 : column - endColumn);
         }
     }
 
@@ -83,7 +74,7 @@ public class SpanMapUpdater {
         if (map == null || map.isEmpty()) {
             return;
         }
-        List<Span> spanList = map.get(line);
+        PackedSpanList spanList = PackedSpanList.ensurePacked(map, line);
         int startIndex = findSpanIndexFor(spanList, 0, startCol);
         if (startIndex == -1) {
             //No span is to be updated
@@ -94,24 +85,17 @@ public class SpanMapUpdater {
             endIndex = spanList.size();
         }
         // Remove spans inside delete text
-        int removeCount = endIndex - startIndex;
-        for (int i = 0; i < removeCount; i++) {
-            spanList.remove(startIndex).recycle();
-        }
+        spanList.recycleRange(startIndex, endIndex);
         // Shift spans
-        int delta = endCol - startCol;
-        while (startIndex < spanList.size()) {
-            spanList.get(startIndex).column -= delta;
-            startIndex++;
-        }
+        spanList.shiftColumns(startIndex, startCol - endCol);
         // Ensure there is span
-        if (spanList.isEmpty() || spanList.get(0).column != 0) {
-            spanList.add(0, Span.obtain(0, EditorColorScheme.TEXT_NORMAL));
+        if (spanList.isEmpty() || spanList.getColumn(0) != 0) {
+            spanList.addPacked(0, 0, EditorColorScheme.TEXT_NORMAL);
         }
         // Remove spans with length 0
         for (int i = 0; i + 1 < spanList.size(); i++) {
-            if (spanList.get(i).column >= spanList.get(i + 1).column) {
-                spanList.remove(i).recycle();
+            if (spanList.getColumn(i) >= spanList.getColumn(i + 1)) {
+                spanList.recycleRange(i, i + 1);
                 i--;
             }
         }
@@ -121,72 +105,77 @@ public class SpanMapUpdater {
         if (map == null || map.isEmpty()) {
             return;
         }
-        List<Span> spanList = map.get(line);
+        PackedSpanList spanList = PackedSpanList.ensurePacked(map, line);
         int index = findSpanIndexFor(spanList, 0, startCol);
         if (index == -1) {
             return;
         }
-        int originIndex = index;
         // Shift spans after insert position
-        int delta = endCol - startCol;
-        while (index < spanList.size()) {
-            spanList.get(index++).column += delta;
-        }
+        spanList.shiftColumns(index, endCol - startCol);
         // Add extra span for line start
-        if (originIndex == 0) {
-            Span first = spanList.get(0);
-            if (first.colorId == EditorColorScheme.TEXT_NORMAL && first.underlineColor == 0) {
-                first.column = 0;
+        if (index == 0) {
+            if (spanList.getColorId(0) == EditorColorScheme.TEXT_NORMAL && spanList.getUnderlineColor(0) == 0) {
+                spanList.setColumn(0, 0);
             } else {
-                spanList.add(0, Span.obtain(0, EditorColorScheme.TEXT_NORMAL));
+                spanList.addPacked(0, 0, EditorColorScheme.TEXT_NORMAL);
             }
         }
     }
 
     public static void shiftSpansOnMultiLineInsert(List<List<Span>> map, int startLine, int startColumn, int endLine, int endColumn) {
         // Find extended span
-        List<Span> startLineSpans = map.get(startLine);
+        PackedSpanList startLineSpans = PackedSpanList.ensurePacked(map, startLine);
         int extendedSpanIndex = findSpanIndexFor(startLineSpans, 0, startColumn);
         if (extendedSpanIndex == -1) {
             extendedSpanIndex = startLineSpans.size() - 1;
         }
-        if (startLineSpans.get(extendedSpanIndex).column > startColumn) {
+        if (startLineSpans.getColumn(extendedSpanIndex) > startColumn) {
             extendedSpanIndex--;
         }
-        Span extendedSpan;
-        if (extendedSpanIndex < 0 || extendedSpanIndex >= startLineSpans.size()) {
-            extendedSpan = Span.obtain(0, EditorColorScheme.TEXT_NORMAL);
-        } else {
-            extendedSpan = startLineSpans.get(extendedSpanIndex);
-        }
+        boolean hasExtendedSpan = extendedSpanIndex >= 0 && extendedSpanIndex < startLineSpans.size();
         // Create map link for new lines
+        List<List<Span>> newLines = new ArrayList<>(endLine - startLine);
         for (int i = 0; i < endLine - startLine; i++) {
-            List<Span> list = new ArrayList<>();
-            list.add(extendedSpan.copy().setColumn(0));
-            map.add(startLine + 1, list);
+            PackedSpanList list = new PackedSpanList(2);
+            if (hasExtendedSpan) {
+                list.addCopyOf(0, startLineSpans, extendedSpanIndex, 0);
+            } else {
+                list.addPacked(0, EditorColorScheme.TEXT_NORMAL);
+            }
+            newLines.add(list);
         }
+        map.addAll(startLine + 1, newLines);
         // Add original spans to new line
-        List<Span> endLineSpans = map.get(endLine);
-        if (endColumn == 0 && extendedSpanIndex + 1 < startLineSpans.size()) {
-            endLineSpans.clear();
-        }
-        int delta = Integer.MIN_VALUE;
-        while (extendedSpanIndex + 1 < startLineSpans.size()) {
-            Span span = startLineSpans.remove(extendedSpanIndex + 1);
-            if (delta == Integer.MIN_VALUE) {
-                delta = span.column;
+        PackedSpanList endLineSpans = (PackedSpanList) map.get(endLine);
+        int moveStart = extendedSpanIndex + 1;
+        if (endColumn == 0 && moveStart < startLineSpans.size()) {
+            endLineSpans.recycleAll();
+        }
+        if (moveStart < startLineSpans.size()) {
+            int delta = startLineSpans.getColumn(moveStart);
+            for (int i = moveStart; i < startLineSpans.size(); i++) {
+                int column = startLineSpans.getColumn(i) - delta + endColumn;
+                endLineSpans.addCopyOf(endLineSpans.size(), startLineSpans, i, column);
             }
-            endLineSpans.add(span.setColumn(span.column - delta + endColumn));
+            startLineSpans.recycleRange(moveStart, startLineSpans.size());
         }
     }
 
-    private static int findSpanIndexFor(List<Span> spans, int initialPosition, int targetCol) {
+    private static int findSpanIndexFor(PackedSpanList spans, int initialPosition, int targetCol) {
         for (int i = initialPosition; i < spans.size(); i++) {
-            if (spans.get(i).column >= targetCol) {
+            if (spans.getColumn(i) >= targetCol) {
                 return i;
             }
         }
         return -1;
     }
 
+    private static void recycle(List<Span> spans) {
+        if (spans instanceof PackedSpanList) {
+            ((PackedSpanList) spans).recycleAll();
+        } else {
+            Span.recycleAll(spans);
+        }
+    }
+
 }
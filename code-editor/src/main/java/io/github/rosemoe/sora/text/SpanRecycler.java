@@ -75,6 +75,11 @@ public class SpanRecycler {
                         int count = 0;
                         for (List<Span> spans : spanMap) {
                             int size = spans.size();
+                            if (spans instanceof PackedSpanList) {
+                                ((PackedSpanList) spans).recycleAll();
+                                count += size;
+                                continue;
+                            }
                             for (int i = 0; i < size; i++) {
                                 spans.remove(size - 1 - i).recycle();
                                 count++;
@@ -41,6 +41,7 @@ public class TextAnalyzeResult {
     protected Object mExtra;
     protected List<NavigationItem> mLabels;
     protected Span mLast;
+    Object[] mLineStates;
     protected int mSuppressSwitch = Integer.MAX_VALUE;
     boolean determined = false;
 
@@ -94,9 +95,7 @@ public class TextAnalyzeResult {
                 extendedSpan = Span.obtain(0, EditorColorScheme.TEXT_NORMAL);
             }
             while (mapLine < spanLine) {
-                List<Span> lineSpans = new ArrayList<>();
-                lineSpans.add(extendedSpan.copy().setColumn(0));
-                mSpanMap.add(lineSpans);
+                mSpanMap.add(createExtendedLine(extendedSpan));
                 mapLine++;
             }
             List<Span> lineSpans = mSpanMap.get(spanLine);
@@ -123,14 +122,26 @@ public class TextAnalyzeResult {
             extendedSpan = Span.obtain(0, EditorColorScheme.TEXT_NORMAL);
         }
         while (mapLine < line) {
-            List<Span> lineSpans = new ArrayList<>();
-            lineSpans.add(extendedSpan.copy().setColumn(0));
-            mSpanMap.add(lineSpans);
+            mSpanMap.add(createExtendedLine(extendedSpan));
             mapLine++;
         }
         determined = true;
     }
 
+    /**
+     * Create span list for a line that is covered by the given span
+     */
+    private static PackedSpanList createExtendedLine(Span extendedSpan) {
+        PackedSpanList lineSpans = new PackedSpanList(2);
+        if (extendedSpan.underlineColor == 0 && extendedSpan.renderer == null
+                && extendedSpan.problemFlags == 0) {
+            lineSpans.addPacked(0, extendedSpan.colorId);
+        } else {
+            lineSpans.add(extendedSpan.copy().setColumn(0));
+        }
+        return lineSpans;
+    }
+
     /**
      * Get a new BlockLine object
      * <strong>It fields maybe not initialized with zero</strong>
@@ -164,8 +175,8 @@ public class TextAnalyzeResult {
      */
     public void addNormalIfNull() {
         if (mSpanMap.isEmpty()) {
-            List<Span> spanList = new ArrayList<>();
-            spanList.add(Span.obtain(0, EditorColorScheme.TEXT_NORMAL));
+            PackedSpanList spanList = new PackedSpanList(1);
+            spanList.addPacked(0, EditorColorScheme.TEXT_NORMAL);
             mSpanMap.add(spanList);
         }
     }
@@ -239,6 +250,22 @@ public class TextAnalyzeResult {
         return mExtra;
     }
 
+    /**
+     * Get the lexer state at the start of the given line.
+     * States are only saved when the result is produced by an
+     * {@link io.github.rosemoe.sora.interfaces.IncrementalCodeAnalyzer}
+     *
+     * @param line The line
+     * @return The state, or null if it is not available
+     */
+    public Object getLineState(int line) {
+        Object[] states = mLineStates;
+        if (states == null || line < 0 || line >= states.length) {
+            return null;
+        }
+        return states[line];
+    }
+
     /**
      * Marks a region with the given flag.
      * This can only be called after {@link TextAnalyzeResult#determine(int)} is called.
@@ -250,45 +277,37 @@ public class TextAnalyzeResult {
         for (int line = startLine; line <= endLine; line++) {
             int start = (line == startLine ? startColumn : 0);
             int end = (line == endLine ? endColumn : Integer.MAX_VALUE);
-            List<Span> spans = mSpanMap.get(line);
+            PackedSpanList spans = PackedSpanList.ensurePacked(mSpanMap, line);
             int increment;
             for (int i = 0; i < spans.size(); i += increment) {
-                Span span = spans.get(i);
+                int column = spans.getColumn(i);
                 increment = 1;
-                if (span.column >= end) {
+                if (column >= end) {
                     break;
                 }
-                int spanEnd = (i + 1 >= spans.size() ? Integer.MAX_VALUE : spans.get(i + 1).column);
+                int spanEnd = (i + 1 >= spans.size() ? Integer.MAX_VALUE : spans.getColumn(i + 1));
                 if (spanEnd >= start) {
-                    int regionStartInSpan = Math.max(span.column, start);
+                    int regionStartInSpan = Math.max(column, start);
                     int regionEndInSpan = Math.min(end, spanEnd);
-                    if (regionStartInSpan == span.column) {
+                    if (regionStartInSpan == column) {
                         if (regionEndInSpan == spanEnd) {
-                            span.problemFlags |= newFlag;
+                            spans.addProblemFlags(i, newFlag);
                         } else {
                             increment = 2;
-                            Span nSpan = span.copy();
-                            nSpan.column = regionEndInSpan;
-                            spans.add(i + 1, nSpan);
-                            span.problemFlags |= newFlag;
+                            spans.duplicate(i, regionEndInSpan);
+                            spans.addProblemFlags(i, newFlag);
                         }
                     } else {
-                        //regionStartInSpan > span.column
+                        //regionStartInSpan > column
                         if (regionEndInSpan == spanEnd) {
                             increment = 2;
-                            Span nSpan = span.copy();
-                            nSpan.column = regionStartInSpan;
-                            spans.add(i + 1, nSpan);
-                            nSpan.problemFlags |= newFlag;
+                            spans.duplicate(i, regionStartInSpan);
+                            spans.addProblemFlags(i + 1, newFlag);
                         } else {
                             increment = 3;
-                            Span span1 = span.copy();
-                            span1.column = regionStartInSpan;
-                            span1.problemFlags |= newFlag;
-                            Span span2 = span.copy();
-                            span2.column = regionEndInSpan;
-                            spans.add(i + 1, span1);
-                            spans.add(i + 2, span2);
+                            spans.duplicate(i, regionEndInSpan);
+                            spans.duplicate(i, regionStartInSpan);
+                            spans.addProblemFlags(i + 1, newFlag);
                         }
                     }
                 }
@@ -27,6 +27,7 @@ import android.util.Log;
 import java.util.List;
 
 import io.github.rosemoe.sora.interfaces.CodeAnalyzer;
+import io.github.rosemoe.sora.interfaces.IncrementalCodeAnalyzer;
 import io.github.rosemoe.sora.data.BlockLine;
 import io.github.rosemoe.sora.data.ObjectAllocator;
 import io.github.rosemoe.sora.data.Span;
@@ -49,6 +50,10 @@ public class TextAnalyzer {
     private Callback mCallback;
     private AnalyzeThread mThread;
     private final CodeAnalyzer mCodeAnalyzer;
+    /**
+     * Line states of incremental analyzers, null if the analyzer is not incremental
+     */
+    private final LineStateCache mLineStateCache;
     /**
      * Create a new manager for the given codeAnalyzer
      *
@@ -61,6 +66,8 @@ public class TextAnalyzer {
         mResult = new TextAnalyzeResult();
         mResult.addNormalIfNull();
         mCodeAnalyzer = codeAnalyzer0;
+        mLineStateCache = codeAnalyzer0 instanceof IncrementalCodeAnalyzer ?
+                new LineStateCache((IncrementalCodeAnalyzer<?>) codeAnalyzer0) : null;
     }
 
     private synchronized static int nextThreadId() {
@@ -97,19 +104,21 @@ public class TextAnalyzer {
 
     /**
      * Analyze the given text
+     * A snapshot of the text is taken, so this must be called on the thread modifying it
      *
      * @param origin The source text
      */
     public synchronized void analyze(Content origin) {
+        ContentSnapshot snapshot = origin.createSnapshot();
         AnalyzeThread thread = this.mThread;
         if (thread == null || !thread.isAlive()) {
             Log.d("TextAnalyzer", "Starting a new thread for analyzing");
-            thread = this.mThread = new AnalyzeThread(mLock, mCodeAnalyzer, origin);
+            thread = this.mThread = new AnalyzeThread(mLock, mCodeAnalyzer, snapshot);
             thread.setName("TextAnalyzeDaemon-" + nextThreadId());
             thread.setDaemon(true);
             thread.start();
         } else {
-            thread.restartWith(origin);
+            thread.restartWith(snapshot);
             synchronized (mLock) {
                 mLock.notify();
             }
@@ -174,15 +183,15 @@ public class TextAnalyzer {
         private final CodeAnalyzer codeAnalyzer;
         private final Object lock;
         private volatile boolean waiting = false;
-        private Content content;
+        private ContentSnapshot content;
 
         /**
          * Create a new thread
          *
          * @param a       The CodeAnalyzer to call
-         * @param content The Content to analyze
+         * @param content The text to analyze
          */
-        public AnalyzeThread(Object lock, CodeAnalyzer a, Content content) {
+        public AnalyzeThread(Object lock, CodeAnalyzer a, ContentSnapshot content) {
             this.lock = lock;
             codeAnalyzer = a;
             this.content = content;
@@ -197,8 +206,12 @@ public class TextAnalyzer {
                     mOpStartTime = System.currentTimeMillis();
                     do {
                         waiting = false;
-                        StringBuilder c = content.toStringBuilder();
-                        codeAnalyzer.analyze(c, colors, d);
+                        ContentSnapshot c = content;
+                        if (mLineStateCache != null) {
+                            mLineStateCache.analyze(c, colors, d);
+                        } else {
+                            codeAnalyzer.analyze(c.toStringBuilder(), colors, d);
+                        }
                         if (waiting) {
                             colors.mSpanMap.clear();
                             colors.mLast = null;
@@ -206,6 +219,7 @@ public class TextAnalyzer {
                             colors.mSuppressSwitch = Integer.MAX_VALUE;
                             colors.mLabels = null;
                             colors.mExtra = null;
+                            colors.mLineStates = null;
                             colors.determined = false;
                         }
                     } while (waiting);
@@ -241,7 +255,7 @@ public class TextAnalyzer {
          *
          * @param content New source
          */
-        public synchronized void restartWith(Content content) {
+        public synchronized void restartWith(ContentSnapshot content) {
             waiting = true;
             this.content = content;
         }
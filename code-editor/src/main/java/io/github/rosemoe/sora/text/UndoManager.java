@@ -22,31 +22,68 @@
  */
 package io.github.rosemoe.sora.text;
 
+import androidx.annotation.VisibleForTesting;
+
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Helper class for Content to take down modification
  * As well as provide Undo/Redo actions
+ * <p>
+ * Text of actions is saved in an append-only char buffer shared by all the actions, which is
+ * compacted when most of its text is no longer used. Typing and deleting continuously in a line
+ * extend the last action instead of creating new ones, until a pause or {@link #MAX_MERGE_LENGTH}
+ * chars. Text of deletions is saved reversed, so that deleting backwards only appends to the
+ * buffer. Actions are removed from the bottom of stack when there are too many of them or
+ * they take too much memory.
  *
  * @author Rose
  */
 final class UndoManager implements ContentListener {
 
+    /**
+     * Estimated memory used by an action object, in bytes
+     */
+    private final static int ACTION_OVERHEAD = 48;
+    /**
+     * Max interval between two edits merged into one action, in milliseconds
+     */
+    private final static long MERGE_TIMEOUT = 1000;
+    /**
+     * Max length of text merged into one action
+     */
+    private final static int MAX_MERGE_LENGTH = 10000;
+    /**
+     * Unused text smaller than this size is not compacted
+     */
+    private final static int MIN_COMPACT_SIZE = 16384;
+
     private final List<ContentAction> mActionStack;
+    private char[] mBuffer;
+    private int mBufferLength;
+    /**
+     * Length of text in buffer that is still used by actions
+     */
+    private int mUsedLength;
+    private int mActionCount;
     private boolean mUndoEnabled;
     private int mMaxStackSize;
+    private int mMaxMemory;
     private InsertAction mInsertAction;
     private DeleteAction mDeleteAction;
     private boolean mReplaceMark;
     private int mStackPointer;
     private boolean mIgnoreModification;
+    private boolean mBatchEditStarted;
 
     /**
      * Create an UndoManager
      */
     protected UndoManager() {
         mActionStack = new ArrayList<>();
+        mBuffer = new char[256];
+        mMaxMemory = Integer.MAX_VALUE;
         mReplaceMark = false;
         mInsertAction = null;
         mDeleteAction = null;
@@ -144,6 +181,44 @@ final class UndoManager implements ContentListener {
         cleanStack();
     }
 
+    /**
+     * Get max memory that actions can use
+     *
+     * @return max memory in bytes
+     */
+    public int getMaxUndoMemory() {
+        return mMaxMemory;
+    }
+
+    /**
+     * Set max memory that actions can use. The latest action is always kept even if it
+     * uses more memory than this.
+     *
+     * @param maxMemory max memory in bytes
+     */
+    public void setMaxUndoMemory(int maxMemory) {
+        if (maxMemory <= 0) {
+            throw new IllegalArgumentException("max memory can not be zero or smaller");
+        }
+        mMaxMemory = maxMemory;
+        cleanStack();
+    }
+
+    /**
+     * Get estimated memory used by actions in stack, in bytes
+     */
+    public long getUsedMemory() {
+        return (long) mActionCount * ACTION_OVERHEAD + mUsedLength * 2L;
+    }
+
+    /**
+     * Get length of the text buffer, including text no longer used
+     */
+    @VisibleForTesting
+    int getBufferLength() {
+        return mBufferLength;
+    }
+
     /**
      * Clean stack after add or state change
      * This is to limit stack size
@@ -152,11 +227,15 @@ final class UndoManager implements ContentListener {
         if (!mUndoEnabled) {
             mActionStack.clear();
             mStackPointer = 0;
+            mActionCount = 0;
+            mUsedLength = 0;
+            mBufferLength = 0;
         } else {
-            while (mStackPointer > 1 && mActionStack.size() > mMaxStackSize) {
-                mActionStack.remove(0);
+            while (mStackPointer > 1 && (mActionStack.size() > mMaxStackSize || getUsedMemory() > mMaxMemory)) {
+                release(mActionStack.remove(0));
                 mStackPointer--;
             }
+            compactBufferIfNeeded();
         }
     }
 
@@ -166,7 +245,7 @@ final class UndoManager implements ContentListener {
      */
     private void cleanBeforePush() {
         while (mStackPointer < mActionStack.size()) {
-            mActionStack.remove(mActionStack.size() - 1);
+            release(mActionStack.remove(mActionStack.size() - 1));
         }
     }
 
@@ -178,27 +257,23 @@ final class UndoManager implements ContentListener {
      */
     private void pushAction(Content content, ContentAction action) {
         if (!isUndoEnabled()) {
+            release(action);
             return;
         }
         cleanBeforePush();
         if (content.isInBatchEdit()) {
-            if (mActionStack.isEmpty()) {
-                MultiAction a = new MultiAction();
-                a.addAction(action);
-                mActionStack.add(a);
-                mStackPointer++;
+            ContentAction a = mActionStack.isEmpty() || mBatchEditStarted ? null : mActionStack.get(mActionStack.size() - 1);
+            if (a instanceof MultiAction) {
+                MultiAction ac = (MultiAction) a;
+                ac.addAction(action);
             } else {
-                ContentAction a = mActionStack.get(mActionStack.size() - 1);
-                if (a instanceof MultiAction) {
-                    MultiAction ac = (MultiAction) a;
-                    ac.addAction(action);
-                } else {
-                    MultiAction ac = new MultiAction();
-                    ac.addAction(action);
-                    mActionStack.add(ac);
-                    mStackPointer++;
-                }
+                MultiAction ac = new MultiAction();
+                mActionCount++;
+                ac.addAction(action);
+                mActionStack.add(ac);
+                mStackPointer++;
             }
+            mBatchEditStarted = false;
         } else {
             if (mActionStack.isEmpty()) {
                 mActionStack.add(action);
@@ -216,6 +291,126 @@ final class UndoManager implements ContentListener {
         cleanStack();
     }
 
+    /**
+     * Called when the outermost batch edit begins, so that modifications made in
+     * the batch edit are saved in a new {@link MultiAction}
+     */
+    void onBeginBatchEdit() {
+        mBatchEditStarted = true;
+    }
+
+    /**
+     * Append text to buffer
+     *
+     * @return start offset of text in buffer
+     */
+    private int appendText(CharSequence text, int start, int end) {
+        int length = end - start;
+        ensureBufferCapacity(mBufferLength + length);
+        int offset = mBufferLength;
+        if (text instanceof String) {
+            ((String) text).getChars(start, end, mBuffer, offset);
+        } else if (text instanceof StringBuilder) {
+            ((StringBuilder) text).getChars(start, end, mBuffer, offset);
+        } else {
+            for (int i = start; i < end; i++) {
+                mBuffer[offset + i - start] = text.charAt(i);
+            }
+        }
+        mBufferLength += length;
+        mUsedLength += length;
+        return offset;
+    }
+
+    /**
+     * Append text to buffer in reversed order
+     *
+     * @return start offset of text in buffer
+     */
+    private int appendTextReversed(CharSequence text) {
+        int length = text.length();
+        ensureBufferCapacity(mBufferLength + length);
+        int offset = mBufferLength;
+        for (int i = 0; i < length; i++) {
+            mBuffer[offset + i] = text.charAt(length - 1 - i);
+        }
+        mBufferLength += length;
+        mUsedLength += length;
+        return offset;
+    }
+
+    /**
+     * Append text that is already in buffer to the end of buffer
+     *
+     * @return new start offset of text
+     */
+    private int moveTextToEnd(int offset, int length) {
+        ensureBufferCapacity(mBufferLength + length);
+        System.arraycopy(mBuffer, offset, mBuffer, mBufferLength, length);
+        int newOffset = mBufferLength;
+        mBufferLength += length;
+        return newOffset;
+    }
+
+    private void ensureBufferCapacity(int capacity) {
+        if (capacity > mBuffer.length) {
+            char[] buffer = new char[Math.max(capacity, mBuffer.length * 2)];
+            System.arraycopy(mBuffer, 0, buffer, 0, mBufferLength);
+            mBuffer = buffer;
+        }
+    }
+
+    /**
+     * Called when an action is removed and will never be used again
+     */
+    private void release(ContentAction action) {
+        mActionCount--;
+        if (action instanceof TextAction) {
+            mUsedLength -= ((TextAction) action).textLength;
+        } else if (action instanceof MultiAction) {
+            for (ContentAction child : ((MultiAction) action)._actions) {
+                release(child);
+            }
+        } else if (action instanceof ReplaceAction) {
+            release(((ReplaceAction) action)._insert);
+            release(((ReplaceAction) action)._delete);
+        }
+    }
+
+    /**
+     * Copy text still used into a new buffer, if unused text takes most of the buffer
+     */
+    private void compactBufferIfNeeded() {
+        int unused = mBufferLength - mUsedLength;
+        if (unused < MIN_COMPACT_SIZE || unused < mUsedLength) {
+            return;
+        }
+        char[] buffer = new char[Math.max(256, mUsedLength * 2)];
+        int length = 0;
+        for (ContentAction action : mActionStack) {
+            length = moveText(action, buffer, length);
+        }
+        mBuffer = buffer;
+        mBufferLength = length;
+    }
+
+    private int moveText(ContentAction action, char[] dest, int destLength) {
+        if (action instanceof TextAction) {
+            TextAction textAction = (TextAction) action;
+            System.arraycopy(mBuffer, textAction.textOffset, dest, destLength, textAction.textLength);
+            textAction.textOffset = destLength;
+            return destLength + textAction.textLength;
+        } else if (action instanceof MultiAction) {
+            for (ContentAction child : ((MultiAction) action)._actions) {
+                destLength = moveText(child, dest, destLength);
+            }
+        } else if (action instanceof ReplaceAction) {
+            destLength = moveText(((ReplaceAction) action)._delete, dest, destLength);
+            destLength = moveText(((ReplaceAction) action)._insert, dest, destLength);
+        }
+        return destLength;
+    }
+
     @Override
     public void beforeReplace(Content content) {
         if (mIgnoreModification) {
@@ -227,17 +422,29 @@ final class UndoManager implements ContentListener {
     @Override
     public void afterInsert(Content content, int startLine, int startColumn, int endLine, int endColumn,
                             CharSequence insertedContent) {
-        if (mIgnoreModification) {
+        if (mIgnoreModification || !isUndoEnabled()) {
+            mReplaceMark = false;
             return;
         }
+        if (!mReplaceMark && !content.isInBatchEdit() && mStackPointer == mActionStack.size() && mStackPointer > 0) {
+            // Extend the last action directly while typing
+            ContentAction last = mActionStack.get(mStackPointer - 1);
+            if (last instanceof InsertAction && ((InsertAction) last).canAppend(startLine, startColumn, endLine, insertedContent.length())) {
+                ((InsertAction) last).append(endLine, endColumn, insertedContent);
+                cleanStack();
+                return;
+            }
+        }
         mInsertAction = new InsertAction();
+        mActionCount++;
         mInsertAction.startLine = startLine;
         mInsertAction.startColumn = startColumn;
         mInsertAction.endLine = endLine;
         mInsertAction.endColumn = endColumn;
-        mInsertAction.text = insertedContent;
-        if (mReplaceMark) {
+        mInsertAction.setText(insertedContent);
+        if (mReplaceMark && mDeleteAction != null) {
             ReplaceAction rep = new ReplaceAction();
+            mActionCount++;
             rep._delete = mDeleteAction;
             rep._insert = mInsertAction;
             pushAction(content, rep);
@@ -245,22 +452,35 @@ final class UndoManager implements ContentListener {
             pushAction(content, mInsertAction);
         }
         mReplaceMark = false;
+        mInsertAction = null;
+        mDeleteAction = null;
     }
 
     @Override
     public void afterDelete(Content content, int startLine, int startColumn, int endLine, int endColumn,
                             CharSequence deletedContent) {
-        if (mIgnoreModification) {
+        if (mIgnoreModification || !isUndoEnabled()) {
             return;
         }
+        if (!mReplaceMark && !content.isInBatchEdit() && mStackPointer == mActionStack.size() && mStackPointer > 0) {
+            // Extend the last action directly while deleting with backspace
+            ContentAction last = mActionStack.get(mStackPointer - 1);
+            if (last instanceof DeleteAction && ((DeleteAction) last).canPrepend(endLine, endColumn, startLine, deletedContent.length())) {
+                ((DeleteAction) last).prepend(startLine, startColumn, deletedContent);
+                cleanStack();
+                return;
+            }
+        }
         mDeleteAction = new DeleteAction();
+        mActionCount++;
         mDeleteAction.endColumn = endColumn;
         mDeleteAction.startColumn = startColumn;
         mDeleteAction.endLine = endLine;
         mDeleteAction.startLine = startLine;
-        mDeleteAction.text = deletedContent;
+        mDeleteAction.setText(deletedContent);
         if (!mReplaceMark) {
             pushAction(content, mDeleteAction);
+            mDeleteAction = null;
         }
     }
 
@@ -303,15 +523,103 @@ final class UndoManager implements ContentListener {
     }
 
     /**
-     * Insert action model for UndoManager
+     * Base class of actions with text saved in the buffer of UndoManager
      *
      * @author Rose
      */
-    public static final class InsertAction implements ContentAction {
+    abstract class TextAction implements ContentAction {
 
         public int startLine, endLine, startColumn, endColumn;
 
-        public CharSequence text;
+        int textOffset, textLength;
+        /**
+         * Time of the last edit saved in this action
+         */
+        long time;
+        /**
+         * Whether the text is saved in reversed order
+         */
+        private final boolean reversed;
+
+        TextAction(boolean reversed) {
+            this.reversed = reversed;
+        }
+
+        /**
+         * Get text of this action
+         */
+        public CharSequence getText() {
+            if (!reversed) {
+                return new String(mBuffer, textOffset, textLength);
+            }
+            char[] text = new char[textLength];
+            for (int i = 0; i < textLength; i++) {
+                text[i] = mBuffer[textOffset + textLength - 1 - i];
+            }
+            return new String(text);
+        }
+
+        void setText(CharSequence text) {
+            textOffset = reversed ? appendTextReversed(text)
+                    : UndoManager.this.appendText(text, 0, text.length());
+            textLength = text.length();
+            time = System.currentTimeMillis();
+        }
+
+        /**
+         * Whether text of another action can be added to this action
+         */
+        boolean canMergeText(int singleLine, int otherLine, int otherLength) {
+            return singleLine == otherLine && textLength + otherLength < MAX_MERGE_LENGTH
+                    && System.currentTimeMillis() - time < MERGE_TIMEOUT;
+        }
+
+        /**
+         * Add text to the saved text. It is added after the text of this action, or before
+         * it for reversed actions. The saved text is moved to the end of buffer first if
+         * needed, so a run of edits only appends to the buffer.
+         */
+        void addText(CharSequence text) {
+            if (textOffset + textLength != mBufferLength) {
+                textOffset = moveTextToEnd(textOffset, textLength);
+            }
+            if (reversed) {
+                appendTextReversed(text);
+            } else {
+                UndoManager.this.appendText(text, 0, text.length());
+            }
+            textLength += text.length();
+            time = System.currentTimeMillis();
+        }
+
+        /**
+         * Take the text of another action of the same kind and add it like
+         * {@link #addText(CharSequence)}. The other action is no longer valid after this.
+         */
+        void addText(TextAction other) {
+            if (textOffset + textLength != other.textOffset) {
+                if (textOffset + textLength != mBufferLength) {
+                    textOffset = moveTextToEnd(textOffset, textLength);
+                }
+                moveTextToEnd(other.textOffset, other.textLength);
+            }
+            textLength += other.textLength;
+            time = other.time;
+            mActionCount--;
+        }
+
+    }
+
+    /**
+     * Insert action model for UndoManager
+     *
+     * @author Rose
+     */
+    public final class InsertAction extends TextAction {
+
+        public InsertAction() {
+            super(false);
+        }
 
         @Override
         public void undo(Content content) {
@@ -320,14 +628,27 @@ final class UndoManager implements ContentListener {
 
         @Override
         public void redo(Content content) {
-            content.insert(startLine, startColumn, text);
+            content.insert(startLine, startColumn, getText());
+        }
+
+        /**
+         * Whether an insertion can be appended to this action. Line separators start new actions.
+         */
+        boolean canAppend(int startLine, int startColumn, int endLine, int length) {
+            return startColumn == endColumn && startLine == endLine && canMergeText(startLine, this.endLine, length);
+        }
+
+        void append(int endLine, int endColumn, CharSequence text) {
+            this.endLine = endLine;
+            this.endColumn = endColumn;
+            addText(text);
         }
 
         @Override
         public boolean canMerge(ContentAction action) {
             if (action instanceof InsertAction) {
                 InsertAction ac = (InsertAction) action;
-                return (ac.startColumn == endColumn && ac.startLine == endLine && ac.text.length() + text.length() < 10000);
+                return canAppend(ac.startLine, ac.startColumn, ac.endLine, ac.textLength);
             }
             return false;
         }
@@ -338,16 +659,9 @@ final class UndoManager implements ContentListener {
                 throw new IllegalArgumentException();
             }
             InsertAction ac = (InsertAction) action;
-            this.endColumn = ac.endColumn;
-            this.endLine = ac.endLine;
-            StringBuilder sb;
-            if (text instanceof StringBuilder) {
-                sb = (StringBuilder) text;
-            } else {
-                sb = new StringBuilder(text);
-                text = sb;
-            }
-            sb.append(ac.text);
+            endLine = ac.endLine;
+            endColumn = ac.endColumn;
+            addText(ac);
         }
 
     }
@@ -357,7 +671,7 @@ final class UndoManager implements ContentListener {
      *
      * @author Rose
      */
-    public static final class MultiAction implements ContentAction {
+    public final class MultiAction implements ContentAction {
 
         private final List<ContentAction> _actions = new ArrayList<>();
 
@@ -405,15 +719,15 @@ final class UndoManager implements ContentListener {
      *
      * @author Rose
      */
-    public static final class DeleteAction implements ContentAction {
-
-        public int startLine, endLine, startColumn, endColumn;
+    public final class DeleteAction extends TextAction {
 
-        public CharSequence text;
+        public DeleteAction() {
+            super(true);
+        }
 
         @Override
         public void undo(Content content) {
-            content.insert(startLine, startColumn, text);
+            content.insert(startLine, startColumn, getText());
         }
 
         @Override
@@ -421,11 +735,25 @@ final class UndoManager implements ContentListener {
             content.delete(startLine, startColumn, endLine, endColumn);
         }
 
+        /**
+         * Whether a deletion right before this one can be prepended to this action.
+         * Deletions of line separators start new actions.
+         */
+        boolean canPrepend(int endLine, int endColumn, int startLine, int length) {
+            return endColumn == startColumn && startLine == endLine && canMergeText(endLine, this.startLine, length);
+        }
+
+        void prepend(int startLine, int startColumn, CharSequence text) {
+            this.startLine = startLine;
+            this.startColumn = startColumn;
+            addText(text);
+        }
+
         @Override
         public boolean canMerge(ContentAction action) {
             if (action instanceof DeleteAction) {
                 DeleteAction ac = (DeleteAction) action;
-                return (ac.endColumn == startColumn && ac.endLine == startLine && ac.text.length() + text.length() < 10000);
+                return canPrepend(ac.endLine, ac.endColumn, ac.startLine, ac.textLength);
             }
             return false;
         }
@@ -436,16 +764,9 @@ final class UndoManager implements ContentListener {
                 throw new IllegalArgumentException();
             }
             DeleteAction ac = (DeleteAction) action;
-            this.startColumn = ac.startColumn;
-            this.startLine = ac.startLine;
-            StringBuilder sb;
-            if (text instanceof StringBuilder) {
-                sb = (StringBuilder) text;
-            } else {
-                sb = new StringBuilder(text);
-                text = sb;
-            }
-            sb.insert(0, ac.text);
+            startLine = ac.startLine;
+            startColumn = ac.startColumn;
+            addText(ac);
         }
 
     }
@@ -455,7 +776,7 @@ final class UndoManager implements ContentListener {
      *
      * @author Rose
      */
-    public static final class ReplaceAction implements ContentAction {
+    public final class ReplaceAction implements ContentAction {
 
         public InsertAction _insert;
         public DeleteAction _delete;
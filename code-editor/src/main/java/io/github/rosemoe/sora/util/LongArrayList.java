@@ -54,8 +54,34 @@ public class LongArrayList {
         return data[index];
     }
 
+    public void set(int index, long value) {
+        if (index >= length || index < 0) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        data[index] = value;
+    }
+
     public void clear() {
         length = 0;
     }
 
+    /**
+     * Remove the last element
+     */
+    public void removeLast() {
+        if (length == 0) {
+            throw new ArrayIndexOutOfBoundsException(-1);
+        }
+        length--;
+    }
+
+    /**
+     * Copy the elements into a new array of exactly {@link #size()} elements
+     */
+    public long[] toArray() {
+        long[] array = new long[length];
+        System.arraycopy(data, 0, array, 0, length);
+        return array;
+    }
+
 }
@@ -0,0 +1,347 @@
+/*
+ *    CodeEditor - the awesome code editor for Android
+ *    Copyright (C) 2020-2021  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.util;
+
+import java.util.Arrays;
+
+/**
+ * List of non-negative int values that answers prefix sums
+ *
+ * Values are saved in blocks of limited size. Every block keeps the prefix sums of its values,
+ * and the first index and prefix sum of every block are kept in another level. Both levels are
+ * computed lazily from the first position modified since the last query, so querying a prefix
+ * sum or the index containing a sum is two binary searches, and inserting or removing values
+ * only moves the values in the affected blocks.
+ *
+ * @author Rose
+ */
+public class PrefixSumList {
+
+    private static final int BLOCK_CAPACITY = 256;
+
+    private final ArrayList<Block> mBlocks = new ArrayList<>();
+    /**
+     * First index and prefix sum of each block
+     */
+    private int[] mBlockIndices = new int[16];
+    private long[] mBlockSums = new long[16];
+    /**
+     * Count of blocks at the start whose value in mBlockIndices and mBlockSums is up to date
+     */
+    private int mValidBlocks;
+    private int mSize;
+    private long mSum;
+
+    public PrefixSumList() {
+        mBlocks.add(new Block());
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Get the sum of all values
+     */
+    public long sum() {
+        return mSum;
+    }
+
+    public int get(int index) {
+        checkIndex(index);
+        int blockIndex = findBlockByIndex(index);
+        return mBlocks.get(blockIndex).values[index - mBlockIndices[blockIndex]];
+    }
+
+    public void set(int index, int value) {
+        checkIndex(index);
+        int blockIndex = findBlockByIndex(index);
+        Block block = mBlocks.get(blockIndex);
+        int i = index - mBlockIndices[blockIndex];
+        int delta = value - block.values[i];
+        if (delta != 0) {
+            block.values[i] = value;
+            block.sum += delta;
+            block.invalidateFrom(i + 1);
+            mSum += delta;
+            invalidateFrom(blockIndex);
+        }
+    }
+
+    /**
+     * Get the sum of values in [0, index)
+     */
+    public long prefix(int index) {
+        if (index < 0 || index > mSize) {
+            throw new IndexOutOfBoundsException("index = " + index + ", size = " + mSize);
+        }
+        if (index == mSize) {
+            return mSum;
+        }
+        int blockIndex = findBlockByIndex(index);
+        return mBlockSums[blockIndex] + mBlocks.get(blockIndex).getPrefix(index - mBlockIndices[blockIndex]);
+    }
+
+    /**
+     * Find the largest index whose prefix sum is not greater than the given sum.
+     * If the values are all positive, this is the index whose range contains the sum.
+     */
+    public int find(long sum) {
+        if (mSize == 0) {
+            return -1;
+        }
+        ensureBlockStarts();
+        int low = 0, high = mBlocks.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mBlockSums[mid] <= sum) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return mBlockIndices[low] + mBlocks.get(low).find(sum - mBlockSums[low]);
+    }
+
+    public void add(int value) {
+        insert(mSize, new int[]{value}, 0, 1);
+    }
+
+    /**
+     * Insert values in the given array before the given index
+     */
+    public void insert(int index, int[] values, int offset, int count) {
+        if (index < 0 || index > mSize) {
+            throw new IndexOutOfBoundsException("index = " + index + ", size = " + mSize);
+        }
+        if (count == 0) {
+            return;
+        }
+        int blockIndex = index == mSize ? mBlocks.size() - 1 : findBlockByIndex(index);
+        ensureBlockStarts();
+        Block block = mBlocks.get(blockIndex);
+        int i = index - mBlockIndices[blockIndex];
+        invalidateFrom(blockIndex);
+        mSize += count;
+        for (int k = 0; k < count; k++) {
+            mSum += values[offset + k];
+        }
+        if (block.size + count <= BLOCK_CAPACITY) {
+            block.insert(i, values, offset, count);
+            return;
+        }
+        // Split the block at the insertion point and put new values into new blocks
+        Block tail = new Block();
+        tail.insert(0, block.values, i, block.size - i);
+        block.removeRange(i, block.size);
+        ArrayList<Block> newBlocks = new ArrayList<>(count / BLOCK_CAPACITY + 2);
+        int pos = 0;
+        if (block.size < BLOCK_CAPACITY) {
+            int n = Math.min(count, BLOCK_CAPACITY - block.size);
+            block.insert(block.size, values, offset, n);
+            pos = n;
+        }
+        while (pos < count) {
+            Block newBlock = new Block();
+            int n = Math.min(count - pos, BLOCK_CAPACITY);
+            newBlock.insert(0, values, offset + pos, n);
+            newBlocks.add(newBlock);
+            pos += n;
+        }
+        Block last = newBlocks.isEmpty() ? block : newBlocks.get(newBlocks.size() - 1);
+        int n = Math.min(tail.size, BLOCK_CAPACITY - last.size);
+        last.insert(last.size, tail.values, 0, n);
+        tail.removeRange(0, n);
+        if (tail.size > 0) {
+            newBlocks.add(tail);
+        }
+        mBlocks.addAll(blockIndex + 1, newBlocks);
+    }
+
+    /**
+     * Remove values in [fromIndex, toIndex)
+     */
+    public void remove(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > mSize || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("from = " + fromIndex + ", to = " + toIndex + ", size = " + mSize);
+        }
+        if (fromIndex == toIndex) {
+            return;
+        }
+        int blockIndex = findBlockByIndex(fromIndex);
+        invalidateFrom(blockIndex);
+        int first = blockIndex;
+        int remaining = toIndex - fromIndex;
+        int i = fromIndex - mBlockIndices[blockIndex];
+        mSize -= remaining;
+        while (remaining > 0) {
+            Block block = mBlocks.get(blockIndex);
+            int n = Math.min(remaining, block.size - i);
+            mSum -= block.removeRange(i, i + n);
+            remaining -= n;
+            if (block.size == 0 && mBlocks.size() > 1) {
+                mBlocks.remove(blockIndex);
+            } else {
+                blockIndex++;
+            }
+            i = 0;
+        }
+        // Avoid leaving many small blocks behind
+        if (first + 1 < mBlocks.size()) {
+            Block block = mBlocks.get(first);
+            Block next = mBlocks.get(first + 1);
+            if (block.size + next.size <= BLOCK_CAPACITY) {
+                block.insert(block.size, next.values, 0, next.size);
+                mBlocks.remove(first + 1);
+            }
+        }
+    }
+
+    public void clear() {
+        mBlocks.clear();
+        mBlocks.add(new Block());
+        mValidBlocks = 0;
+        mSize = 0;
+        mSum = 0;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("index = " + index + ", size = " + mSize);
+        }
+    }
+
+    private int findBlockByIndex(int index) {
+        ensureBlockStarts();
+        int low = 0, high = mBlocks.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mBlockIndices[mid] <= index) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private void ensureBlockStarts() {
+        int count = mBlocks.size();
+        if (mValidBlocks >= count) {
+            return;
+        }
+        if (mBlockIndices.length < count) {
+            int newLength = Math.max(count, mBlockIndices.length * 2);
+            mBlockIndices = Arrays.copyOf(mBlockIndices, newLength);
+            mBlockSums = Arrays.copyOf(mBlockSums, newLength);
+        }
+        for (int i = Math.max(mValidBlocks, 1); i < count; i++) {
+            Block previous = mBlocks.get(i - 1);
+            mBlockIndices[i] = mBlockIndices[i - 1] + previous.size;
+            mBlockSums[i] = mBlockSums[i - 1] + previous.sum;
+        }
+        mValidBlocks = count;
+    }
+
+    private void invalidateFrom(int blockIndex) {
+        // The first block always starts at zero
+        mValidBlocks = Math.max(1, Math.min(mValidBlocks, blockIndex + 1));
+    }
+
+    private static class Block {
+
+        final int[] values = new int[BLOCK_CAPACITY];
+        /**
+         * Sum of values before each index in this block
+         */
+        final long[] prefixes = new long[BLOCK_CAPACITY];
+        /**
+         * Count of values at the start whose value in prefixes is up to date
+         */
+        int validPrefixes;
+        int size;
+        long sum;
+
+        void insert(int index, int[] src, int srcPos, int count) {
+            System.arraycopy(values, index, values, index + count, size - index);
+            System.arraycopy(src, srcPos, values, index, count);
+            for (int i = 0; i < count; i++) {
+                sum += src[srcPos + i];
+            }
+            size += count;
+            invalidateFrom(index);
+        }
+
+        /**
+         * @return Sum of removed values
+         */
+        long removeRange(int from, int to) {
+            long removed = 0;
+            for (int i = from; i < to; i++) {
+                removed += values[i];
+            }
+            System.arraycopy(values, to, values, from, size - to);
+            size -= to - from;
+            sum -= removed;
+            invalidateFrom(from);
+            return removed;
+        }
+
+        void invalidateFrom(int index) {
+            validPrefixes = Math.max(1, Math.min(validPrefixes, index));
+        }
+
+        void ensurePrefixes(int index) {
+            for (int i = Math.max(validPrefixes, 1); i <= index; i++) {
+                prefixes[i] = prefixes[i - 1] + values[i - 1];
+            }
+            validPrefixes = Math.max(validPrefixes, index + 1);
+        }
+
+        long getPrefix(int index) {
+            if (index >= validPrefixes) {
+                ensurePrefixes(index);
+            }
+            return prefixes[index];
+        }
+
+        /**
+         * Find the largest index in this block whose prefix is not greater than the given sum
+         */
+        int find(long sum) {
+            ensurePrefixes(size - 1);
+            int low = 0, high = size - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (prefixes[mid] <= sum) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+    }
+
+}
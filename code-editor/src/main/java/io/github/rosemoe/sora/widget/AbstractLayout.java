@@ -25,6 +25,7 @@ package io.github.rosemoe.sora.widget;
 import android.graphics.Paint;
 
 import io.github.rosemoe.sora.text.Content;
+import io.github.rosemoe.sora.text.ContentLine;
 import io.github.rosemoe.sora.graphics.FontCache;
 
 /**
@@ -48,6 +49,24 @@ abstract class AbstractLayout implements Layout {
     }
 
     protected float measureText(CharSequence text, int start, int end) {
+        if (text instanceof ContentLine) {
+            return editor.getAdvanceCache().measure((ContentLine) text, start, Math.min(text.length(), end));
+        }
+        return measureText(text, start, end, shadowPaint, fontCache, editor.getTabWidth());
+    }
+
+    /**
+     * Measure the whole line without keeping its advances in cache, for measuring many lines
+     */
+    protected float measureLineWidth(ContentLine line) {
+        return editor.getAdvanceCache().computeAdvances(line)[line.length()];
+    }
+
+    /**
+     * Measure text with the given paint and cache, so that it can be called from threads
+     * other than the UI thread with their own objects
+     */
+    protected static float measureText(CharSequence text, int start, int end, Paint paint, FontCache fontCache, int tabWidth) {
         int tabCount = 0;
         end = Math.min(text.length(), end);
         for (int i = start; i < end; i++) {
@@ -55,11 +74,14 @@ abstract class AbstractLayout implements Layout {
                 tabCount++;
             }
         }
-        float extraWidth = fontCache.measureChar(' ', shadowPaint) * editor.getTabWidth() - fontCache.measureChar('\t', shadowPaint);
-        return fontCache.measureText(text, start, end, shadowPaint) + tabCount * extraWidth;
+        float extraWidth = fontCache.measureChar(' ', paint) * tabWidth - fontCache.measureChar('\t', paint);
+        return fontCache.measureText(text, start, end, paint) + tabCount * extraWidth;
     }
 
     protected float[] orderedFindCharIndex(float targetOffset, CharSequence str, int index, int end) {
+        if (str instanceof ContentLine) {
+            return editor.getAdvanceCache().findColumn((ContentLine) str, index, end, targetOffset);
+        }
         float width = 0f;
         while (index < end && width < targetOffset) {
             float single = fontCache.measureChar(str.charAt(index), shadowPaint);
@@ -73,6 +95,9 @@ abstract class AbstractLayout implements Layout {
     }
 
     protected float[] orderedFindCharIndex(float targetOffset, CharSequence str) {
+        if (str instanceof ContentLine) {
+            return editor.getAdvanceCache().findColumn((ContentLine) str, 0, str.length(), targetOffset);
+        }
         float width = 0f;
         int index = 0;
         int length = str.length();
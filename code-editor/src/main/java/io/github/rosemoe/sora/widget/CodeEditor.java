@@ -78,8 +78,8 @@ import java.io.File;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 
 import io.github.rosemoe.sora.R;
 import io.github.rosemoe.sora.annotations.Experimental;
@@ -88,6 +88,7 @@ import io.github.rosemoe.sora.data.CompletionItem;
 import io.github.rosemoe.sora.data.Span;
 import io.github.rosemoe.sora.graphics.BufferedDrawPoints;
 import io.github.rosemoe.sora.graphics.FontCache;
+import io.github.rosemoe.sora.graphics.LineAdvanceCache;
 import io.github.rosemoe.sora.interfaces.EditorEventListener;
 import io.github.rosemoe.sora.interfaces.EditorLanguage;
 import io.github.rosemoe.sora.interfaces.EditorTextActionPresenter;
@@ -102,6 +103,7 @@ import io.github.rosemoe.sora.text.ContentListener;
 import io.github.rosemoe.sora.text.Cursor;
 import io.github.rosemoe.sora.text.FormatThread;
 import io.github.rosemoe.sora.text.LineRemoveListener;
+import io.github.rosemoe.sora.text.PackedSpanList;
 import io.github.rosemoe.sora.text.SpanMapUpdater;
 import io.github.rosemoe.sora.text.TextAnalyzeResult;
 import io.github.rosemoe.sora.text.TextAnalyzer;
@@ -248,7 +250,10 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
     private Paint mPaint;
     private Paint mPaintOther;
     private Paint mPaintGraph;
+    private Paint mPaintStats;
     private char[] mBuffer;
+    private ContentLine mBufferLine;
+    private LineAdvanceCache mAdvanceCache;
     private Matrix mMatrix;
     private Rect mViewRect;
     private EditorColorScheme mColors;
@@ -276,8 +281,14 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
     private CursorBlink mCursorBlink;
     private SymbolPairMatch mOverrideSymbolPairs;
     private final LongArrayList mPostDrawLineNumbers = new LongArrayList();
+    /**
+     * Reused to read spans while drawing, so packed spans are not converted to objects
+     */
+    private final Span mSpanBuffer = Span.obtain(0, EditorColorScheme.TEXT_NORMAL);
     private CharPosition mLockedSelection;
     private BufferedDrawPoints mDrawPoints;
+    private final RenderStats mRenderStats = new RenderStats();
+    private boolean mRenderStatsShown;
     private HwAcceleratedRenderer mRenderer;
     KeyMetaStates mKeyMetaStates = new KeyMetaStates(this);
 
@@ -469,6 +480,7 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
         mPaint = new Paint();
         mPaintOther = new Paint();
         mPaintGraph = new Paint();
+        mAdvanceCache = new LineAdvanceCache(mPaint, mFontCache);
         mMatrix = new Matrix();
         mPath = new Path();
         mSearcher = new EditorSearcher(this);
@@ -1018,6 +1030,7 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
         mLineNumberMetrics = mPaintOther.getFontMetricsInt();
         mGraphMetrics = mPaintGraph.getFontMetricsInt();
         mFontCache.clearCache();
+        mAdvanceCache.clear();
         invalidateHwRenderer();
     }
 
@@ -1076,7 +1089,9 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
         List<CursorPaintAction> postDrawCursor = new ArrayList<>();
         MutableInt firstLn = isFirstLineNumberAlwaysVisible() && isWordwrap() ? new MutableInt(-1) : null;
 
+        long startTime = mRenderStats.start();
         drawRows(canvas, textOffset, postDrawLineNumbers, postDrawCursor, postDrawCurrentLines, firstLn);
+        mRenderStats.end(RenderStats.SECTION_DRAW_ROWS, startTime);
 
         offsetX = -getOffsetX();
 
@@ -1118,7 +1133,9 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
         }
 
         if (!isWordwrap() && isBlockLineEnabled()) {
+            startTime = mRenderStats.start();
             drawBlockLines(canvas, textOffset);
+            mRenderStats.end(RenderStats.SECTION_DRAW_BLOCK_LINES, startTime);
         }
 
         for (CursorPaintAction action : postDrawCursor) {
@@ -1187,6 +1204,58 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
         return mHardwareAccAllowed;
     }
 
+    /**
+     * Get the frame time and counters of the editor.
+     * Values are only collected when {@link #setRenderStatsEnabled(boolean)} is set.
+     */
+    @Experimental
+    public RenderStats getRenderStats() {
+        return mRenderStats;
+    }
+
+    /**
+     * Set whether the editor collects frame time and counters in {@link #getRenderStats()}.
+     * This adds a small overhead to drawing, and allocation counting of the runtime is started
+     * while it is enabled.
+     */
+    @Experimental
+    public void setRenderStatsEnabled(boolean enabled) {
+        mRenderStats.setEnabled(enabled);
+        if (!enabled) {
+            mRenderStatsShown = false;
+        }
+        invalidate();
+    }
+
+    /**
+     * @see #setRenderStatsEnabled(boolean)
+     */
+    @Experimental
+    public boolean isRenderStatsEnabled() {
+        return mRenderStats.isEnabled();
+    }
+
+    /**
+     * Set whether to show an overlay with the values of {@link #getRenderStats()}.
+     * Showing it enables collecting the values.
+     */
+    @Experimental
+    public void setRenderStatsShown(boolean shown) {
+        if (shown) {
+            mRenderStats.setEnabled(true);
+        }
+        mRenderStatsShown = shown;
+        invalidate();
+    }
+
+    /**
+     * @see #setRenderStatsShown(boolean)
+     */
+    @Experimental
+    public boolean isRenderStatsShown() {
+        return mRenderStatsShown;
+    }
+
     @RequiresApi(29)
     protected void updateBoringLineDisplayList(RenderNode renderNode, int line, List<Span> spans) {
         final float waveLength = getDpUnit() * 8;
@@ -1197,17 +1266,18 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
         renderNode.setPosition(0, 0, (int)widthLine, getRowHeight() + (int)amplitude);
         Canvas canvas = renderNode.beginRecording();
         if (spans == null || spans.size() == 0) {
-            spans = new LinkedList<>();
-            spans.add(Span.obtain(0, EditorColorScheme.TEXT_NORMAL));
+            PackedSpanList emptySpans = new PackedSpanList(1);
+            emptySpans.addPacked(0, EditorColorScheme.TEXT_NORMAL);
+            spans = emptySpans;
         }
         int spanOffset = 0;
         float paintingOffset = 0;
         int row = 0;
         float phi = 0f;
-        Span span = spans.get(spanOffset);
+        Span span = PackedSpanList.read(spans, spanOffset, mSpanBuffer);
         // Draw by spans
         while (columnCount > span.column) {
-            int spanEnd = spanOffset + 1 >= spans.size() ? columnCount : spans.get(spanOffset + 1).column;
+            int spanEnd = spanOffset + 1 >= spans.size() ? columnCount : PackedSpanList.getColumn(spans, spanOffset + 1);
             spanEnd = Math.min(columnCount, spanEnd);
             int paintStart = span.column;
             int paintEnd = Math.min(columnCount, spanEnd);
@@ -1309,7 +1379,7 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
             }
             spanOffset++;
             if (spanOffset < spans.size()) {
-                span = spans.get(spanOffset);
+                span = PackedSpanList.read(spans, spanOffset, mSpanBuffer);
             } else {
                 spanOffset--;
             }
@@ -1323,7 +1393,7 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
         RowIterator rowIterator = mLayout.obtainRowIterator(getFirstVisibleRow());
         List<Span> temporaryEmptySpans = null;
         List<List<Span>> spanMap = mSpanner.getResult().getSpanMap();
-        List<Integer> matchedPositions = new ArrayList<>();
+        LongArrayList matchedPositions = new LongArrayList();
         int currentLine = mCursor.isSelected() ? -1 : mCursor.getLeftLine();
         int currentLineBgColor = mColors.getColor(EditorColorScheme.CURRENT_LINE);
         int lastPreparedLine = -1;
@@ -1378,10 +1448,9 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
             }
 
             // Draw matched text background
-            if (!matchedPositions.isEmpty()) {
-                for (int position : matchedPositions) {
-                    drawRowRegionBackground(canvas, paintingOffset, row, firstVisibleChar, lastVisibleChar, position, position + mSearcher.mSearchText.length(), mColors.getColor(EditorColorScheme.MATCHED_TEXT_BACKGROUND));
-                }
+            for (int i = 0; i < matchedPositions.size(); i++) {
+                long position = matchedPositions.get(i);
+                drawRowRegionBackground(canvas, paintingOffset, row, firstVisibleChar, lastVisibleChar, IntPair.getFirst(position), IntPair.getSecond(position), mColors.getColor(EditorColorScheme.MATCHED_TEXT_BACKGROUND));
             }
 
             // Draw selected text background
@@ -1450,22 +1519,24 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
                 if (line < spanMap.size() && line >= 0) {
                     spans = spanMap.get(line);
                 }
+                mRenderStats.count(RenderStats.COUNTER_SPAN_LOOKUP);
                 if (spans == null || spans.size() == 0) {
                     if (temporaryEmptySpans == null) {
-                        temporaryEmptySpans = new LinkedList<>();
-                        temporaryEmptySpans.add(Span.obtain(0, EditorColorScheme.TEXT_NORMAL));
+                        PackedSpanList emptySpans = new PackedSpanList(1);
+                        emptySpans.addPacked(0, EditorColorScheme.TEXT_NORMAL);
+                        temporaryEmptySpans = emptySpans;
                     }
                     spans = temporaryEmptySpans;
                 }
                 // Seek for first span
                 float phi = 0f;
                 while (spanOffset + 1 < spans.size()) {
-                    if (spans.get(spanOffset + 1).column <= firstVisibleChar) {
+                    if (PackedSpanList.getColumn(spans, spanOffset + 1) <= firstVisibleChar) {
                         // Update phi
-                        Span span = spans.get(spanOffset);
+                        Span span = PackedSpanList.read(spans, spanOffset, mSpanBuffer);
                         if (span.problemFlags > 0 && Integer.highestOneBit(span.problemFlags) != Span.FLAG_DEPRECATED) {
                             float lineWidth;
-                            int spanEnd = Math.min(rowInf.endColumn, spans.get(spanOffset + 1).column);
+                            int spanEnd = Math.min(rowInf.endColumn, PackedSpanList.getColumn(spans, spanOffset + 1));
                             if (isWordwrap()) {
                                 lineWidth = measureText(mBuffer, Math.max(firstVisibleChar, span.column), spanEnd - Math.max(firstVisibleChar, span.column)) + phi;
                             } else {
@@ -1481,10 +1552,10 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
                         break;
                     }
                 }
-                Span span = spans.get(spanOffset);
+                Span span = PackedSpanList.read(spans, spanOffset, mSpanBuffer);
                 // Draw by spans
                 while (lastVisibleChar > span.column) {
-                    int spanEnd = spanOffset + 1 >= spans.size() ? columnCount : spans.get(spanOffset + 1).column;
+                    int spanEnd = spanOffset + 1 >= spans.size() ? columnCount : PackedSpanList.getColumn(spans, spanOffset + 1);
                     spanEnd = Math.min(columnCount, spanEnd);
                     int paintStart = Math.max(firstVisibleChar, span.column);
                     if (paintStart >= columnCount) {
@@ -1599,7 +1670,7 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
                     }
                     spanOffset++;
                     if (spanOffset < spans.size()) {
-                        span = spans.get(spanOffset);
+                        span = PackedSpanList.read(spans, spanOffset, mSpanBuffer);
                     } else {
                         spanOffset--;
                     }
@@ -1619,6 +1690,7 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
 
             // Draw non-printable characters
             if (circleRadius != 0f && (leadingWhitespaceEnd != columnCount || (mNonPrintableOptions & FLAG_DRAW_WHITESPACE_FOR_EMPTY_LINE) != 0)) {
+                long whitespaceStart = mRenderStats.start();
                 if ((mNonPrintableOptions & FLAG_DRAW_WHITESPACE_LEADING) != 0) {
                     drawWhitespaces(canvas, paintingOffset, row, firstVisibleChar, lastVisibleChar, 0, leadingWhitespaceEnd, circleRadius);
                 }
@@ -1628,6 +1700,7 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
                 if ((mNonPrintableOptions & FLAG_DRAW_WHITESPACE_TRAILING) != 0) {
                     drawWhitespaces(canvas, paintingOffset, row, firstVisibleChar, lastVisibleChar, trailingWhitespaceStart, columnCount, circleRadius);
                 }
+                mRenderStats.end(RenderStats.SECTION_DRAW_WHITESPACES, whitespaceStart);
             }
 
             // Draw composing text underline
@@ -1681,7 +1754,7 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
         RowIterator rowIterator = mLayout.obtainRowIterator(getFirstVisibleRow());
         List<Span> temporaryEmptySpans = null;
         List<List<Span>> spanMap = mSpanner.getResult().getSpanMap();
-        List<Integer> matchedPositions = new ArrayList<>();
+        LongArrayList matchedPositions = new LongArrayList();
         int currentLine = mCursor.isSelected() ? -1 : mCursor.getLeftLine();
         int currentLineBgColor = mColors.getColor(EditorColorScheme.CURRENT_LINE);
         int lastPreparedLine = -1;
@@ -1736,10 +1809,9 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
             }
 
             // Draw matched text background
-            if (!matchedPositions.isEmpty()) {
-                for (int position : matchedPositions) {
-                    drawRowRegionBackground(canvas, paintingOffset, row, firstVisibleChar, lastVisibleChar, position, position + mSearcher.mSearchText.length(), mColors.getColor(EditorColorScheme.MATCHED_TEXT_BACKGROUND));
-                }
+            for (int i = 0; i < matchedPositions.size(); i++) {
+                long position = matchedPositions.get(i);
+                drawRowRegionBackground(canvas, paintingOffset, row, firstVisibleChar, lastVisibleChar, IntPair.getFirst(position), IntPair.getSecond(position), mColors.getColor(EditorColorScheme.MATCHED_TEXT_BACKGROUND));
             }
 
             // Draw selected text background
@@ -1810,20 +1882,21 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
                 }
                 if (spans == null || spans.size() == 0) {
                     if (temporaryEmptySpans == null) {
-                        temporaryEmptySpans = new LinkedList<>();
-                        temporaryEmptySpans.add(Span.obtain(0, EditorColorScheme.TEXT_NORMAL));
+                        PackedSpanList emptySpans = new PackedSpanList(1);
+                        emptySpans.addPacked(0, EditorColorScheme.TEXT_NORMAL);
+                        temporaryEmptySpans = emptySpans;
                     }
                     spans = temporaryEmptySpans;
                 }
                 // Seek for first span
                 float phi = 0f;
                 while (spanOffset + 1 < spans.size()) {
-                    if (spans.get(spanOffset + 1).column <= firstVisibleChar) {
+                    if (PackedSpanList.getColumn(spans, spanOffset + 1) <= firstVisibleChar) {
                         // Update phi
-                        Span span = spans.get(spanOffset);
+                        Span span = PackedSpanList.read(spans, spanOffset, mSpanBuffer);
                         if (span.problemFlags > 0 && Integer.highestOneBit(span.problemFlags) != Span.FLAG_DEPRECATED) {
                             float lineWidth;
-                            int spanEnd = Math.min(rowInf.endColumn, spans.get(spanOffset + 1).column);
+                            int spanEnd = Math.min(rowInf.endColumn, PackedSpanList.getColumn(spans, spanOffset + 1));
                             if (isWordwrap()) {
                                 lineWidth = measureText(mBuffer, Math.max(firstVisibleChar, span.column), spanEnd - Math.max(firstVisibleChar, span.column)) + phi;
                             } else {
@@ -1839,10 +1912,10 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
                         break;
                     }
                 }
-                Span span = spans.get(spanOffset);
+                Span span = PackedSpanList.read(spans, spanOffset, mSpanBuffer);
                 // Draw by spans
                 while (lastVisibleChar > span.column) {
-                    int spanEnd = spanOffset + 1 >= spans.size() ? columnCount : spans.get(spanOffset + 1).column;
+                    int spanEnd = spanOffset + 1 >= spans.size() ? columnCount : PackedSpanList.getColumn(spans, spanOffset + 1);
                     spanEnd = Math.min(columnCount, spanEnd);
                     int paintStart = Math.max(firstVisibleChar, span.column);
                     if (paintStart >= columnCount) {
@@ -1957,7 +2030,7 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
                     }
                     spanOffset++;
                     if (spanOffset < spans.size()) {
-                        span = spans.get(spanOffset);
+                        span = PackedSpanList.read(spans, spanOffset, mSpanBuffer);
                     } else {
                         spanOffset--;
                     }
@@ -2121,23 +2194,10 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
      * Get matched text regions on line
      *
      * @param line      Target line
-     * @param positions Outputs start positions
+     * @param positions Outputs (start, end) columns of regions, packed by {@link IntPair}
      */
-    protected void computeMatchedPositions(int line, List<Integer> positions) {
-        positions.clear();
-        CharSequence pattern = mSearcher.mSearchText;
-        if (pattern == null || pattern.length() == 0) {
-            return;
-        }
-        ContentLine seq = mText.getLine(line);
-        int index = 0;
-        while (index != -1) {
-            index = seq.indexOf(pattern, index);
-            if (index != -1) {
-                positions.add(index);
-                index += pattern.length();
-            }
-        }
+    protected void computeMatchedPositions(int line, LongArrayList positions) {
+        mSearcher.computeMatches(line, positions);
     }
 
     /**
@@ -2486,6 +2546,50 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
         mTextMetrics = backupMetrics;
     }
 
+    /**
+     * Draw the values of last frame in {@link #getRenderStats()} at the top right corner
+     *
+     * @param canvas Canvas to draw
+     */
+    protected void drawRenderStats(Canvas canvas) {
+        RenderStats stats = mRenderStats;
+        String[] lines = {
+                String.format(Locale.ROOT, "frame %.2fms (avg %.2f, max %.2f)", stats.getFrameTime() / 1e6, stats.getAverageFrameTime() / 1e6, stats.getMaxFrameTime() / 1e6),
+                String.format(Locale.ROOT, "drawRows %.2fms", stats.getSectionTime(RenderStats.SECTION_DRAW_ROWS) / 1e6),
+                String.format(Locale.ROOT, "drawBlockLines %.2fms", stats.getSectionTime(RenderStats.SECTION_DRAW_BLOCK_LINES) / 1e6),
+                String.format(Locale.ROOT, "drawWhitespaces %.2fms", stats.getSectionTime(RenderStats.SECTION_DRAW_WHITESPACES) / 1e6),
+                String.format(Locale.ROOT, "measure %.2fms x%d", stats.getSectionTime(RenderStats.SECTION_MEASURE_TEXT) / 1e6, stats.getSectionCalls(RenderStats.SECTION_MEASURE_TEXT)),
+                "spans " + stats.getCount(RenderStats.COUNTER_SPAN_LOOKUP),
+                "nodes hit " + stats.getCount(RenderStats.COUNTER_RENDER_NODE_HIT) + " miss " + stats.getCount(RenderStats.COUNTER_RENDER_NODE_MISS),
+                "alloc " + stats.getAllocations()
+        };
+        if (mPaintStats == null) {
+            mPaintStats = new Paint();
+            mPaintStats.setAntiAlias(true);
+            mPaintStats.setTypeface(Typeface.MONOSPACE);
+        }
+        Paint paint = mPaintStats;
+        paint.setTextSize(getLineInfoTextSize());
+        Paint.FontMetrics metrics = paint.getFontMetrics();
+        float lineHeight = metrics.descent - metrics.ascent;
+        float textWidth = 0;
+        for (String line : lines) {
+            textWidth = Math.max(textWidth, paint.measureText(line));
+        }
+        float expand = mDpUnit * 3;
+        mRect.right = getWidth() - expand;
+        mRect.left = mRect.right - textWidth - expand * 2;
+        mRect.top = expand;
+        mRect.bottom = mRect.top + lineHeight * lines.length + expand * 2;
+        drawColor(canvas, 0xc0000000, mRect);
+        paint.setColor(Color.WHITE);
+        float baseline = mRect.top + expand - metrics.ascent;
+        for (String line : lines) {
+            canvas.drawText(line, mRect.left + expand, baseline, paint);
+            baseline += lineHeight;
+        }
+    }
+
     /**
      * Draw horizontal scroll bar track
      *
@@ -2681,6 +2785,12 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
      * @return The width measured
      */
     protected float measureText(char[] src, int index, int count) {
+        long startTime = mRenderStats.start();
+        if (src == mBuffer && mBufferLine != null && index + count <= mBufferLine.length()) {
+            float width = mAdvanceCache.measure(mBufferLine, index, index + count);
+            mRenderStats.end(RenderStats.SECTION_MEASURE_TEXT, startTime);
+            return width;
+        }
         int tabCount = 0;
         for (int i = 0; i < count; i++) {
             if (src[index + i] == '\t') {
@@ -2688,7 +2798,9 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
             }
         }
         float extraWidth = mFontCache.measureChar(' ', mPaint) * getTabWidth() - mFontCache.measureChar('\t', mPaint);
-        return mFontCache.measureText(src, index, index + count, mPaint) + tabCount * extraWidth;
+        float width = mFontCache.measureText(src, index, index + count, mPaint) + tabCount * extraWidth;
+        mRenderStats.end(RenderStats.SECTION_MEASURE_TEXT, startTime);
+        return width;
     }
 
     /**
@@ -2700,6 +2812,12 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
      * @return The width measured
      */
     protected float measureText(CharSequence text, int index, int count) {
+        long startTime = mRenderStats.start();
+        if (text instanceof ContentLine) {
+            float width = mAdvanceCache.measure((ContentLine) text, index, index + count);
+            mRenderStats.end(RenderStats.SECTION_MEASURE_TEXT, startTime);
+            return width;
+        }
         int tabCount = 0;
         for (int i = 0; i < count; i++) {
             if (text.charAt(index + i) == '\t') {
@@ -2707,7 +2825,9 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
             }
         }
         float extraWidth = mFontCache.measureChar(' ', mPaint) * getTabWidth() - mFontCache.measureChar('\t', mPaint);
-        return mFontCache.measureText(text, index, index + count, mPaint) + tabCount * extraWidth;
+        float width = mFontCache.measureText(text, index, index + count, mPaint) + tabCount * extraWidth;
+        mRenderStats.end(RenderStats.SECTION_MEASURE_TEXT, startTime);
+        return width;
     }
 
     /**
@@ -2748,6 +2868,10 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
     protected float[] findFirstVisibleChar(float initialPosition, int left, int right, char[] chars) {
         float width = 0f;
         float target = mFontCache.measureChar(' ', mPaint) * getTabWidth() * 1.1f;
+        if (chars == mBuffer && mBufferLine != null && right <= mBufferLine.length()) {
+            float[] result = mAdvanceCache.findColumn(mBufferLine, left, right, -target - initialPosition);
+            return new float[]{result[0], initialPosition + result[1]};
+        }
         while (left < right && initialPosition + width < -target) {
             float single = mFontCache.measureChar(chars[left], mPaint);
             if (chars[left] == '\t') {
@@ -2770,7 +2894,8 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
             mBuffer = new char[length + 100];
         }
         mText.getLineChars(line, mBuffer);*/
-        mBuffer = mText.getLine(line).getRawData();
+        mBufferLine = mText.getLine(line);
+        mBuffer = mBufferLine.getRawData();
     }
 
     /**
@@ -3357,6 +3482,9 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
             throw new IllegalArgumentException("width can not be under 1");
         }
         mTabWidth = width;
+        if (mAdvanceCache != null) {
+            mAdvanceCache.setTabWidth(width);
+        }
         if (mCursor != null) {
             mCursor.setTabWidth(mTabWidth);
         }
@@ -3683,6 +3811,7 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
         }
         mPaint.setTypeface(typefaceText);
         mFontCache.clearCache();
+        mAdvanceCache.clear();
         if (2 * mPaint.measureText("/") != mPaint.measureText("//")) {
             Log.w(LOG_TAG, "Font issue:Your font is painting '/' and '//' differently, which will cause the editor to render slowly than other fonts.");
             mCharPaint = true;
@@ -4255,6 +4384,7 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
             mText.setLineListener(null);
         }
         mText = new Content(text);
+        mAdvanceCache.clear();
         mCursor = mText.getCursor();
         mCursor.setAutoIndent(mAutoIndentEnabled);
         mCursor.setLanguage(mLanguage);
@@ -4284,6 +4414,7 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
         }
         createLayout();
         invalidateHwRenderer();
+        mSearcher.rebuildIndex();
         invalidate();
     }
 
@@ -4338,6 +4469,13 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
         return mPaint;
     }
 
+    /**
+     * Get the cache of line advances measured with the text paint
+     */
+    LineAdvanceCache getAdvanceCache() {
+        return mAdvanceCache;
+    }
+
     /**
      * Get the ColorScheme object of this editor
      * You can config colors of some regions, texts and highlight text
@@ -4570,7 +4708,12 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
+        mRenderStats.beginFrame();
         drawView(canvas);
+        mRenderStats.endFrame();
+        if (mRenderStatsShown) {
+            drawRenderStats(canvas);
+        }
     }
 
     @Override
@@ -4981,10 +5124,14 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
             }
         }
 
+        for (int line = startLine; line <= endLine; line++) {
+            mAdvanceCache.invalidate(content.getLine(line));
+        }
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
             mRenderer.afterInsert(content, startLine, startColumn, endLine, endColumn, insertedContent);
         }
         mLayout.afterInsert(content, startLine, startColumn, endLine, endColumn, insertedContent);
+        mSearcher.afterInsert(content, startLine, startColumn, endLine, endColumn, insertedContent);
         if (mListener != null) {
             mListener.afterInsert(this, mText, startLine, startColumn, endLine, endColumn, insertedContent);
         }
@@ -5044,10 +5191,12 @@ public class CodeEditor extends View implements ContentListener, TextAnalyzer.Ca
             }
         }
 
+        mAdvanceCache.invalidate(content.getLine(startLine));
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
             mRenderer.afterDelete(content, startLine, startColumn, endLine, endColumn, deletedContent);
         }
         mLayout.afterDelete(content, startLine, startColumn, endLine, endColumn, deletedContent);
+        mSearcher.afterDelete(content, startLine, startColumn, endLine, endColumn, deletedContent);
         if (mListener != null) {
             mListener.afterDelete(this, mText, startLine, startColumn, endLine, endColumn, deletedContent);
         }
@@ -24,6 +24,7 @@ import java.util.Objects;
 
 import io.github.rosemoe.sora.data.CompletionItem;
 import io.github.rosemoe.sora.interfaces.AutoCompleteProvider;
+import io.github.rosemoe.sora.interfaces.CancellationToken;
 import io.github.rosemoe.sora.text.CharPosition;
 import io.github.rosemoe.sora.text.Cursor;
 import io.github.rosemoe.sora.text.TextAnalyzeResult;
@@ -301,11 +302,7 @@ public class EditorAutoCompleteWindow extends EditorBasePopupWindow {
 
         mLastPrefix = prefix;
         mRequestTime = System.currentTimeMillis();
-        if (mPreviousThread != null) {
-            mPreviousThread.interrupt();
-        }
-        mPreviousThread = new MatchThread(mRequestTime, prefix);
-        mPreviousThread.start();
+        postRequest(new MatchRequest(mRequestTime, prefix));
     }
 
     public void setMaxWidth(int maxWidth) {
@@ -347,38 +344,116 @@ public class EditorAutoCompleteWindow extends EditorBasePopupWindow {
         });
     }
 
-    private volatile Thread mPreviousThread;
+    /**
+     * Time for the worker to wait for a new request before exiting
+     */
+    private static final long WORKER_IDLE_TIMEOUT = 30000;
+
+    private final Object mLock = new Object();
+    private Thread mWorker;
+    private MatchRequest mPendingRequest;
+    private MatchRequest mRunningRequest;
+
+    /**
+     * Hand the request to the worker. Only the latest request is kept, requests that are
+     * running or waiting are cancelled so keystrokes typed during a running request
+     * result in only one more request.
+     */
+    private void postRequest(MatchRequest request) {
+        synchronized (mLock) {
+            if (mRunningRequest != null) {
+                mRunningRequest.cancel();
+            }
+            if (mPendingRequest != null) {
+                mPendingRequest.cancel();
+            }
+            mPendingRequest = request;
+            if (mWorker == null) {
+                mWorker = new Thread(this::runWorker, "AutoCompleteWorker");
+                mWorker.setDaemon(true);
+                mWorker.start();
+            } else {
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    private void runWorker() {
+        try {
+            while (true) {
+                MatchRequest request;
+                synchronized (mLock) {
+                    mRunningRequest = null;
+                    if (mPendingRequest == null) {
+                        mLock.wait(WORKER_IDLE_TIMEOUT);
+                    }
+                    if (mPendingRequest == null) {
+                        return;
+                    }
+                    request = mPendingRequest;
+                    mPendingRequest = null;
+                    mRunningRequest = request;
+                }
+                request.run();
+            }
+        } catch (InterruptedException e) {
+            Log.d("AutoCompleteWorker", "Worker is interrupted, exiting");
+        } finally {
+            synchronized (mLock) {
+                mRunningRequest = null;
+                mWorker = null;
+                // a request posted while exiting starts a new worker
+                if (mPendingRequest != null) {
+                    MatchRequest pending = mPendingRequest;
+                    mPendingRequest = null;
+                    postRequest(pending);
+                }
+            }
+        }
+    }
 
     /**
-     * Analysis thread
+     * Analysis request
      *
      * @author Rose
      */
-    private class MatchThread extends Thread {
+    private class MatchRequest implements CancellationToken {
 
         private final long mTime;
         private final String mPrefix;
-        private final boolean mInner;
         private final TextAnalyzeResult mColors;
         private final int mLine;
         private final int mColumn;
         private final AutoCompleteProvider mLocalProvider = mProvider;
+        private volatile boolean mCancelled;
 
-        public MatchThread(long requestTime, String prefix) {
+        public MatchRequest(long requestTime, String prefix) {
             mTime = requestTime;
             mPrefix = prefix;
             mColors = mEditor.getTextAnalyzeResult();
             mLine = mEditor.getCursor().getLeftLine();
             mColumn = mEditor.getCursor().getLeftColumn();
-            mInner = (!mEditor.isHighlightCurrentBlock()) || (mEditor.getBlockIndex() != -1);
+        }
+
+        public void cancel() {
+            mCancelled = true;
         }
 
         @Override
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
         public void run() {
             try {
-                displayResults(mLocalProvider.getAutoCompleteItems(mPrefix, mColors, mLine, mColumn), mTime);
+                List<CompletionItem> results = mLocalProvider.getAutoCompleteItems(mPrefix, mColors, mLine, mColumn, this);
+                if (!mCancelled) {
+                    displayResults(results, mTime);
+                }
             } catch (InterruptedException e) {
-                Log.d("MatchThread", "Thread is interrupted, exiting");
+                Log.d("AutoCompleteWorker", "Request is cancelled");
+            } catch (RuntimeException e) {
+                Log.e("AutoCompleteWorker", "Failed to get completion items", e);
             }
         }
     }
@@ -129,7 +129,6 @@ class EditorInputConnection extends BaseInputConnection {
         }
         Content sub = (Content) origin.subSequence(start, end);
         if (flags == GET_TEXT_WITH_STYLES) {
-            sub.beginStreamCharGetting(0);
             SpannableStringBuilder text = new SpannableStringBuilder(sub);
             // Apply composing span
             if (mComposingLine != -1) {
@@ -22,22 +22,37 @@
  */
 package io.github.rosemoe.sora.widget;
 
-import android.app.ProgressDialog;
 import android.widget.Toast;
 
+import io.github.rosemoe.sora.text.CharPosition;
 import io.github.rosemoe.sora.text.Content;
+import io.github.rosemoe.sora.text.ContentLine;
+import io.github.rosemoe.sora.text.ContentListener;
+import io.github.rosemoe.sora.text.ContentSnapshot;
 import io.github.rosemoe.sora.text.Cursor;
+import io.github.rosemoe.sora.text.Indexer;
+import io.github.rosemoe.sora.text.SearchIndex;
+import io.github.rosemoe.sora.util.IntPair;
+import io.github.rosemoe.sora.util.LongArrayList;
 
 /**
  * Search text in editor
+ * <p>
+ * When a search starts, matches in the whole text are found on a background thread with a
+ * {@link SearchIndex}, which is then updated on edits. Until the index is ready, lines are
+ * searched directly.
  *
  * @author Rose
  */
 @SuppressWarnings("deprecated")
-public class EditorSearcher {
+public class EditorSearcher implements ContentListener {
 
     private final CodeEditor mEditor;
     protected String mSearchText;
+    private SearchIndex mIndex;
+    private boolean mIndexReady;
+    private Thread mIndexThread;
+    private final LongArrayList mLineMatches = new LongArrayList();
 
     EditorSearcher(CodeEditor editor) {
         mEditor = editor;
@@ -50,13 +65,131 @@ public class EditorSearcher {
     }
 
     public void search(String text) {
+        search(text, false);
+    }
+
+    /**
+     * Start searching the given text
+     *
+     * @param text  Text to search, null or empty to stop searching
+     * @param regex Whether the text is a regular expression
+     * @throws java.util.regex.PatternSyntaxException if the regular expression is invalid
+     */
+    public void search(String text, boolean regex) {
         if (text != null && text.length() == 0) {
             text = null;
         }
-        mSearchText = text;
+        cancelIndexing();
+        mIndex = null;
+        mSearchText = null;
+        if (text != null) {
+            mIndex = new SearchIndex(text, regex);
+            mSearchText = text;
+            startIndexing();
+        }
         mEditor.postInvalidate();
     }
 
+    /**
+     * Whether current search text is a regular expression
+     */
+    public boolean isRegex() {
+        return mIndex != null && mIndex.isRegex();
+    }
+
+    /**
+     * Get count of matches, or -1 if matches are still being searched
+     */
+    public int getMatchCount() {
+        checkState();
+        return mIndexReady ? mIndex.size() : -1;
+    }
+
+    private void startIndexing() {
+        final SearchIndex index = mIndex;
+        final ContentSnapshot snapshot = mEditor.getText().createSnapshot();
+        mIndexReady = false;
+        mIndexThread = new Thread(() -> {
+            if (index.build(snapshot)) {
+                mEditor.post(() -> onIndexBuilt(index));
+            }
+        });
+        mIndexThread.setDaemon(true);
+        mIndexThread.start();
+    }
+
+    /**
+     * Search again in the whole text, called when the text object is replaced
+     */
+    void rebuildIndex() {
+        if (mIndex != null) {
+            cancelIndexing();
+            mIndex = new SearchIndex(mIndex.getQuery(), mIndex.isRegex());
+            startIndexing();
+        }
+    }
+
+    private void cancelIndexing() {
+        if (mIndexThread != null) {
+            mIndexThread.interrupt();
+            mIndexThread = null;
+        }
+        mIndexReady = false;
+    }
+
+    private void onIndexBuilt(SearchIndex index) {
+        if (index != mIndex) {
+            return;
+        }
+        mIndexThread = null;
+        if (index.getVersion() != mEditor.getText().getVersion()) {
+            // Text is modified while building
+            startIndexing();
+            return;
+        }
+        mIndexReady = true;
+        mEditor.invalidate();
+    }
+
+    /**
+     * Get matches on the given line
+     *
+     * @param line Target line
+     * @param dest Receives (start, end) columns of matches, packed by {@link IntPair}
+     */
+    void computeMatches(int line, LongArrayList dest) {
+        dest.clear();
+        if (mIndex == null) {
+            return;
+        }
+        Content text = mEditor.getText();
+        if (mIndexReady) {
+            int start = text.getCharIndex(line, 0);
+            mIndex.getMatchesInRegion(start, start + text.getColumnCount(line) + 1, dest);
+        } else {
+            mIndex.findInLine(text.getLine(line), dest);
+        }
+    }
+
+    @Override
+    public void beforeReplace(Content content) {
+        // Intentionally empty
+    }
+
+    @Override
+    public void afterInsert(Content content, int startLine, int startColumn, int endLine, int endColumn, CharSequence insertedContent) {
+        if (mIndexReady) {
+            mIndex.update(content, startLine, endLine, insertedContent.length());
+        }
+    }
+
+    @Override
+    public void afterDelete(Content content, int startLine, int startColumn, int endLine, int endColumn, CharSequence deletedContent) {
+        if (mIndexReady) {
+            mIndex.update(content, startLine, startLine, -deletedContent.length());
+        }
+    }
+
     @SuppressWarnings("UnusedReturnValue")
     public boolean replaceThis(String newText) {
         checkState();
@@ -64,8 +197,8 @@ public class EditorSearcher {
         Cursor cursor = text.getCursor();
         if (cursor.isSelected()) {
             String selectedText = text.subContent(cursor.getLeftLine(), cursor.getLeftColumn(), cursor.getRightLine(), cursor.getRightColumn()).toString();
-            if (selectedText.equals(mSearchText)) {
-                cursor.onCommitText(newText);
+            if (mIndex.matches(selectedText)) {
+                cursor.onCommitText(mIndex.getReplacement(selectedText, newText));
                 mEditor.hideAutoCompleteWindow();
                 gotoNext(false);
                 return true;
@@ -75,39 +208,74 @@ public class EditorSearcher {
         return false;
     }
 
+    /**
+     * Replace all the matches. Every line with matches is replaced by a separate edit in one
+     * batch edit, so other lines are kept and the replacement is undone as a whole.
+     */
     public void replaceAll(final String newText) {
         checkState();
-        final ProgressDialog progressDialog = ProgressDialog.show(mEditor.getContext(), "Replacing", "Editor is now replacing texts, please wait", true, false);
-        final String searchText = mSearchText;
-        new Thread() {
-
-            @Override
-            public void run() {
-                String text = null;
-                Exception ex = null;
-                try {
-                    text = mEditor.getText().toString().replace(searchText, newText);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    ex = e;
+        Content text = mEditor.getText();
+        Cursor cursor = text.getCursor();
+        int selectionLine = cursor.getLeftLine();
+        int selectionColumn = cursor.getLeftColumn();
+        SearchIndex index = mIndex;
+        boolean indexReady = mIndexReady;
+        // Matches are searched again once replaced, rather than updated on every edit
+        cancelIndexing();
+        LongArrayList matches = mLineMatches;
+        text.beginBatchEdit();
+        if (indexReady) {
+            // From the last match, so that positions of previous matches are not changed
+            Indexer indexer = text.getIndexer();
+            int i = index.size() - 1;
+            while (i >= 0) {
+                CharPosition position = indexer.getCharPosition(IntPair.getFirst(index.get(i)));
+                int lineStart = position.index - position.column;
+                int first = i;
+                while (first > 0 && IntPair.getFirst(index.get(first - 1)) >= lineStart) {
+                    first--;
+                }
+                matches.clear();
+                for (int j = first; j <= i; j++) {
+                    long match = index.get(j);
+                    matches.add(IntPair.pack(IntPair.getFirst(match) - lineStart, IntPair.getSecond(match) - lineStart));
+                }
+                replaceInLine(text, position.line, matches, index, newText);
+                i = first - 1;
+            }
+        } else {
+            for (int line = text.getLineCount() - 1; line >= 0; line--) {
+                matches.clear();
+                index.findInLine(text.getLine(line), matches);
+                if (matches.size() != 0) {
+                    replaceInLine(text, line, matches, index, newText);
                 }
-                final Exception ex2 = ex;
-                final String text2 = text;
-                mEditor.post(() -> {
-                    if (text2 == null) {
-                        Toast.makeText(mEditor.getContext(), String.valueOf(ex2), Toast.LENGTH_SHORT).show();
-                    } else {
-                        int line = mEditor.getCursor().getLeftLine();
-                        int column = mEditor.getCursor().getLeftColumn();
-                        mEditor.getText().replace(0, 0, mEditor.getLineCount() - 1, mEditor.getText().getColumnCount(mEditor.getLineCount() - 1), text2);
-                        mEditor.setSelectionAround(line, column);
-                        mEditor.invalidate();
-                    }
-                    progressDialog.cancel();
-                });
             }
+        }
+        text.endBatchEdit();
+        selectionLine = Math.min(selectionLine, text.getLineCount() - 1);
+        mEditor.setSelectionAround(selectionLine, Math.min(selectionColumn, text.getColumnCount(selectionLine)));
+        rebuildIndex();
+        mEditor.invalidate();
+    }
 
-        }.start();
+    /**
+     * Replace the region from the first match to the last match in the line with a single edit
+     */
+    private void replaceInLine(Content text, int line, LongArrayList matches, SearchIndex index, String newText) {
+        ContentLine sequence = text.getLine(line);
+        StringBuilder sb = new StringBuilder();
+        int start = IntPair.getFirst(matches.get(0));
+        int previousEnd = start;
+        for (int i = 0; i < matches.size(); i++) {
+            long match = matches.get(i);
+            int matchStart = IntPair.getFirst(match);
+            int matchEnd = IntPair.getSecond(match);
+            sb.append(sequence, previousEnd, matchStart);
+            sb.append(index.getReplacement(sequence.subSequence(matchStart, matchEnd), newText));
+            previousEnd = matchEnd;
+        }
+        text.replace(line, start, line, previousEnd, sb);
     }
 
     public void gotoNext() {
@@ -120,13 +288,26 @@ public class EditorSearcher {
         Cursor cursor = text.getCursor();
         int line = cursor.getRightLine();
         int column = cursor.getRightColumn();
-        for (int i = line; i < text.getLineCount(); i++) {
-            int idx = column >= text.getColumnCount(i) ? -1 : text.getLine(i).indexOf(mSearchText, column);
-            if (idx != -1) {
-                mEditor.setSelectionRegion(i, idx, i, idx + mSearchText.length());
+        if (mIndexReady) {
+            int match = mIndex.findNext(text.getCharIndex(line, column));
+            if (match != -1) {
+                selectMatch(mIndex.get(match));
                 return;
             }
-            column = 0;
+        } else {
+            LongArrayList matches = mLineMatches;
+            for (int i = line; i < text.getLineCount(); i++) {
+                matches.clear();
+                mIndex.findInLine(text.getLine(i), matches);
+                for (int j = 0; j < matches.size(); j++) {
+                    long match = matches.get(j);
+                    if (IntPair.getFirst(match) >= column) {
+                        mEditor.setSelectionRegion(i, IntPair.getFirst(match), i, IntPair.getSecond(match));
+                        return;
+                    }
+                }
+                column = 0;
+            }
         }
         if (tip) {
             Toast.makeText(mEditor.getContext(), "Not found in this direction", Toast.LENGTH_SHORT).show();
@@ -140,17 +321,37 @@ public class EditorSearcher {
         Cursor cursor = text.getCursor();
         int line = cursor.getLeftLine();
         int column = cursor.getLeftColumn();
-        for (int i = line; i >= 0; i--) {
-            int idx = column - 1 < 0 ? -1 : text.getLine(i).lastIndexOf(mSearchText, column - 1);
-            if (idx != -1) {
-                mEditor.setSelectionRegion(i, idx, i, idx + mSearchText.length());
+        if (mIndexReady) {
+            int match = mIndex.findPrevious(text.getCharIndex(line, column));
+            if (match != -1) {
+                selectMatch(mIndex.get(match));
                 return;
             }
-            column = i - 1 >= 0 ? text.getColumnCount(i - 1) : 0;
+        } else {
+            LongArrayList matches = mLineMatches;
+            for (int i = line; i >= 0; i--) {
+                matches.clear();
+                mIndex.findInLine(text.getLine(i), matches);
+                for (int j = matches.size() - 1; j >= 0; j--) {
+                    long match = matches.get(j);
+                    if (IntPair.getFirst(match) < column) {
+                        mEditor.setSelectionRegion(i, IntPair.getFirst(match), i, IntPair.getSecond(match));
+                        return;
+                    }
+                }
+                column = i - 1 >= 0 ? text.getColumnCount(i - 1) : 0;
+            }
         }
         Toast.makeText(mEditor.getContext(), "Not found in this direction", Toast.LENGTH_SHORT).show();
     }
 
+    private void selectMatch(long match) {
+        Content text = mEditor.getText();
+        CharPosition start = text.getIndexer().getCharPosition(IntPair.getFirst(match));
+        CharPosition end = text.getIndexer().getCharPosition(IntPair.getSecond(match));
+        mEditor.setSelectionRegion(start.line, start.column, end.line, end.column);
+    }
+
     public void stopSearch() {
         search(null);
     }
@@ -23,25 +23,25 @@
 package io.github.rosemoe.sora.widget;
 
 import android.graphics.Canvas;
-import android.graphics.Paint;
 import android.graphics.RenderNode;
 
 import androidx.annotation.RequiresApi;
 
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
 
 import io.github.rosemoe.sora.annotations.Experimental;
 import io.github.rosemoe.sora.data.Span;
 import io.github.rosemoe.sora.text.Content;
 import io.github.rosemoe.sora.text.ContentListener;
-import io.github.rosemoe.sora.util.ArrayList;
 
 /**
  * Hardware accelerated text render, which manages {@link RenderNode}
  * to speed up drawing process.
+ * <p>
+ * Nodes are found by their line in a hash table, and kept in an intrusive LRU list so that
+ * lookups and reordering do not depend on how many nodes are cached. Nodes removed from the
+ * cache are kept in a small pool to be reused for other lines.
  *
  * @author Rosemoe
  */
@@ -50,12 +50,29 @@ import io.github.rosemoe.sora.util.ArrayList;
 class HwAcceleratedRenderer implements ContentListener {
 
     private final CodeEditor editor;
-    private final ArrayList<TextRenderNode> cache;
+    /**
+     * Hash table of nodes, chained by {@link TextRenderNode#nextInBucket}
+     */
+    private TextRenderNode[] table;
+    /**
+     * Most recently and least recently used node
+     */
+    private TextRenderNode head, tail;
+    /**
+     * Unused nodes, chained by {@link TextRenderNode#next}
+     */
+    private TextRenderNode pool;
+    private int size;
+    private int poolSize;
     private int desired;
+    /**
+     * Nodes recorded with other versions are invalid. Increased to invalidate all nodes at once.
+     */
+    private int version;
 
     public HwAcceleratedRenderer(CodeEditor editor) {
         this.editor = editor;
-        cache = new ArrayList<>(64);
+        table = new TextRenderNode[64];
         setExpectedCapacity(30);
     }
 
@@ -69,17 +86,26 @@ class HwAcceleratedRenderer implements ContentListener {
     }
 
     public void removeGarbage() {
-        if (cache.size() > desired) {
-            cache.removeRange(desired, cache.size());
+        while (size > desired) {
+            recycle(tail);
         }
     }
 
     public void invalidateInRegion(int startLine, int endLine) {
-        cache.forEach((node) -> {
-            if (!node.isDirty && node.line >= startLine && node.line <= endLine) {
-                node.isDirty = true;
+        if (endLine - startLine < size) {
+            for (int line = startLine; line <= endLine; line++) {
+                TextRenderNode node = find(line);
+                if (node != null) {
+                    node.isDirty = true;
+                }
             }
-        });
+        } else {
+            for (TextRenderNode node = head; node != null; node = node.next) {
+                if (node.line >= startLine && node.line <= endLine) {
+                    node.isDirty = true;
+                }
+            }
+        }
     }
 
     /**
@@ -94,46 +120,151 @@ class HwAcceleratedRenderer implements ContentListener {
     }
 
     public void invalidateDirectly() {
-        cache.forEach(node -> node.isDirty = true);
+        version++;
     }
 
     public void invalidateDirtyRegions(List<List<Span>> old, List<List<Span>> updated) {
-        //Simply compares hash code
-        cache.forEach((node) -> {
-            try {
-                List<Span> olds = old.get(node.line);
-                List<Span> news = updated.get(node.line);
-                if (!node.needsRecord() && (olds.size() != news.size() || olds.hashCode() != news.hashCode())) {
-                    node.isDirty = true;
-                }
-            } catch (IndexOutOfBoundsException | NullPointerException e) {
+        for (TextRenderNode node = head; node != null; node = node.next) {
+            if (node.needsRecord(version)) {
+                continue;
+            }
+            int line = node.line;
+            if (old == null || updated == null || line >= old.size() || line >= updated.size()) {
                 node.isDirty = true;
+                continue;
             }
-        });
+            List<Span> olds = old.get(line);
+            List<Span> news = updated.get(line);
+            if (olds != news && (olds == null || !olds.equals(news))) {
+                node.isDirty = true;
+            }
+        }
+    }
+
+    private int bucketOf(int line) {
+        return line & (table.length - 1);
+    }
+
+    private TextRenderNode find(int line) {
+        TextRenderNode node = table[bucketOf(line)];
+        while (node != null && node.line != line) {
+            node = node.nextInBucket;
+        }
+        return node;
+    }
+
+    private void addToTable(TextRenderNode node) {
+        int bucket = bucketOf(node.line);
+        node.nextInBucket = table[bucket];
+        table[bucket] = node;
+    }
+
+    private void removeFromTable(TextRenderNode node) {
+        int bucket = bucketOf(node.line);
+        TextRenderNode current = table[bucket];
+        if (current == node) {
+            table[bucket] = node.nextInBucket;
+        } else {
+            while (current.nextInBucket != node) {
+                current = current.nextInBucket;
+            }
+            current.nextInBucket = node.nextInBucket;
+        }
+        node.nextInBucket = null;
+    }
+
+    /**
+     * Rebuild the hash table after lines of nodes are changed
+     */
+    private void rehash(int capacity) {
+        if (capacity != table.length) {
+            table = new TextRenderNode[capacity];
+        } else {
+            Arrays.fill(table, null);
+        }
+        for (TextRenderNode node = head; node != null; node = node.next) {
+            addToTable(node);
+        }
+    }
+
+    private void unlink(TextRenderNode node) {
+        if (node.prev != null) {
+            node.prev.next = node.next;
+        } else {
+            head = node.next;
+        }
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        } else {
+            tail = node.prev;
+        }
+        node.prev = node.next = null;
+    }
+
+    private void linkFirst(TextRenderNode node) {
+        node.next = head;
+        if (head != null) {
+            head.prev = node;
+        } else {
+            tail = node;
+        }
+        head = node;
+    }
+
+    /**
+     * Remove the node from cache and put it into pool
+     */
+    private void recycle(TextRenderNode node) {
+        removeFromTable(node);
+        unlink(node);
+        size--;
+        node.line = -1;
+        if (poolSize < desired) {
+            node.next = pool;
+            pool = node;
+            poolSize++;
+        } else {
+            node.renderNode.discardDisplayList();
+        }
     }
 
     public TextRenderNode getNode(int line) {
-        int size = cache.size();
-        for (int i = 0; i < size; i++) {
-            TextRenderNode node = cache.get(i);
-            if (node.line == line) {
-                cache.remove(i);
-                cache.add(0, node);
-                return node;
+        TextRenderNode node = find(line);
+        if (node != null) {
+            if (node != head) {
+                unlink(node);
+                linkFirst(node);
             }
+            return node;
+        }
+        if (pool != null) {
+            node = pool;
+            pool = node.next;
+            node.next = null;
+            poolSize--;
+            node.line = line;
+            node.isDirty = true;
+        } else {
+            node = new TextRenderNode(line);
+        }
+        linkFirst(node);
+        size++;
+        if (size > table.length * 3 / 4) {
+            rehash(table.length * 2);
+        } else {
+            addToTable(node);
         }
-        TextRenderNode node = new TextRenderNode(line);
-        cache.add(0, node);
         return node;
     }
 
     public void keepCurrentInDisplay(int start, int end) {
-        Iterator<TextRenderNode> itr = cache.iterator();
-        while (itr.hasNext()) {
-            TextRenderNode node = itr.next();
+        TextRenderNode node = head;
+        while (node != null) {
+            TextRenderNode next = node.next;
             if (node.line < start || node.line > end) {
-                itr.remove();
+                recycle(node);
             }
+            node = next;
         }
     }
 
@@ -144,17 +275,19 @@ class HwAcceleratedRenderer implements ContentListener {
         List<List<Span>> spanMap = editor.getTextAnalyzeResult().getSpanMap();
         // It's safe to use row directly because the mode is non-wordwrap
         TextRenderNode node = getNode(line);
-        if (node.needsRecord()) {
+        RenderStats stats = editor.getRenderStats();
+        if (node.needsRecord(version)) {
             List<Span> spans = null;
             if (line < spanMap.size() && line >= 0) {
                 spans = spanMap.get(line);
             }
-            if (spans == null || spans.size() == 0) {
-                spans = new ArrayList<>();
-                spans.add(Span.obtain(0, EditorColorScheme.TEXT_NORMAL));
-            }
+            stats.count(RenderStats.COUNTER_SPAN_LOOKUP);
+            stats.count(RenderStats.COUNTER_RENDER_NODE_MISS);
             editor.updateBoringLineDisplayList(node.renderNode, line, spans);
             node.isDirty = false;
+            node.recordedVersion = version;
+        } else {
+            stats.count(RenderStats.COUNTER_RENDER_NODE_HIT);
         }
         canvas.save();
         canvas.translate(offset, editor.getRowTop(line) - editor.getOffsetY());
@@ -172,16 +305,13 @@ class HwAcceleratedRenderer implements ContentListener {
     public void afterInsert(Content content, int startLine, int startColumn, int endLine, int endColumn, CharSequence insertedContent) {
         if (shouldUpdateCache()) {
             int delta = endLine - startLine;
-            cache.forEach((node) -> {
-                if (node != null && node.line != -1) {
-                    if (node.line == startLine) {
-                        node.isDirty = true;
-                    }
-                    if (delta != 0 && node.line > startLine) {
-                        node.line += delta;
-                    }
-                }
-            });
+            TextRenderNode node = find(startLine);
+            if (node != null) {
+                node.isDirty = true;
+            }
+            if (delta != 0) {
+                shiftLines(startLine + 1, Integer.MAX_VALUE, delta);
+            }
         }
     }
 
@@ -189,16 +319,37 @@ class HwAcceleratedRenderer implements ContentListener {
     public void afterDelete(Content content, int startLine, int startColumn, int endLine, int endColumn, CharSequence deletedContent) {
         if (shouldUpdateCache()) {
             int delta = endLine - startLine;
-            cache.forEach((node) -> {
-                if (node != null && node.line != -1) {
-                    if (node.line == startLine || node.line == endLine) {
-                        node.isDirty = true;
-                    }
-                    if (delta != 0 && node.line >= endLine) {
-                        node.line -= delta;
+            TextRenderNode node = find(startLine);
+            if (node != null) {
+                node.isDirty = true;
+            }
+            if (delta != 0) {
+                // Nodes of deleted lines are no longer displayed
+                for (node = head; node != null; ) {
+                    TextRenderNode next = node.next;
+                    if (node.line > startLine && node.line <= endLine) {
+                        recycle(node);
                     }
+                    node = next;
                 }
-            });
+                shiftLines(endLine + 1, Integer.MAX_VALUE, -delta);
+            }
+        }
+    }
+
+    /**
+     * Add delta to lines of nodes in the given range
+     */
+    private void shiftLines(int startLine, int endLine, int delta) {
+        boolean changed = false;
+        for (TextRenderNode node = head; node != null; node = node.next) {
+            if (node.line >= startLine && node.line <= endLine) {
+                node.line += delta;
+                changed = true;
+            }
+        }
+        if (changed) {
+            rehash(table.length);
         }
     }
 
@@ -211,6 +362,12 @@ class HwAcceleratedRenderer implements ContentListener {
         public int line;
         public RenderNode renderNode;
         public boolean isDirty;
+        /**
+         * Version of renderer when this node is recorded
+         */
+        int recordedVersion;
+        TextRenderNode prev, next;
+        TextRenderNode nextInBucket;
 
         public TextRenderNode(int line) {
             this.line = line;
@@ -218,8 +375,8 @@ class HwAcceleratedRenderer implements ContentListener {
             isDirty = true;
         }
 
-        public boolean needsRecord() {
-            return isDirty || !renderNode.hasDisplayList();
+        public boolean needsRecord(int version) {
+            return isDirty || recordedVersion != version || !renderNode.hasDisplayList();
         }
 
     }
@@ -22,40 +22,54 @@
  */
 package io.github.rosemoe.sora.widget;
 
+import android.graphics.Paint;
+
 import java.util.NoSuchElementException;
 
+import io.github.rosemoe.sora.graphics.FontCache;
 import io.github.rosemoe.sora.text.Content;
 import io.github.rosemoe.sora.text.ContentLine;
+import io.github.rosemoe.sora.text.ContentSnapshot;
 import io.github.rosemoe.sora.util.BinaryHeap;
 import io.github.rosemoe.sora.util.IntPair;
 
 /**
  * Layout implementation of editor
  * This layout is never broke unless there is actually a newline character
+ * <p>
+ * Lines are not measured when the layout is created. Displayed lines are measured at once
+ * and others are measured on a background thread, whose results are added to the width
+ * maintainer on the UI thread batch by batch. So the layout width grows progressively
+ * until all the lines are measured.
  *
  * @author Rose
  */
 class  LineBreakLayout extends AbstractLayout {
 
+    private final static int MEASURE_BATCH_SIZE = 512;
+
     private BinaryHeap widthMaintainer;
+    private MeasureThread measureThread;
 
     LineBreakLayout(CodeEditor editor, Content text) {
         super(editor, text);
-        measureAllLines();
-    }
-
-    private void measureAllLines() {
-        if (text == null) {
-            return;
-        }
         widthMaintainer = new BinaryHeap();
         widthMaintainer.ensureCapacity(text.getLineCount());
+        // Ids from previous layouts are invalid in the new width maintainer
         for (int i = 0; i < text.getLineCount(); i++) {
-            ContentLine line = text.getLine(i);
-            int width = (int) measureText(line, 0, line.length());
-            line.setWidth(width);
-            line.setId(widthMaintainer.push(width));
+            text.getLine(i).setId(-1);
         }
+        startMeasureThread();
+    }
+
+    private void startMeasureThread() {
+        measureThread = new MeasureThread(text.createSnapshot());
+        measureThread.start();
+    }
+
+    private void measureLine(ContentLine line, int width) {
+        line.setWidth(width);
+        line.setId(widthMaintainer.push(width));
     }
 
     private void measureLines(int startLine, int endLine) {
@@ -64,22 +78,60 @@ class  LineBreakLayout extends AbstractLayout {
         }
         while (startLine <= endLine && startLine < text.getLineCount()) {
             ContentLine line = text.getLine(startLine);
-            int width = (int) measureText(line, 0, line.length());
+            int width = (int) measureLineWidth(line);
             if (line.getId() != -1) {
                 if (line.getWidth() == width) {
                     startLine++;
                     continue;
                 }
                 widthMaintainer.update(line.getId(), width);
+                line.setWidth(width);
                 startLine++;
                 continue;
             }
-            line.setId(widthMaintainer.push(width));
-            line.setWidth(width);
+            measureLine(line, width);
             startLine++;
         }
     }
 
+    /**
+     * Add widths measured by the given thread. Lines that are removed or replaced after
+     * the thread takes its snapshot are skipped and measured again by a new thread.
+     */
+    private void onLinesMeasured(MeasureThread thread, int startLine, ContentLine[] lines, int[] widths, int count) {
+        if (thread != measureThread) {
+            return;
+        }
+        int oldWidth = widthMaintainer.top();
+        boolean stale = thread.snapshot.isStale();
+        for (int i = 0; i < count; i++) {
+            ContentLine line = lines[i];
+            if (line.getId() != -1) {
+                continue;
+            }
+            int index = startLine + i;
+            if (stale && (index >= text.getLineCount() || text.getLine(index) != line)) {
+                thread.skipped = true;
+                continue;
+            }
+            measureLine(line, widths[i]);
+        }
+        if (widthMaintainer.top() != oldWidth) {
+            editor.invalidate();
+        }
+    }
+
+    private void onMeasureFinished(MeasureThread thread) {
+        if (thread != measureThread) {
+            return;
+        }
+        if (thread.skipped) {
+            startMeasureThread();
+        } else {
+            measureThread = null;
+        }
+    }
+
     @Override
     public RowIterator obtainRowIterator(int initialRow) {
         return new LineBreakLayoutRowItr(initialRow);
@@ -102,11 +154,18 @@ class  LineBreakLayout extends AbstractLayout {
 
     @Override
     public void onRemove(Content content, ContentLine line) {
-        widthMaintainer.remove(line.getId());
+        if (line.getId() != -1) {
+            widthMaintainer.remove(line.getId());
+            line.setId(-1);
+        }
     }
 
     @Override
     public void destroyLayout() {
+        if (measureThread != null) {
+            measureThread.cancelled = true;
+            measureThread = null;
+        }
         super.destroyLayout();
         widthMaintainer = null;
     }
@@ -146,6 +205,53 @@ class  LineBreakLayout extends AbstractLayout {
         return dest;
     }
 
+    /**
+     * Measures lines of a snapshot with its own paint and font cache, and posts the results
+     * to the UI thread
+     */
+    private class MeasureThread extends Thread {
+
+        private final ContentSnapshot snapshot;
+        private final CodeEditor editor;
+        private final Paint paint;
+        private final FontCache fontCache;
+        private final int tabWidth;
+        volatile boolean cancelled;
+        /**
+         * Accessed only on UI thread
+         */
+        boolean skipped;
+
+        MeasureThread(ContentSnapshot snapshot) {
+            this.snapshot = snapshot;
+            editor = LineBreakLayout.this.editor;
+            paint = new Paint(shadowPaint);
+            fontCache = new FontCache();
+            tabWidth = editor.getTabWidth();
+            setDaemon(true);
+            setPriority(Thread.MIN_PRIORITY);
+        }
+
+        @Override
+        public void run() {
+            int lineCount = snapshot.getLineCount();
+            for (int start = 0; start < lineCount && !cancelled; start += MEASURE_BATCH_SIZE) {
+                int count = Math.min(MEASURE_BATCH_SIZE, lineCount - start);
+                ContentLine[] lines = new ContentLine[count];
+                int[] widths = new int[count];
+                for (int i = 0; i < count && !cancelled; i++) {
+                    ContentLine line = snapshot.getLine(start + i);
+                    lines[i] = line;
+                    widths[i] = (int) measureText(line, 0, line.length(), paint, fontCache, tabWidth);
+                }
+                final int startLine = start;
+                editor.post(() -> onLinesMeasured(this, startLine, lines, widths, count));
+            }
+            editor.post(() -> onMeasureFinished(this));
+        }
+
+    }
+
     class LineBreakLayoutRowItr implements RowIterator {
 
         private final Row result;
@@ -164,8 +270,13 @@ class  LineBreakLayout extends AbstractLayout {
             if (!hasNext()) {
                 throw new NoSuchElementException();
             }
-            result.lineIndex = currentRow;
-            result.endColumn = text.getColumnCount(currentRow++);
+            ContentLine line = text.getLine(currentRow);
+            if (line.getId() == -1) {
+                // Not measured by the background thread yet
+                measureLine(line, (int) measureLineWidth(line));
+            }
+            result.lineIndex = currentRow++;
+            result.endColumn = line.length();
             return result;
         }
 
@@ -0,0 +1,247 @@
+/*
+ *    CodeEditor - the awesome code editor for Android
+ *    Copyright (C) 2020-2021  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.widget;
+
+import android.os.Debug;
+
+/**
+ * Collects timing and counters of frames drawn by {@link CodeEditor}.
+ *
+ * Values returned by the getters belong to the last completed frame, except the ones
+ * named total/max/count which are accumulated since the last {@link #reset()}.
+ * Sections may be nested, for example text measuring also happens while drawing rows,
+ * so section times do not add up to the frame time.
+ *
+ * This object is updated on the UI thread, read it there as well.
+ *
+ * @author Rosemoe
+ */
+public final class RenderStats {
+
+    /**
+     * Time spent in {@link CodeEditor#drawRows}
+     */
+    public static final int SECTION_DRAW_ROWS = 0;
+
+    /**
+     * Time spent in {@link CodeEditor#drawBlockLines(android.graphics.Canvas, float)}
+     */
+    public static final int SECTION_DRAW_BLOCK_LINES = 1;
+
+    /**
+     * Time spent in {@link CodeEditor#drawWhitespaces}
+     */
+    public static final int SECTION_DRAW_WHITESPACES = 2;
+
+    /**
+     * Time spent in measuring text width
+     */
+    public static final int SECTION_MEASURE_TEXT = 3;
+
+    private static final int SECTION_COUNT = 4;
+
+    /**
+     * Span lists looked up for drawing lines
+     */
+    public static final int COUNTER_SPAN_LOOKUP = 0;
+
+    /**
+     * Lines drawn with a RenderNode that could be reused
+     */
+    public static final int COUNTER_RENDER_NODE_HIT = 1;
+
+    /**
+     * Lines drawn with a RenderNode that had to be recorded again
+     */
+    public static final int COUNTER_RENDER_NODE_MISS = 2;
+
+    private static final int COUNTER_COUNT = 3;
+
+    private boolean mEnabled;
+    private boolean mInFrame;
+    private long mFrameStart;
+    private int mAllocStart;
+
+    private final long[] mSectionTimes = new long[SECTION_COUNT];
+    private final int[] mSectionCalls = new int[SECTION_COUNT];
+    private final int[] mCounters = new int[COUNTER_COUNT];
+
+    private long mFrameTime;
+    private int mAllocations;
+    private final long[] mLastSectionTimes = new long[SECTION_COUNT];
+    private final int[] mLastSectionCalls = new int[SECTION_COUNT];
+    private final int[] mLastCounters = new int[COUNTER_COUNT];
+
+    private int mFrameCount;
+    private long mTotalFrameTime;
+    private long mMaxFrameTime;
+
+    RenderStats() {
+    }
+
+    /**
+     * Allocation counting of the runtime is started together with this
+     */
+    @SuppressWarnings("deprecation")
+    void setEnabled(boolean enabled) {
+        if (mEnabled == enabled) {
+            return;
+        }
+        mEnabled = enabled;
+        mInFrame = false;
+        if (enabled) {
+            Debug.startAllocCounting();
+        } else {
+            Debug.stopAllocCounting();
+        }
+        reset();
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    @SuppressWarnings("deprecation")
+    void beginFrame() {
+        if (!mEnabled) {
+            return;
+        }
+        mInFrame = true;
+        for (int i = 0; i < SECTION_COUNT; i++) {
+            mSectionTimes[i] = 0;
+            mSectionCalls[i] = 0;
+        }
+        for (int i = 0; i < COUNTER_COUNT; i++) {
+            mCounters[i] = 0;
+        }
+        mAllocStart = Debug.getThreadAllocCount();
+        mFrameStart = System.nanoTime();
+    }
+
+    @SuppressWarnings("deprecation")
+    void endFrame() {
+        if (!mInFrame) {
+            return;
+        }
+        mInFrame = false;
+        mFrameTime = System.nanoTime() - mFrameStart;
+        mAllocations = Debug.getThreadAllocCount() - mAllocStart;
+        System.arraycopy(mSectionTimes, 0, mLastSectionTimes, 0, SECTION_COUNT);
+        System.arraycopy(mSectionCalls, 0, mLastSectionCalls, 0, SECTION_COUNT);
+        System.arraycopy(mCounters, 0, mLastCounters, 0, COUNTER_COUNT);
+        mFrameCount++;
+        mTotalFrameTime += mFrameTime;
+        mMaxFrameTime = Math.max(mMaxFrameTime, mFrameTime);
+    }
+
+    /**
+     * Start timing a section
+     *
+     * @return Start time to pass to {@link #end(int, long)}
+     */
+    long start() {
+        return mInFrame ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Finish timing a section
+     */
+    void end(int section, long startTime) {
+        if (mInFrame) {
+            mSectionTimes[section] += System.nanoTime() - startTime;
+            mSectionCalls[section]++;
+        }
+    }
+
+    void count(int counter) {
+        if (mInFrame) {
+            mCounters[counter]++;
+        }
+    }
+
+    /**
+     * Clear accumulated frame count, total and max frame time
+     */
+    public void reset() {
+        mFrameCount = 0;
+        mTotalFrameTime = 0;
+        mMaxFrameTime = 0;
+    }
+
+    /**
+     * @return Time in nanoseconds spent drawing the last frame
+     */
+    public long getFrameTime() {
+        return mFrameTime;
+    }
+
+    /**
+     * @param section One of the SECTION_* constants
+     * @return Time in nanoseconds spent in the section during last frame
+     */
+    public long getSectionTime(int section) {
+        return mLastSectionTimes[section];
+    }
+
+    /**
+     * @param section One of the SECTION_* constants
+     * @return Times the section is entered during last frame
+     */
+    public int getSectionCalls(int section) {
+        return mLastSectionCalls[section];
+    }
+
+    /**
+     * @param counter One of the COUNTER_* constants
+     * @return Value of the counter during last frame
+     */
+    public int getCount(int counter) {
+        return mLastCounters[counter];
+    }
+
+    /**
+     * Objects allocated by the UI thread during last frame.
+     * This relies on {@link Debug#getThreadAllocCount()} and can be always zero on
+     * runtimes that do not support allocation counting.
+     */
+    public int getAllocations() {
+        return mAllocations;
+    }
+
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    public long getTotalFrameTime() {
+        return mTotalFrameTime;
+    }
+
+    public long getMaxFrameTime() {
+        return mMaxFrameTime;
+    }
+
+    public long getAverageFrameTime() {
+        return mFrameCount == 0 ? 0 : mTotalFrameTime / mFrameCount;
+    }
+
+}
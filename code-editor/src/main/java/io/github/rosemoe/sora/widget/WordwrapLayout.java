@@ -22,129 +22,206 @@
  */
 package io.github.rosemoe.sora.widget;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import android.widget.OverScroller;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
+import io.github.rosemoe.sora.graphics.LineAdvanceCache;
 import io.github.rosemoe.sora.text.Content;
 import io.github.rosemoe.sora.text.ContentLine;
 import io.github.rosemoe.sora.util.IntPair;
-
-import static io.github.rosemoe.sora.text.TextUtils.isEmoji;
+import io.github.rosemoe.sora.util.PrefixSumList;
 
 /**
  * Wordwrap layout for editor
  * <p>
  * This layout will not let character displayed outside the editor's width
  * <p>
- * However, using this can be power-costing because we will have to recreate this layout in various
- * conditions, such as when the line number increases and its width grows or when the text size has changed
+ * Row counts of lines are kept in a {@link PrefixSumList}, so that mapping between rows and lines
+ * costs O(log n). When the layout is created, the row count of each line is only estimated from
+ * its length. Lines are actually broken when they are displayed or queried, and the rest of them
+ * are broken in small slices on the UI thread while the editor is idle. Breakpoints are cached
+ * by line object, so lines that are not modified are never measured again.
  *
  * @author Rose
  */
 class WordwrapLayout extends AbstractLayout {
 
-    private final List<RowRegion> rowTable;
+    private final static int[] NO_BREAKPOINTS = new int[0];
+    private final static int BREAKPOINT_CACHE_SIZE = 512;
+    private final static long IDLE_BREAK_TIME_NANOS = 4000000L;
+    private final static int IDLE_BREAK_CHECK_INTERVAL = 32;
+
     private final int width;
+    private final float estimatedCharWidth;
+    /**
+     * Row count of each line
+     */
+    private final PrefixSumList rowCounts;
+    /**
+     * 1 for lines whose row count is only estimated, 0 for broken lines
+     */
+    private final PrefixSumList pendingLines;
+    private final Map<ContentLine, int[]> breakpointCache;
+    private final Runnable idleBreaker = this::breakPendingLines;
+    private int[] breakpointBuffer;
+    private boolean idleBreakerPosted;
 
     WordwrapLayout(CodeEditor editor, Content text) {
         super(editor, text);
-        rowTable = new ArrayList<>();
         width = editor.getWidth() - (int) editor.measureTextRegionOffset();
-        breakAllLines();
+        estimatedCharWidth = fontCache.measureChar('x', shadowPaint);
+        rowCounts = new PrefixSumList();
+        pendingLines = new PrefixSumList();
+        breakpointCache = new LinkedHashMap<ContentLine, int[]>(BREAKPOINT_CACHE_SIZE, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ContentLine, int[]> eldest) {
+                return size() > BREAKPOINT_CACHE_SIZE;
+            }
+        };
+        breakpointBuffer = new int[16];
+        addEstimatedLines(0, text.getLineCount());
     }
 
-    private void breakAllLines() {
-        List<Integer> breakpoints = new ArrayList<>();
-        for (int i = 0; i < text.getLineCount(); i++) {
-            breakLine(i, breakpoints);
-            for (int j = -1; j < breakpoints.size(); j++) {
-                int start = j == -1 ? 0 : breakpoints.get(j);
-                int end = j + 1 < breakpoints.size() ? breakpoints.get(j + 1) : text.getColumnCount(i);
-                rowTable.add(new RowRegion(i, start, end));
-            }
-            breakpoints.clear();
+    /**
+     * Add estimated row counts for the given lines, which will be broken later
+     */
+    private void addEstimatedLines(int startLine, int count) {
+        if (count <= 0) {
+            return;
+        }
+        int[] rows = new int[count];
+        int[] pending = new int[count];
+        for (int i = 0; i < count; i++) {
+            rows[i] = estimateRowCount(startLine + i);
+            pending[i] = 1;
         }
+        rowCounts.insert(startLine, rows, 0, count);
+        pendingLines.insert(startLine, pending, 0, count);
+        postIdleBreaker();
     }
 
-    private int findRow(int line) {
-        int index = 0;
-        while (index < rowTable.size()) {
-            if (rowTable.get(index).line < line) {
-                index++;
-            } else {
-                if (rowTable.get(index).line > line) {
-                    index--;
-                }
-                break;
-            }
+    private int estimateRowCount(int line) {
+        if (width <= 0) {
+            return 1;
         }
-        return index;
+        return Math.max(1, (int) Math.ceil(text.getColumnCount(line) * estimatedCharWidth / width));
     }
 
-    private void breakLines(int startLine, int endLine) {
-        int insertPosition = 0;
-        while (insertPosition < rowTable.size()) {
-            if (rowTable.get(insertPosition).line < startLine) {
-                insertPosition++;
-            } else {
-                break;
-            }
+    /**
+     * Break the given line if its row count is only estimated
+     *
+     * @return the change of row count of the line
+     */
+    private int ensureBroken(int line) {
+        if (pendingLines.get(line) == 0) {
+            return 0;
         }
-        while (insertPosition < rowTable.size()) {
-            int line = rowTable.get(insertPosition).line;
-            if (line >= startLine && line <= endLine) {
-                rowTable.remove(insertPosition);
-            } else {
-                break;
-            }
+        return rebreakLine(line);
+    }
+
+    private int rebreakLine(int line) {
+        int rows = getBreakpoints(line).length + 1;
+        int delta = rows - rowCounts.get(line);
+        if (delta != 0) {
+            rowCounts.set(line, rows);
         }
-        List<Integer> breakpoints = new ArrayList<>();
-        for (int i = startLine; i <= endLine; i++) {
-            breakLine(i, breakpoints);
-            for (int j = -1; j < breakpoints.size(); j++) {
-                int start = j == -1 ? 0 : breakpoints.get(j);
-                int end = j + 1 < breakpoints.size() ? breakpoints.get(j + 1) : text.getColumnCount(i);
-                rowTable.add(insertPosition++, new RowRegion(i, start, end));
-            }
-            breakpoints.clear();
+        if (pendingLines.get(line) != 0) {
+            pendingLines.set(line, 0);
         }
+        return delta;
     }
 
-    private void breakLine(int line, List<Integer> breakpoints) {
+    /**
+     * Find the line of the given row, breaking lines on the way so that the result is exact
+     */
+    private int findLineForRow(int row) {
+        int line = rowCounts.find(row);
+        while (ensureBroken(line) != 0) {
+            line = rowCounts.find(Math.min(row, rowCounts.sum() - 1));
+        }
+        return line;
+    }
+
+    private int[] getBreakpoints(int line) {
         ContentLine sequence = text.getLine(line);
-        float currentWidth = 0;
-        int delta;
-        for (int i = 0; i < sequence.length(); i+= delta) {
-            char ch = sequence.charAt(i);
-            delta = 1;
-            float single;
-            if (isEmoji(ch) && i + 1 < text.length()) {
-                delta = 2;
-                single = shadowPaint.measureText(new char[]{ch, text.charAt(i + 1)}, 0, 2);
-            } else {
-                single = fontCache.measureChar(ch, shadowPaint);
-                if (ch == '\t') {
-                    single = fontCache.measureChar(' ', shadowPaint) * editor.getTabWidth();
-                }
+        int[] breakpoints = breakpointCache.get(sequence);
+        if (breakpoints == null) {
+            breakpoints = breakLine(sequence);
+            breakpointCache.put(sequence, breakpoints);
+        }
+        return breakpoints;
+    }
+
+    private int[] breakLine(ContentLine sequence) {
+        int[] breakpoints = breakpointBuffer;
+        int count = 0;
+        int length = sequence.length();
+        float[] advances = editor.getAdvanceCache().computeAdvances(sequence);
+        int start = 0;
+        while (start < length) {
+            int end = LineAdvanceCache.findLastFit(advances, start, length, width);
+            // Do not break inside an emoji sequence, whose columns share the same offset
+            while (end < length && advances[end] == advances[end + 1]) {
+                end++;
             }
-            if (currentWidth + single > width) {
-                int lastCommit = breakpoints.size() != 0 ? breakpoints.get(breakpoints.size() - 1) : 0;
-                if (i == lastCommit) {
-                    i += delta;
-                    continue;
+            if (end >= length) {
+                break;
+            }
+            if (count == breakpoints.length) {
+                breakpoints = breakpointBuffer = Arrays.copyOf(breakpoints, count * 2);
+            }
+            breakpoints[count++] = end;
+            start = end;
+        }
+        return count == 0 ? NO_BREAKPOINTS : Arrays.copyOf(breakpoints, count);
+    }
+
+    private void postIdleBreaker() {
+        if (!idleBreakerPosted && pendingLines.sum() > 0) {
+            idleBreakerPosted = true;
+            editor.post(idleBreaker);
+        }
+    }
+
+    /**
+     * Break some estimated lines in a short time slice, and post itself again if there are
+     * still lines left. Changes of rows above the viewport are compensated by scrolling, so
+     * that the visible text does not jump.
+     */
+    private void breakPendingLines() {
+        idleBreakerPosted = false;
+        if (editor == null) {
+            // Layout destroyed
+            return;
+        }
+        long deadline = System.nanoTime() + IDLE_BREAK_TIME_NANOS;
+        int firstVisibleLine = getLineNumberForRow(editor.getFirstVisibleRow());
+        int rowsAboveViewport = 0;
+        boolean changed = false;
+        while (pendingLines.sum() > 0 && System.nanoTime() < deadline) {
+            for (int i = 0; i < IDLE_BREAK_CHECK_INTERVAL && pendingLines.sum() > 0; i++) {
+                int line = pendingLines.find(0);
+                int delta = rebreakLine(line);
+                if (delta != 0) {
+                    changed = true;
+                    if (line < firstVisibleLine) {
+                        rowsAboveViewport += delta;
+                    }
                 }
-                breakpoints.add(i);
-                currentWidth = 0;
-                i -= delta;
-            } else {
-                currentWidth += single;
             }
         }
-        if (breakpoints.size() != 0 && breakpoints.get(breakpoints.size() - 1) == sequence.length()) {
-            breakpoints.remove(breakpoints.size() - 1);
+        if (changed) {
+            OverScroller scroller = editor.getScroller();
+            if (rowsAboveViewport != 0 && scroller.isFinished()) {
+                scroller.startScroll(scroller.getCurrX(), scroller.getCurrY(), 0, rowsAboveViewport * editor.getRowHeight(), 0);
+            }
+            editor.invalidate();
         }
+        postIdleBreaker();
     }
 
     @Override
@@ -154,51 +231,45 @@ class WordwrapLayout extends AbstractLayout {
 
     @Override
     public void afterInsert(Content content, int startLine, int startColumn, int endLine, int endColumn, CharSequence insertedContent) {
-        // Update line numbers
-        int delta = endLine - startLine;
-        if (delta != 0) {
-            for (int row = findRow(startLine + 1); row < rowTable.size(); row++) {
-                rowTable.get(row).line += delta;
-            }
+        breakpointCache.remove(content.getLine(startLine));
+        // Lines in the middle are broken later, only the lines with selection bounds are broken at once
+        addEstimatedLines(startLine + 1, endLine - startLine);
+        rebreakLine(startLine);
+        if (endLine != startLine) {
+            rebreakLine(endLine);
         }
-        // Re-break
-        breakLines(startLine, endLine);
     }
 
     @Override
     public void afterDelete(Content content, int startLine, int startColumn, int endLine, int endColumn, CharSequence deletedContent) {
-        int delta = endLine - startLine;
-        if (delta != 0) {
-            int startRow = findRow(startLine);
-            while (startRow < rowTable.size()) {
-                int line = rowTable.get(startRow).line;
-                if (line >= startLine && line <= endLine) {
-                    rowTable.remove(startRow);
-                } else {
-                    break;
-                }
-            }
-            for (int row = findRow(endLine + 1); row < rowTable.size(); row++) {
-                rowTable.get(row).line -= delta;
-            }
+        if (endLine != startLine) {
+            rowCounts.remove(startLine + 1, endLine + 1);
+            pendingLines.remove(startLine + 1, endLine + 1);
         }
-        breakLines(startLine, startLine);
+        breakpointCache.remove(content.getLine(startLine));
+        rebreakLine(startLine);
     }
 
     @Override
     public void onRemove(Content content, ContentLine line) {
-
+        breakpointCache.remove(line);
     }
 
     @Override
     public void destroyLayout() {
+        editor.removeCallbacks(idleBreaker);
         super.destroyLayout();
-        rowTable.clear();
+        rowCounts.clear();
+        pendingLines.clear();
+        breakpointCache.clear();
     }
 
     @Override
     public int getLineNumberForRow(int row) {
-        return row >= rowTable.size() ? rowTable.get(rowTable.size() - 1).line : rowTable.get(row).line;
+        if (row >= rowCounts.sum()) {
+            return rowCounts.size() - 1;
+        }
+        return rowCounts.find(Math.max(0, row));
     }
 
     @Override
@@ -213,16 +284,21 @@ class WordwrapLayout extends AbstractLayout {
 
     @Override
     public int getLayoutHeight() {
-        return rowTable.size() * editor.getRowHeight();
+        return (int) rowCounts.sum() * editor.getRowHeight();
     }
 
     @Override
     public long getCharPositionForLayoutOffset(float xOffset, float yOffset) {
         int row = (int) (yOffset / editor.getRowHeight());
-        row = Math.max(0, Math.min(row, rowTable.size() - 1));
-        RowRegion region = rowTable.get(row);
-        int column = (int) orderedFindCharIndex(xOffset, text.getLine(region.line), region.startColumn, region.endColumn)[0];
-        return IntPair.pack(region.line, column);
+        row = (int) Math.max(0, Math.min(row, rowCounts.sum() - 1));
+        int line = findLineForRow(row);
+        row = (int) Math.min(row, rowCounts.sum() - 1);
+        int[] breakpoints = getBreakpoints(line);
+        int rowInLine = Math.min(row - (int) rowCounts.prefix(line), breakpoints.length);
+        int start = rowInLine == 0 ? 0 : breakpoints[rowInLine - 1];
+        int end = rowInLine < breakpoints.length ? breakpoints[rowInLine] : text.getColumnCount(line);
+        int column = (int) orderedFindCharIndex(xOffset, text.getLine(line), start, end)[0];
+        return IntPair.pack(line, column);
     }
 
     @Override
@@ -230,53 +306,34 @@ class WordwrapLayout extends AbstractLayout {
         if (dest == null || dest.length < 2) {
             dest = new float[2];
         }
-        int row = findRow(line);
-        if (row < rowTable.size()) {
-            RowRegion region = rowTable.get(row);
-            if (region.line != line) {
-                dest[0] = dest[1] = 0;
-                return dest;
-            }
-            while (region.startColumn < column && row + 1 < rowTable.size()) {
-                row++;
-                region = rowTable.get(row);
-                if (region.line != line) {
-                    row--;
-                    region = rowTable.get(row);
-                    break;
-                }
-            }
-            dest[0] = editor.getRowHeight() * (row + 1);
-            dest[1] = measureText(text.getLine(region.line), region.startColumn, column);
-        } else {
+        if (line < 0 || line >= rowCounts.size()) {
             dest[0] = dest[1] = 0;
+            return dest;
         }
+        ensureBroken(line);
+        int[] breakpoints = getBreakpoints(line);
+        // The row of the column is the last row starting at or before it
+        int rowInLine = Arrays.binarySearch(breakpoints, column);
+        rowInLine = rowInLine >= 0 ? rowInLine + 1 : -(rowInLine + 1);
+        int start = rowInLine == 0 ? 0 : breakpoints[rowInLine - 1];
+        dest[0] = editor.getRowHeight() * (rowCounts.prefix(line) + rowInLine + 1);
+        dest[1] = measureText(text.getLine(line), start, column);
         return dest;
     }
 
-    static class RowRegion {
-
-        final int startColumn;
-        final int endColumn;
-        int line;
-
-        RowRegion(int line, int start, int end) {
-            this.line = line;
-            startColumn = start;
-            endColumn = end;
-        }
-
-    }
-
     class WordwrapLayoutRowItr implements RowIterator {
 
         final Row result;
         int currentRow;
         final int initRow;
+        int line;
+        int rowInLine;
+        int[] breakpoints;
 
         WordwrapLayoutRowItr(int initialRow) {
             initRow = currentRow = initialRow;
             result = new Row();
+            line = -1;
         }
 
         @Override
@@ -284,23 +341,34 @@ class WordwrapLayout extends AbstractLayout {
             if (!hasNext()) {
                 throw new NoSuchElementException();
             }
-            RowRegion region = rowTable.get(currentRow);
-            result.lineIndex = region.line;
-            result.startColumn = region.startColumn;
-            result.endColumn = region.endColumn;
-            result.isLeadingRow = currentRow <= 0 || rowTable.get(currentRow - 1).line != region.line;
+            if (line == -1) {
+                line = findLineForRow(currentRow);
+                breakpoints = getBreakpoints(line);
+                rowInLine = Math.min(currentRow - (int) rowCounts.prefix(line), breakpoints.length);
+            } else if (rowInLine > breakpoints.length) {
+                line++;
+                ensureBroken(line);
+                rowInLine = 0;
+                breakpoints = getBreakpoints(line);
+            }
+            result.lineIndex = line;
+            result.startColumn = rowInLine == 0 ? 0 : breakpoints[rowInLine - 1];
+            result.endColumn = rowInLine < breakpoints.length ? breakpoints[rowInLine] : text.getColumnCount(line);
+            result.isLeadingRow = rowInLine == 0;
+            rowInLine++;
             currentRow++;
             return result;
         }
 
         @Override
         public boolean hasNext() {
-            return currentRow >= 0 && currentRow < rowTable.size();
+            return currentRow >= 0 && currentRow < rowCounts.sum();
         }
 
         @Override
         public void reset() {
             currentRow = initRow;
+            line = -1;
         }
 
     }
@@ -0,0 +1,159 @@
+package io.github.rosemoe.sora.text;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class UndoManagerTest {
+
+    @Test
+    public void typingIsMergedIntoOneAction() {
+        Content content = new Content("int a;");
+        String text = " int b;";
+        for (int i = 0; i < text.length(); i++) {
+            content.insert(0, content.getColumnCount(0), text.substring(i, i + 1));
+        }
+        assertEquals("int a; int b;", content.toString());
+
+        content.undo();
+        assertEquals("int a;", content.toString());
+        assertFalse(content.canUndo());
+
+        content.redo();
+        assertEquals("int a; int b;", content.toString());
+    }
+
+    @Test
+    public void backspacesAreMergedIntoOneAction() {
+        Content content = new Content("hello world");
+        UndoManager undoManager = content.getUndoManager();
+        int bufferLength = undoManager.getBufferLength();
+        for (int column = content.getColumnCount(0); column > 5; column--) {
+            content.delete(0, column - 1, 0, column);
+        }
+        assertEquals("hello", content.toString());
+        // Every backspace only appends the deleted char
+        assertEquals(bufferLength + 6, undoManager.getBufferLength());
+
+        content.undo();
+        assertEquals("hello world", content.toString());
+        assertFalse(content.canUndo());
+
+        content.redo();
+        assertEquals("hello", content.toString());
+        content.undo();
+        assertEquals("hello world", content.toString());
+    }
+
+    @Test
+    public void deletionRunsAreSplitByOtherActions() {
+        Content content = new Content("abcdef");
+        content.delete(0, 5, 0, 6);
+        content.delete(0, 4, 0, 5);
+        content.insert(0, 0, "x\n");
+        content.delete(1, 3, 1, 4);
+        content.delete(1, 2, 1, 3);
+        assertEquals("x\nab", content.toString());
+
+        content.undo();
+        assertEquals("x\nabcd", content.toString());
+        content.undo();
+        assertEquals("abcd", content.toString());
+        content.undo();
+        assertEquals("abcdef", content.toString());
+        assertFalse(content.canUndo());
+
+        content.redo();
+        content.redo();
+        content.redo();
+        assertEquals("x\nab", content.toString());
+    }
+
+    @Test
+    public void bufferIsCompactedWhenActionsAreRemoved() {
+        Content content = new Content();
+        content.setMaxUndoStackSize(4);
+        UndoManager undoManager = content.getUndoManager();
+
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 4000; i++) {
+            line.append((char) ('a' + i % 26));
+        }
+        List<String> states = new ArrayList<>();
+        states.add(content.toString());
+        for (int i = 0; i < 20; i++) {
+            // Line separators start a new action for every insertion
+            content.insert(content.getLineCount() - 1, 0, line + "\n");
+            states.add(content.toString());
+            int column = content.getColumnCount(0);
+            content.delete(0, column - 1, 0, column);
+            content.delete(0, column - 2, 0, column - 1);
+            states.add(content.toString());
+        }
+
+        int removedText = 20 * 4002 - 4 * 4002;
+        assertTrue(undoManager.getBufferLength() < removedText);
+
+        for (int i = 0; i < 4; i++) {
+            content.undo();
+            assertEquals(states.get(states.size() - 2 - i), content.toString());
+        }
+        assertFalse(content.canUndo());
+        for (int i = 0; i < 4; i++) {
+            content.redo();
+        }
+        assertEquals(states.get(states.size() - 1), content.toString());
+    }
+
+    @Test
+    public void undoAndRedoRestoreEveryState() {
+        Random random = new Random(0);
+        String[] texts = {"a", "bc", " ", "\n", "x\ny", "def"};
+        Content content = new Content("start\n");
+        content.setMaxUndoStackSize(Integer.MAX_VALUE);
+        List<String> states = new ArrayList<>();
+        states.add(content.toString());
+        for (int i = 0; i < 2000; i++) {
+            int length = content.length();
+            if (length > 0 && random.nextInt(3) == 0) {
+                // Backspaces, which are merged when they follow each other
+                int end = length - random.nextInt(Math.min(length, 8));
+                if (end > 0) {
+                    content.delete(end - 1, end);
+                }
+            } else if (random.nextInt(4) == 0) {
+                int start = random.nextInt(length + 1);
+                int end = Math.min(length, start + random.nextInt(5));
+                if (start < end) {
+                    content.delete(start, end);
+                }
+            } else {
+                CharPosition position = content.getIndexer().getCharPosition(random.nextInt(length + 1));
+                content.insert(position.line, position.column, texts[random.nextInt(texts.length)]);
+            }
+            states.add(content.toString());
+        }
+        String last = content.toString();
+
+        // Every undo goes back to one of the earlier states
+        int index = states.size() - 1;
+        while (content.canUndo()) {
+            content.undo();
+            String text = content.toString();
+            do {
+                index--;
+            } while (index >= 0 && !states.get(index).equals(text));
+            assertTrue("unknown state after undo", index >= 0);
+        }
+        assertEquals(states.get(0), content.toString());
+
+        while (content.canRedo()) {
+            content.redo();
+        }
+        assertEquals(last, content.toString());
+    }
+}
@@ -1,5 +1,6 @@
 package com.tyron.common.util;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -37,13 +38,76 @@ public class Cache<K, V> {
     private class Value {
         final V value;
         final Instant created = Instant.now();
+        final long version;
 
-        Value(V value) {
+        Value(V value, long version) {
             this.value = value;
+            this.version = version;
         }
     }
 
     private final Map<Key<K>, Value> map = new HashMap<>();
+    private FileChangeJournal journal;
+    /**
+     * Version of the journal when every value was last found up to date, or -1
+     */
+    private long checkedVersion = -1;
+
+    /**
+     * Use the given journal to find out whether files are modified. Files that are not
+     * tracked by it are still checked by their modification time.
+     */
+    public void setJournal(FileChangeJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Get the current version of the journal, to be passed to {@link #setCheckedVersion(long)}
+     *
+     * @return The version, or -1 if files are not tracked
+     */
+    public long getJournalVersion() {
+        FileChangeJournal journal = this.journal;
+        return journal == null || !journal.isWatching() ? -1 : journal.getVersion();
+    }
+
+    /**
+     * Remember that every value is up to date with the files at the given version of the
+     * journal, so that {@link #getChangedFiles()} only returns the files changed after it
+     */
+    public void setCheckedVersion(long version) {
+        checkedVersion = version;
+    }
+
+    /**
+     * Get the files changed after the version given to {@link #setCheckedVersion(long)}
+     *
+     * @return The changed files, or null if they are not known and every file must be
+     * checked with {@link #needs(Path, Object)}
+     */
+    public Set<File> getChangedFiles() {
+        FileChangeJournal journal = this.journal;
+        if (journal == null || checkedVersion == -1 || !journal.isWatching()) {
+            return null;
+        }
+        return journal.getChangedFiles(checkedVersion);
+    }
+
+    /**
+     * Same as {@link #needs(Path, Object)}, but a tracked file is only checked against the
+     * given files. A loaded value is up to date if the file is not in them, and needs to be
+     * loaded again if it is.
+     *
+     * @param changed Files from {@link #getChangedFiles()}, can be null
+     */
+    public boolean needs(Path file, K k, Set<File> changed) {
+        FileChangeJournal journal = this.journal;
+        if (changed != null && journal != null && map.containsKey(new Key<>(file, k))
+                && journal.isTracked(file.toFile())) {
+            return changed.contains(file.toFile().getAbsoluteFile());
+        }
+        return needs(file, k);
+    }
 
     public boolean has(Path file, K k) {
         return !needs(file, k);
@@ -60,6 +124,10 @@ public class Cache<K, V> {
 
         // If key was loaded before file was last modified, it needs to be reloaded
         Value value = map.get(key);
+        FileChangeJournal journal = this.journal;
+        if (journal != null && journal.isTracked(file.toFile())) {
+            return journal.getVersion(file.toFile()) > value.version;
+        }
         FileTime modified = null;
         try {
             modified = Files.getLastModifiedTime(file);
@@ -84,9 +152,20 @@ public class Cache<K, V> {
     }
 
     public void load(Path file, K k, V v) {
+        load(file, k, v, journal == null ? 0 : journal.getVersion());
+    }
+
+    /**
+     * Load a value computed from the file as it was at the given version of the journal.
+     * Should be used when the file is read long before the value is loaded, so changes
+     * made in between are not taken as loaded.
+     *
+     * @param version Version from {@link #getJournalVersion()} before reading the file
+     */
+    public void load(Path file, K k, V v, long version) {
         // TODO limit total size of cache
         Key<K> key = new Key<>(file, k);
-        Value value = new Value(v);
+        Value value = new Value(v, version);
         map.put(key, value);
     }
 
@@ -0,0 +1,274 @@
+package com.tyron.common.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Journal of the files changed in a project. Every change is given a version number that
+ * is greater than all the previous ones, so that caches and tasks can remember the version
+ * they are built at and ask what is changed since then, instead of checking every file.
+ *
+ * Changes are fed by a {@link WatchService} on the project directories and by
+ * {@link #record(File)} when files are saved by the editor. Build outputs and other
+ * directories in {@link #EXCLUDED_DIRS} are not watched, files in them are not tracked and
+ * must still be checked on the file system.
+ */
+public class FileChangeJournal implements Closeable {
+
+    private static final Set<String> EXCLUDED_DIRS =
+            new HashSet<>(Arrays.asList("build", ".gradle", ".git", ".idea"));
+
+    /**
+     * Count of changes kept for {@link #getChangedFiles(long)}, the older half is dropped
+     * when there are more
+     */
+    private static final int MAX_LOG_SIZE = 1 << 16;
+
+    private final File mRoot;
+    private final Map<File, Long> mVersions = new HashMap<>();
+    /**
+     * Changed files in order, the entry at index i has version (mLogStart + i).
+     * Null entries are resets
+     */
+    private final List<File> mLog = new ArrayList<>();
+    private final Map<WatchKey, Path> mKeys = new ConcurrentHashMap<>();
+    private long mLogStart = 1;
+    private long mVersion;
+    /**
+     * Version of last time that changes may be missed, when watching is started or
+     * events are lost. Every tracked file is regarded as changed at this version.
+     */
+    private long mResetVersion;
+    private WatchService mService;
+
+    public FileChangeJournal(File root) {
+        mRoot = root.getAbsoluteFile();
+    }
+
+    public File getRoot() {
+        return mRoot;
+    }
+
+    /**
+     * Start watching the project directories. Files changed before this can not be known,
+     * so all of them get the version of this call.
+     *
+     * @throws IOException if the directories can not be watched, e.g. the limit of watches
+     *                     is reached. Files are not tracked then.
+     */
+    public synchronized void start() throws IOException {
+        if (mService != null) {
+            return;
+        }
+        WatchService service = FileSystems.getDefault().newWatchService();
+        try {
+            register(service, mRoot.toPath(), false);
+        } catch (IOException | RuntimeException e) {
+            mKeys.clear();
+            try {
+                service.close();
+            } catch (IOException ignore) {
+                // Not watching anyway
+            }
+            throw e;
+        }
+        mService = service;
+        reset();
+
+        Thread thread = new Thread(() -> run(service), "FileChangeJournal");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (mService == null) {
+            return;
+        }
+        try {
+            mService.close();
+        } catch (IOException ignore) {
+            // The watch thread exits anyway
+        }
+        mService = null;
+        mKeys.clear();
+    }
+
+    public synchronized boolean isWatching() {
+        return mService != null;
+    }
+
+    /**
+     * Get the version of the latest change
+     */
+    public synchronized long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Get the version of the latest change of the given file
+     *
+     * @return The version, or 0 if the file is never changed since the journal is created
+     */
+    public synchronized long getVersion(File file) {
+        Long version = mVersions.get(file.getAbsoluteFile());
+        return Math.max(version == null ? 0 : version, mResetVersion);
+    }
+
+    /**
+     * Whether changes of the given file are tracked by this journal. For files that are not,
+     * versions returned by {@link #getVersion(File)} are meaningless.
+     */
+    public synchronized boolean isTracked(File file) {
+        if (mService == null) {
+            return false;
+        }
+        File parent = file.getAbsoluteFile().getParentFile();
+        while (parent != null && !parent.equals(mRoot)) {
+            if (EXCLUDED_DIRS.contains(parent.getName())) {
+                return false;
+            }
+            parent = parent.getParentFile();
+        }
+        return parent != null;
+    }
+
+    /**
+     * Get the files changed after the given version
+     *
+     * @return The files, or null if changes since the version are not known any more.
+     * All the files must be checked in that case
+     */
+    public synchronized Set<File> getChangedFiles(long version) {
+        if (version < mResetVersion || version + 1 < mLogStart) {
+            return null;
+        }
+        if (version >= mVersion) {
+            return Collections.emptySet();
+        }
+        Set<File> files = new LinkedHashSet<>();
+        for (int i = (int) (version + 1 - mLogStart); i < mLog.size(); i++) {
+            File file = mLog.get(i);
+            if (file != null) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Record a change of the given file
+     *
+     * @return Version of the change
+     */
+    public synchronized long record(File file) {
+        file = file.getAbsoluteFile();
+        long version = append(file);
+        mVersions.put(file, version);
+        return version;
+    }
+
+    private synchronized void reset() {
+        mResetVersion = append(null);
+    }
+
+    private long append(File file) {
+        if (mLog.size() >= MAX_LOG_SIZE) {
+            int count = MAX_LOG_SIZE / 2;
+            mLog.subList(0, count).clear();
+            mLogStart += count;
+        }
+        mLog.add(file);
+        return ++mVersion;
+    }
+
+    /**
+     * Register the given directory and the ones in it
+     *
+     * @param record Whether to record the files in them as changed, for directories created
+     *               after watching is started
+     */
+    private void register(WatchService service, Path dir, boolean record) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+                if (!d.equals(dir) && EXCLUDED_DIRS.contains(d.getFileName().toString())) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                WatchKey key = d.register(service,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                mKeys.put(key, d);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (record) {
+                    record(file.toFile());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void run(WatchService service) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                Path dir = mKeys.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                        reset();
+                        continue;
+                    }
+                    Path path = dir.resolve((Path) event.context());
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                            && Files.isDirectory(path)
+                            && !EXCLUDED_DIRS.contains(path.getFileName().toString())) {
+                        try {
+                            register(service, path, true);
+                        } catch (IOException e) {
+                            // Changes in it can not be known
+                            reset();
+                        }
+                    }
+                    record(path.toFile());
+                }
+                if (!key.reset()) {
+                    mKeys.remove(key);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ignore) {
+            // Closed
+        }
+    }
+}
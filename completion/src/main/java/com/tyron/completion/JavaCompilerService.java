@@ -65,6 +65,7 @@ public class JavaCompilerService implements CompilerProvider {
 
         this.mSourceFileManager = new SourceFileManager(project);
         this.docs = new Docs(project, docPath);
+        parseCache.setJournal(project.getFileChangeJournal());
     }
 
     public Project getProject() {